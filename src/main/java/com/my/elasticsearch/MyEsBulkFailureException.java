@@ -0,0 +1,42 @@
+package com.my.elasticsearch;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.my.elasticsearch.model.MyEsBulkItemResult;
+import org.springframework.data.elasticsearch.BulkFailureException;
+
+/**
+ * 批量写入存在失败文档，被拒绝(429)的文档已按配置重试，剩余的为最终失败
+ *
+ * @authro nantian
+ * @date 2022-11-14 10:12
+ */
+public class MyEsBulkFailureException extends BulkFailureException {
+    private final List<MyEsBulkItemResult> failures;
+
+    public MyEsBulkFailureException(List<MyEsBulkItemResult> failures) {
+        super("Bulk operation has failures. Use ElasticsearchException.getFailedDocuments() for detailed messages ["
+                + toFailedDocuments(failures) + ']', toFailedDocuments(failures));
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * 最终失败的文档，按请求顺序
+     *
+     * @return
+     */
+    public List<MyEsBulkItemResult> getFailures() {
+        return failures;
+    }
+
+    private static Map<String, String> toFailedDocuments(List<MyEsBulkItemResult> failures) {
+        Map<String, String> failedDocuments = new LinkedHashMap<>();
+        for (MyEsBulkItemResult failure : failures) {
+            failedDocuments.put(failure.getId(), failure.getFailureMessage());
+        }
+        return failedDocuments;
+    }
+}
@@ -0,0 +1,19 @@
+package com.my.elasticsearch;
+
+import com.my.elasticsearch.model.MyEsBulkItemResult;
+
+/**
+ * 异步批量写入单条失败回调，应用中注册该类型的bean即可被MyEsBulkWriter使用
+ *
+ * @authro nantian
+ * @date 2022-11-08 10:26
+ */
+@FunctionalInterface
+public interface MyEsBulkFailureHandler {
+    /**
+     * 单条文档写入失败，在bulk响应线程中回调，不要做耗时操作
+     *
+     * @param failure 失败结果
+     */
+    void onFailure(MyEsBulkItemResult failure);
+}
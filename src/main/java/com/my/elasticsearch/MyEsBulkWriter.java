@@ -0,0 +1,125 @@
+package com.my.elasticsearch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * es异步批量写入接口
+ *
+ *  单条写入操作先进入缓冲区，达到文档条数、字节数或时间间隔任一条件后合并为一个bulk请求异步发送；
+ *  同时在途的bulk请求数达到上限时，写入调用会阻塞等待，形成背压。
+ *  单条失败通过MyEsBulkFailureHandler回调，方法本身不返回写入结果
+ *
+ * @authro nantian
+ * @date 2022-11-08 10:26
+ */
+public interface MyEsBulkWriter {
+    /**
+     * 添加一个文档，会自动获取类上的@Document(indexName)属性当索引名
+     *
+     * @param model 文档数据，注解@Id的字段值不允许为空
+     */
+    <T> void add(T model);
+
+    /**
+     * 添加一个文档，会自动获取类上的@Document(indexName)属性当索引名
+     *
+     * @param model         文档数据，注解@Id的字段值不允许为空
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     */
+    <T> void add(T model, boolean nonTenantMode);
+
+    /**
+     * 添加一个文档，指定数据版本号
+     *
+     * @param model   文档数据，注解@Id的字段值不允许为空
+     * @param version 数据版本号
+     */
+    <T> void save(T model, Long version);
+
+    /**
+     * 添加一个文档，指定数据版本号
+     *
+     * @param model         文档数据，注解@Id的字段值不允许为空
+     * @param version       数据版本号
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     */
+    <T> void save(T model, Long version, boolean nonTenantMode);
+
+    /**
+     * 更新文档，只更新非null字段
+     *
+     * @param model 注解@Id的字段值不允许为空
+     */
+    <T> void update(T model);
+
+    /**
+     * 更新文档，只更新非null字段
+     *
+     * @param model         注解@Id的字段值不允许为空
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     */
+    <T> void update(T model, boolean nonTenantMode);
+
+    /**
+     * 根据ID删除文档
+     *
+     * @param id
+     * @param clazz
+     */
+    void delete(String id, Class<?> clazz);
+
+    /**
+     * 根据ID删除文档
+     *
+     * @param id
+     * @param clazz
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     */
+    void delete(String id, Class<?> clazz, boolean nonTenantMode);
+
+    /**
+     * 按routing删除文档，写入时指定了routing的文档需传入相同routing
+     *
+     * @param id
+     * @param clazz
+     * @param routing       路由值，可为null
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     */
+    void delete(String id, Class<?> clazz, @Nullable String routing, boolean nonTenantMode);
+
+    /**
+     * 删除文档，按注解@Id、@EsRouting或join关系获取ID及routing，与add一致
+     *
+     * @param model 注解@Id的字段值不允许为空
+     */
+    <T> void delete(T model);
+
+    /**
+     * 删除文档，按注解@Id、@EsRouting或join关系获取ID及routing，与add一致
+     *
+     * @param model         注解@Id的字段值不允许为空
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     */
+    <T> void delete(T model, boolean nonTenantMode);
+
+    /**
+     * 立即发送缓冲区中的数据
+     */
+    void flush();
+
+    /**
+     * 关闭并发送缓冲区中的数据，等待在途请求完成
+     *
+     * @param timeout
+     * @param unit
+     * @return 超时前全部完成返回true
+     */
+    boolean close(long timeout, TimeUnit unit);
+
+    /**
+     * 关闭并发送缓冲区中的数据，使用默认等待时间，应用关闭时自动调用
+     */
+    void close();
+}
@@ -1,15 +1,29 @@
 package com.my.elasticsearch;
 
+import java.io.OutputStream;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
+import com.my.elasticsearch.model.MyEsBulkItemResult;
+import com.my.elasticsearch.model.MyEsBulkSummary;
+import com.my.elasticsearch.model.MyEsByQueryOptions;
+import com.my.elasticsearch.model.MyEsNearCacheStats;
 import com.my.elasticsearch.model.MyEsSearchRequest;
+import com.my.elasticsearch.model.MyEsSpoolStats;
+import com.my.elasticsearch.model.MyEsTaskStatus;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.script.Script;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.elasticsearch.core.IndexedObjectInformation;
 import org.springframework.data.elasticsearch.core.SearchHits;
 import org.springframework.data.elasticsearch.core.query.BulkOptions;
+import org.springframework.data.elasticsearch.core.query.ByQueryResponse;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
 import org.springframework.data.elasticsearch.core.query.UpdateResponse;
 
@@ -109,6 +123,17 @@ public interface MyEsService {
      */
     boolean existDocById(Class<?> clazz, String docId, boolean nonTenantMode);
 
+    /**
+     * 按routing判断一个文档是否存在，写入时指定了routing的文档需传入相同routing才能查到
+     *
+     * @param clazz
+     * @param docId
+     * @param routing       路由值，为null时同existDocById(clazz, docId, nonTenantMode)
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    boolean existDocById(Class<?> clazz, String docId, @Nullable String routing, boolean nonTenantMode);
+
     /**
      * 添加一个数据到索引中，推荐使用@addIndexDoc(T model)
      *
@@ -231,6 +256,7 @@ public interface MyEsService {
 
     /**
      * 批量添加索引，会自动获取类上的 @Document(indexName)属性当索引名
+     * 数据量大时会按条数及数据量自动拆分为多个bulk请求，返回结果与docList顺序一致
      *
      * @param clazz
      * @param docList
@@ -248,6 +274,69 @@ public interface MyEsService {
      */
     <T> List<IndexedObjectInformation> bulkAddIndexDoc(Class<?> clazz, List<T> docList, boolean nonTenantMode);
 
+    /**
+     * 流式批量添加索引，文档边读取边按条数及数据量分批发送，内存占用与文档总数无关，适用于全量导入
+     * 失败文档不抛异常，记录在返回的汇总结果中
+     *
+     * @param clazz
+     * @param docs  文档迭代器
+     * @return
+     */
+    <T> MyEsBulkSummary bulkAddIndexDoc(Class<?> clazz, Iterator<T> docs);
+
+    /**
+     * 流式批量添加索引，文档边读取边按条数及数据量分批发送，内存占用与文档总数无关，适用于全量导入
+     * 失败文档不抛异常，记录在返回的汇总结果中
+     *
+     * @param clazz
+     * @param docs          文档迭代器
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    <T> MyEsBulkSummary bulkAddIndexDoc(Class<?> clazz, Iterator<T> docs, boolean nonTenantMode);
+
+    /**
+     * 流式批量添加索引，执行完成后关闭stream
+     *
+     * @param clazz
+     * @param docs  文档stream，如数据库流式查询结果
+     * @return
+     */
+    <T> MyEsBulkSummary bulkAddIndexDoc(Class<?> clazz, Stream<T> docs);
+
+    /**
+     * 流式批量添加索引，执行完成后关闭stream
+     *
+     * @param clazz
+     * @param docs          文档stream，如数据库流式查询结果
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    <T> MyEsBulkSummary bulkAddIndexDoc(Class<?> clazz, Stream<T> docs, boolean nonTenantMode);
+
+    /**
+     * 大批量导入，索引不存在时自动创建
+     * 导入期间设置refresh_interval=-1、number_of_replicas=0，导入结束(包括异常)后恢复原配置并刷新索引
+     *
+     * @param clazz
+     * @param docs       文档stream，执行完成后关闭
+     * @param forceMerge 导入成功后是否强制合并为1个段
+     * @return
+     */
+    <T> MyEsBulkSummary bulkLoad(Class<?> clazz, Stream<T> docs, boolean forceMerge);
+
+    /**
+     * 大批量导入，索引不存在时自动创建
+     * 导入期间设置refresh_interval=-1、number_of_replicas=0，导入结束(包括异常)后恢复原配置并刷新索引
+     *
+     * @param clazz
+     * @param docs          文档stream，执行完成后关闭
+     * @param forceMerge    导入成功后是否强制合并为1个段
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    <T> MyEsBulkSummary bulkLoad(Class<?> clazz, Stream<T> docs, boolean forceMerge, boolean nonTenantMode);
+
     /**
      * 批量添加索引
      *
@@ -284,6 +373,72 @@ public interface MyEsService {
      */
     <T> UpdateResponse.Result updateDoc(T model, boolean nonTenantMode);
 
+    /**
+     * 更新文档，会自动获取类上的@Document(indexName)属性当索引名
+     * 只发送一次update请求，文档不存在且非upsert模式时抛出IllegalArgumentException
+     *
+     * @param model           注解@Id的字段值不允许为空
+     * @param docAsUpsert     文档不存在时是否以当前文档新增
+     * @param retryOnConflict 版本冲突时es端重试次数，为null使用es默认值
+     * @return
+     */
+    <T> UpdateResponse.Result updateDoc(T model, boolean docAsUpsert, @Nullable Integer retryOnConflict);
+
+    /**
+     * 更新文档，会自动获取类上的@Document(indexName)属性当索引名
+     * 只发送一次update请求，文档不存在且非upsert模式时抛出IllegalArgumentException
+     *
+     * @param model           注解@Id的字段值不允许为空
+     * @param docAsUpsert     文档不存在时是否以当前文档新增
+     * @param retryOnConflict 版本冲突时es端重试次数，为null使用es默认值
+     * @param nonTenantMode   是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    <T> UpdateResponse.Result updateDoc(T model, boolean docAsUpsert, @Nullable Integer retryOnConflict, boolean nonTenantMode);
+
+    /**
+     * 只更新修改前后有变化的字段，会自动获取类上的@Document(indexName)属性当索引名
+     * 修改后为null的字段会在es中被清空；没有变更字段时不发送请求，返回NOOP
+     *
+     * @param oldModel 修改前文档，如findById查询结果
+     * @param newModel 修改后文档，注解@Id的字段值需与oldModel一致
+     * @return
+     */
+    <T> UpdateResponse.Result updateDocDiff(T oldModel, T newModel);
+
+    /**
+     * 只更新修改前后有变化的字段，会自动获取类上的@Document(indexName)属性当索引名
+     * 修改后为null的字段会在es中被清空；没有变更字段时不发送请求，返回NOOP
+     *
+     * @param oldModel      修改前文档，如findById查询结果
+     * @param newModel      修改后文档，注解@Id的字段值需与oldModel一致
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    <T> UpdateResponse.Result updateDocDiff(T oldModel, T newModel, boolean nonTenantMode);
+
+    /**
+     * 批量只更新有变化的字段，修改前后文档按@Id匹配，没有变更字段的文档不发送
+     *
+     * @param clazz
+     * @param oldList 修改前文档，如findByIds查询结果
+     * @param newList 修改后文档，每个文档在oldList中需存在相同@Id的文档
+     * @return 实际发送的文档更新结果
+     */
+    <T> List<IndexedObjectInformation> bulkUpdateDocDiff(Class<?> clazz, List<T> oldList, List<T> newList);
+
+    /**
+     * 批量只更新有变化的字段，修改前后文档按@Id匹配，没有变更字段的文档不发送
+     *
+     * @param clazz
+     * @param oldList       修改前文档，如findByIds查询结果
+     * @param newList       修改后文档，每个文档在oldList中需存在相同@Id的文档
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 实际发送的文档更新结果
+     */
+    <T> List<IndexedObjectInformation> bulkUpdateDocDiff(Class<?> clazz, List<T> oldList, List<T> newList,
+                                                         boolean nonTenantMode);
+
     /**
      * 批量更新文档，会自动获取类上的@Document(indexName)属性当索引名
      *
@@ -322,6 +477,17 @@ public interface MyEsService {
      */
     String delIndexDoc(String id, Class<?> clazz, boolean nonTenantMode);
 
+    /**
+     * 按routing删除一个索引文档，写入时指定了routing的文档需传入相同routing
+     *
+     * @param id
+     * @param clazz
+     * @param routing       路由值，可为null
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    String delIndexDoc(String id, Class<?> clazz, @Nullable String routing, boolean nonTenantMode);
+
     /**
      * 批量删除索引
      *
@@ -341,6 +507,170 @@ public interface MyEsService {
      */
     List<String> bulkDelIndexDoc(Class<?> clazz, List<String> ids, boolean nonTenantMode);
 
+    /**
+     * 按routing批量删除索引，写入时指定了routing的文档需传入相同routing
+     *
+     * @param clazz
+     * @param ids           使用同一routing的文档ID
+     * @param routing       路由值，可为null
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    List<String> bulkDelIndexDoc(Class<?> clazz, List<String> ids, @Nullable String routing, boolean nonTenantMode);
+
+    /**
+     * 批量删除索引，返回每个ID的删除结果(DELETED/NOT_FOUND/FAILED)，与ids顺序一致
+     *
+     * @param clazz
+     * @param ids
+     * @return
+     */
+    List<MyEsBulkItemResult> bulkDelIndexDocWithResult(Class<?> clazz, List<String> ids);
+
+    /**
+     * 批量删除索引，返回每个ID的删除结果(DELETED/NOT_FOUND/FAILED)，与ids顺序一致
+     *
+     * @param clazz
+     * @param ids
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    List<MyEsBulkItemResult> bulkDelIndexDocWithResult(Class<?> clazz, List<String> ids, boolean nonTenantMode);
+
+    /**
+     * 按routing批量删除索引，返回每个ID的删除结果(DELETED/NOT_FOUND/FAILED)，与ids顺序一致
+     * 写入时指定了routing的文档需传入相同routing，否则发送到其它分片返回NOT_FOUND
+     *
+     * @param clazz
+     * @param ids           使用同一routing的文档ID
+     * @param routing       路由值，可为null
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    List<MyEsBulkItemResult> bulkDelIndexDocWithResult(Class<?> clazz, List<String> ids, @Nullable String routing,
+                                                       boolean nonTenantMode);
+
+    /**
+     * 按查询条件更新文档，由es服务端执行，默认按分片数自动切片
+     *
+     * @param clazz
+     * @param queryBuilder 查询条件
+     * @param script       更新脚本
+     * @return
+     */
+    ByQueryResponse updateByQuery(Class<?> clazz, QueryBuilder queryBuilder, Script script);
+
+    /**
+     * 按查询条件更新文档，由es服务端执行，同步等待执行完成
+     *
+     * @param clazz
+     * @param queryBuilder  查询条件
+     * @param script        更新脚本
+     * @param options       切片、限流等参数，为null使用默认值
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    ByQueryResponse updateByQuery(Class<?> clazz, QueryBuilder queryBuilder, Script script,
+                                  @Nullable MyEsByQueryOptions options, boolean nonTenantMode);
+
+    /**
+     * 按查询条件删除文档，由es服务端执行，默认按分片数自动切片
+     *
+     * @param clazz
+     * @param queryBuilder 查询条件
+     * @return
+     */
+    ByQueryResponse deleteByQuery(Class<?> clazz, QueryBuilder queryBuilder);
+
+    /**
+     * 按查询条件删除文档，由es服务端执行，同步等待执行完成
+     *
+     * @param clazz
+     * @param queryBuilder  查询条件
+     * @param options       切片、限流等参数，为null使用默认值
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    ByQueryResponse deleteByQuery(Class<?> clazz, QueryBuilder queryBuilder, @Nullable MyEsByQueryOptions options,
+                                  boolean nonTenantMode);
+
+    /**
+     * 以后台任务方式提交按查询条件更新，立即返回任务ID，通过getTask、waitForTask查询进度
+     *
+     * @param clazz
+     * @param queryBuilder  查询条件
+     * @param script        更新脚本
+     * @param options       切片、限流等参数，为null使用默认值
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 任务ID
+     */
+    String submitUpdateByQuery(Class<?> clazz, QueryBuilder queryBuilder, Script script,
+                               @Nullable MyEsByQueryOptions options, boolean nonTenantMode);
+
+    /**
+     * 以后台任务方式提交按查询条件删除，立即返回任务ID，通过getTask、waitForTask查询进度
+     *
+     * @param clazz
+     * @param queryBuilder  查询条件
+     * @param options       切片、限流等参数，为null使用默认值
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 任务ID
+     */
+    String submitDeleteByQuery(Class<?> clazz, QueryBuilder queryBuilder, @Nullable MyEsByQueryOptions options,
+                               boolean nonTenantMode);
+
+    /**
+     * 查询后台任务进度
+     *
+     * @param taskId 任务ID
+     * @return 任务不存在返回null
+     */
+    MyEsTaskStatus getTask(String taskId);
+
+    /**
+     * 轮询等待后台任务完成
+     *
+     * @param taskId  任务ID
+     * @param timeout 最长等待时间
+     * @param unit
+     * @return 超时返回最后一次查询的进度(completed为false)，任务不存在返回null
+     */
+    MyEsTaskStatus waitForTask(String taskId, long timeout, TimeUnit unit);
+
+    /**
+     * 索引迁移，按类上最新的mapping、setting创建新版本索引，reindex复制数据后原子切换别名，迁移期间读写不中断
+     * 用于修改已有字段类型等updateIndexMapping不支持的变更
+     *
+     * @param clazz
+     * @return 新索引名
+     */
+    String migrateIndex(Class<?> clazz);
+
+    /**
+     * 索引迁移，按类上最新的mapping、setting创建新版本索引(索引名_v{n})，reindex复制数据后原子切换别名，迁移期间读写不中断
+     * 迁移期间通过本服务及MyEsBulkWriter写入的文档会同时写入新索引；迁移中的索引拒绝updateByQuery、deleteByQuery
+     *
+     * @param clazz
+     * @param options       reindex切片、限流、批次大小参数，为null使用默认值；不支持maxDocs
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 新索引名
+     */
+    String migrateIndex(Class<?> clazz, @Nullable MyEsByQueryOptions options, boolean nonTenantMode);
+
+    /**
+     * 本地写入暂存统计，未开启暂存返回null
+     *
+     * @return
+     */
+    MyEsSpoolStats getSpoolStats();
+
+    /**
+     * 文档本地缓存统计，包括命中率、淘汰条数，未开启缓存返回null
+     *
+     * @return
+     */
+    MyEsNearCacheStats getNearCacheStats();
+
     /**
      * 删除一个索引文档，会自动从类上获取注解为@Id属性的value当作ID
      *
@@ -376,6 +706,18 @@ public interface MyEsService {
      */
     <T> T findById(String docId, Class<T> clazz, boolean nonTenantMode);
 
+    /**
+     * 按routing查询文档，只访问routing对应的分片
+     *
+     * @param docId
+     * @param clazz
+     * @param routing       路由值，为null时同findById(docId, clazz, nonTenantMode)
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @param <T>
+     * @return
+     */
+    <T> T findById(String docId, Class<T> clazz, @Nullable String routing, boolean nonTenantMode);
+
     /**
      * 根据ID批量查询
      *
@@ -392,6 +734,43 @@ public interface MyEsService {
      <T> List<T> findByIds(Class<T> clazz, List<String> docIdList) ;
      <T> List<T> findByIds(Class<T> clazz, List<String> docIdList,boolean nonTenantMode) ;
 
+    /**
+     * 按routing批量查询，所有ID使用同一个routing
+     *
+     * @param clazz
+     * @param docIdList
+     * @param routing       路由值，为null时同findByIds(clazz, docIdList, nonTenantMode)
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @param <T>
+     * @return
+     */
+    <T> List<T> findByIds(Class<T> clazz, List<String> docIdList, @Nullable String routing, boolean nonTenantMode);
+
+    /**
+     * 根据ID批量查询，返回ID -> 文档，按docIdList顺序，不存在的ID不包含在结果中
+     *
+     * @param clazz
+     * @param docIdList
+     * @param <T>
+     * @return
+     */
+    <T> Map<String, T> findByIdsAsMap(Class<T> clazz, List<String> docIdList);
+
+    /**
+     * 根据ID批量查询，返回ID -> 文档，按docIdList顺序，不存在的ID不包含在结果中
+     *
+     *  ID数较多时自动拆分为多个mget请求并行发送
+     *
+     * @param clazz
+     * @param docIdList
+     * @param includes      只返回指定字段，为空返回全部
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @param <T>
+     * @return
+     */
+    <T> Map<String, T> findByIdsAsMap(Class<T> clazz, List<String> docIdList, @Nullable String[] includes,
+                                      boolean nonTenantMode);
+
 
     /**
      * 更丰富灵活的索引查询，开放spring-boot-es-starter原生NativeSearchQueryBuilder
@@ -494,4 +873,153 @@ public interface MyEsService {
      */
     <T> SearchHits<T> search(Class<T> clazz, QueryBuilder queryBuilder, QueryBuilder filterBuilder, @Nullable Pageable pageable, boolean nonTenantMode);
 
+    /**
+     * 深度分页查询，适用于遍历大量数据
+     *
+     *  基于point in time快照 + search_after逐页拉取，每页条数使用全局配置，不受max_result_window限制，
+     *  内存占用和每页耗时不随翻页深度增长。返回的stream需要关闭(或读取完)，以释放point in time
+     *
+     * @param clazz   索引类
+     * @param request 查询条件，pageable只使用其中的排序，不支持聚合
+     * @return 懒加载的文档stream
+     */
+    <T> Stream<T> searchStream(Class<T> clazz, MyEsSearchRequest request);
+
+    /**
+     * 深度分页查询，适用于遍历大量数据
+     *
+     * @param clazz         索引类
+     * @param request       查询条件，pageable只使用其中的排序，不支持聚合
+     * @param pageSize      每页条数
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 懒加载的文档stream，需要关闭(或读取完)
+     */
+    <T> Stream<T> searchStream(Class<T> clazz, MyEsSearchRequest request, int pageSize, boolean nonTenantMode);
+
+    /**
+     * 导出索引数据，基于point in time按索引顺序逐页读取，读取完成或异常时释放point in time
+     *
+     * @param clazz         索引类
+     * @param filterBuilder 过滤条件，为null导出全部
+     * @param consumer      逐条处理文档
+     * @return 导出条数
+     */
+    <T> long export(Class<T> clazz, @Nullable QueryBuilder filterBuilder, Consumer<? super T> consumer);
+
+    /**
+     * 导出索引数据，基于point in time按索引顺序逐页读取，读取完成或异常时释放point in time
+     *
+     * @param clazz         索引类
+     * @param filterBuilder 过滤条件，为null导出全部
+     * @param consumer      逐条处理文档
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 导出条数
+     */
+    <T> long export(Class<T> clazz, @Nullable QueryBuilder filterBuilder, Consumer<? super T> consumer,
+                    boolean nonTenantMode);
+
+    /**
+     * 分片(slice)并行导出索引数据，多个分片在导出线程池中并行读取、转换，consumer串行调用(不保证顺序)
+     *
+     * @param clazz         索引类
+     * @param filterBuilder 过滤条件，为null导出全部
+     * @param consumer      逐条处理文档
+     * @param slices        分片数，小于等于0表示使用索引主分片数，1表示不分片
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 导出条数
+     */
+    <T> long export(Class<T> clazz, @Nullable QueryBuilder filterBuilder, Consumer<? super T> consumer,
+                    int slices, boolean nonTenantMode);
+
+    /**
+     * 导出索引原始数据，每个文档的_source一行(NDJSON)写入outputStream，不转换为文档对象
+     *
+     * @param clazz         索引类
+     * @param filterBuilder 过滤条件，为null导出全部
+     * @param outputStream  写入完成后flush，不关闭
+     * @return 导出条数
+     */
+    long exportRaw(Class<?> clazz, @Nullable QueryBuilder filterBuilder, OutputStream outputStream);
+
+    /**
+     * 导出索引原始数据，每个文档的_source一行(NDJSON)写入outputStream，不转换为文档对象
+     *
+     * @param clazz         索引类
+     * @param filterBuilder 过滤条件，为null导出全部
+     * @param outputStream  写入完成后flush，不关闭
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 导出条数
+     */
+    long exportRaw(Class<?> clazz, @Nullable QueryBuilder filterBuilder, OutputStream outputStream,
+                   boolean nonTenantMode);
+
+    /**
+     * 分片(slice)并行导出索引原始数据(NDJSON)，各分片按块写入outputStream，行不会交错，但不保证顺序
+     *
+     * @param clazz         索引类
+     * @param filterBuilder 过滤条件，为null导出全部
+     * @param outputStream  写入完成后flush，不关闭
+     * @param slices        分片数，小于等于0表示使用索引主分片数，1表示不分片
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 导出条数
+     */
+    long exportRaw(Class<?> clazz, @Nullable QueryBuilder filterBuilder, OutputStream outputStream, int slices,
+                   boolean nonTenantMode);
+
+    /**
+     * 父子文档(join)查询：查询存在满足条件子文档的父文档
+     *
+     *  子文档写入时会自动使用RelationModel.parent作为routing，与父文档在同一分片
+     *
+     * @param clazz             索引类
+     * @param childRelationName 子文档关系名
+     * @param childQuery        子文档查询条件
+     * @param pageable
+     * @param nonTenantMode     是否是租户模式，true表示非租户模式，即通用索引
+     * @return 父文档
+     */
+    <T> SearchHits<T> searchHasChild(Class<T> clazz, String childRelationName, QueryBuilder childQuery,
+                                     @Nullable Pageable pageable, boolean nonTenantMode);
+
+    /**
+     * 父子文档(join)查询：查询父文档满足条件的子文档，多个父文档ID可传入idsQuery，一次查询代替逐个父文档查询
+     *
+     * @param clazz              索引类
+     * @param parentRelationName 父文档关系名
+     * @param parentQuery        父文档查询条件
+     * @param pageable
+     * @param nonTenantMode      是否是租户模式，true表示非租户模式，即通用索引
+     * @return 子文档
+     */
+    <T> SearchHits<T> searchHasParent(Class<T> clazz, String parentRelationName, QueryBuilder parentQuery,
+                                      @Nullable Pageable pageable, boolean nonTenantMode);
+
+    /**
+     * 父子文档(join)查询：查询指定父文档下的子文档，按父文档ID路由只访问一个分片；
+     * 类上有@EsRouting字段时子文档按该字段路由，不指定routing，查询所有分片
+     *
+     * @param clazz             索引类
+     * @param childRelationName 子文档关系名
+     * @param parentId          父文档ID
+     * @param pageable
+     * @param nonTenantMode     是否是租户模式，true表示非租户模式，即通用索引
+     * @return 子文档
+     */
+    <T> SearchHits<T> searchByParentId(Class<T> clazz, String childRelationName, String parentId,
+                                       @Nullable Pageable pageable, boolean nonTenantMode);
+
+    /**
+     * 父子文档(join)查询：查询指定父文档下的子文档，按指定routing只访问一个分片
+     *
+     * @param clazz             索引类
+     * @param childRelationName 子文档关系名
+     * @param parentId          父文档ID
+     * @param routing           子文档写入时的路由值(@EsRouting字段值，多级父子文档为根文档ID)，为null查询所有分片
+     * @param pageable
+     * @param nonTenantMode     是否是租户模式，true表示非租户模式，即通用索引
+     * @return 子文档
+     */
+    <T> SearchHits<T> searchByParentId(Class<T> clazz, String childRelationName, String parentId,
+                                       @Nullable String routing, @Nullable Pageable pageable, boolean nonTenantMode);
+
 }
@@ -0,0 +1,22 @@
+package com.my.elasticsearch.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 开启文档本地缓存
+ *
+ *  标注在@Document类上，按ID查询(findById、findByIds)时先读本地缓存，未命中再查询es并写入缓存；
+ *  通过MyEsService写入、更新、删除文档时失效对应缓存。其他进程的写入只能等缓存过期，适合读多写少的热点文档
+ *
+ * @authro nantian
+ * @date 2022-11-21 10:20
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface EsNearCache {
+}
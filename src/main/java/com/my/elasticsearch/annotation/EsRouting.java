@@ -0,0 +1,22 @@
+package com.my.elasticsearch.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 文档路由字段
+ *
+ *  标注在@Document类的字段上，写入文档时以该字段值作为routing，同一routing的文档写入同一分片；
+ *  读取、删除、查询时需传入相同的routing，只访问该分片。字段值为null时使用es默认路由(文档ID)
+ *
+ * @authro nantian
+ * @date 2022-11-18 09:40
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface EsRouting {
+}
@@ -0,0 +1,35 @@
+package com.my.elasticsearch.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.my.elasticsearch.metadata.DocumentMetadata;
+import org.springframework.util.Assert;
+
+/**
+ * 文档类元数据缓存，每个类只解析一次
+ *
+ * @authro nantian
+ * @date 2022-11-02 10:21
+ */
+public class DocumentMetadataCache {
+    /**
+     * 索引类与元数据缓存
+     */
+    private final static Map<Class<?>, DocumentMetadata> DOCUMENT_METADATA_MAP = new ConcurrentHashMap<>();
+
+    /**
+     * 获取文档类元数据，类需标注@Document注解
+     *
+     * @param clazz
+     * @return not null
+     */
+    public static DocumentMetadata get(Class<?> clazz) {
+        Assert.notNull(clazz, "elasticsearch document class must not be null.");
+        DocumentMetadata metadata = DOCUMENT_METADATA_MAP.get(clazz);
+        if (metadata != null) {
+            return metadata;
+        }
+        return DOCUMENT_METADATA_MAP.computeIfAbsent(clazz, DocumentMetadata::of);
+    }
+}
@@ -0,0 +1,232 @@
+package com.my.elasticsearch.cache;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.my.elasticsearch.annotation.EsNearCache;
+import com.my.elasticsearch.model.MyEsNearCacheStats;
+import org.elasticsearch.action.DocWriteRequest;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.lang.Nullable;
+
+/**
+ * 文档本地缓存，缓存按ID查询到的文档
+ *
+ *  key为实际操作的索引名(已按租户模式转换)与文档ID，value为es返回的文档，每次命中重新转换为对象，调用方修改对象不影响缓存；
+ *  按最大条数(近似LRU)淘汰，写入后超过有效期过期。写入、删除文档时主动失效，查询过程中该文档发生过失效时不写入缓存，
+ *  避免并发写入时把旧文档写回缓存。失效次数按文档分段计数，内存占用固定，其它文档的写入只在落入同一分段时使查询结果不缓存
+ *
+ * @authro nantian
+ * @date 2022-11-21 10:40
+ */
+public class DocumentNearCache {
+    /**
+     * 为null表示不缓存
+     */
+    @Nullable
+    private final Cache<Key, Document> cache;
+    /**
+     * 文档失效分段数，2的幂
+     */
+    private static final int STRIPES = 4096;
+
+    /**
+     * 按索引名、文档ID分段的失效次数，查询前记录，写入缓存时比较
+     */
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPES);
+    /**
+     * 索引名 -> 整个索引的失效次数
+     */
+    private final Map<String, AtomicLong> indexStamps = new ConcurrentHashMap<>();
+    /**
+     * 清空缓存次数
+     */
+    private final AtomicLong clearStamp = new AtomicLong();
+    /**
+     * 类是否标注@EsNearCache
+     */
+    private final Map<Class<?>, Boolean> enabledClassMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param maximumSize 最大缓存条数，小于等于0表示不缓存
+     * @param ttl         写入后有效期，小于等于0表示不缓存
+     * @param unit
+     */
+    public DocumentNearCache(long maximumSize, long ttl, TimeUnit unit) {
+        if (maximumSize > 0 && ttl > 0) {
+            this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl, unit)
+                    .recordStats().build();
+        } else {
+            this.cache = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * 该类是否使用缓存，需开启缓存且类上标注@EsNearCache
+     *
+     * @param clazz 文档类
+     * @return
+     */
+    public boolean isEnabled(Class<?> clazz) {
+        return cache != null && clazz != null
+                && enabledClassMap.computeIfAbsent(clazz, c -> c.isAnnotationPresent(EsNearCache.class));
+    }
+
+    /**
+     * 获取缓存的文档，未缓存返回null
+     *
+     * @param indexName 实际索引名
+     * @param id        文档ID
+     * @return
+     */
+    @Nullable
+    public Document get(String indexName, String id) {
+        if (cache == null || indexName == null || id == null) {
+            return null;
+        }
+        return cache.getIfPresent(new Key(indexName, id));
+    }
+
+    /**
+     * 文档当前的失效次数(文档所在分段、索引及清空次数之和)，查询es前获取，写入缓存时传入
+     *
+     * @param indexName 实际索引名
+     * @param id        文档ID
+     * @return
+     */
+    public long stamp(String indexName, String id) {
+        AtomicLong indexStamp = indexStamps.get(indexName);
+        return stripes.get(stripe(indexName, id)) + (indexStamp == null ? 0 : indexStamp.get()) + clearStamp.get();
+    }
+
+    /**
+     * 缓存查询到的文档，查询开始后该文档发生过失效则不缓存
+     *
+     * @param indexName 实际索引名
+     * @param id        文档ID
+     * @param document  es返回的文档
+     * @param stamp     查询前获取的失效次数
+     */
+    public void put(String indexName, String id, Document document, long stamp) {
+        if (cache == null || document == null || stamp(indexName, id) != stamp) {
+            return;
+        }
+        Key key = new Key(indexName, id);
+        cache.put(key, document);
+        // 写入缓存与失效并发时，以失效为准
+        if (stamp(indexName, id) != stamp) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * 失效单个文档
+     *
+     * @param indexName 实际索引名
+     * @param id        文档ID，为null时忽略
+     */
+    public void invalidate(String indexName, @Nullable String id) {
+        if (cache == null || indexName == null || id == null) {
+            return;
+        }
+        stripes.incrementAndGet(stripe(indexName, id));
+        cache.invalidate(new Key(indexName, id));
+    }
+
+    /**
+     * 失效写入请求涉及的文档
+     *
+     * @param requests 写入、更新、删除请求
+     */
+    public void invalidate(Iterable<? extends DocWriteRequest<?>> requests) {
+        if (cache == null) {
+            return;
+        }
+        for (DocWriteRequest<?> request : requests) {
+            invalidate(request.index(), request.id());
+        }
+    }
+
+    /**
+     * 失效索引下全部文档，按条件更新、删除或重建索引时调用
+     *
+     * @param indexName 实际索引名
+     */
+    public void invalidateIndex(String indexName) {
+        if (cache == null || indexName == null) {
+            return;
+        }
+        indexStamps.computeIfAbsent(indexName, k -> new AtomicLong()).incrementAndGet();
+        cache.asMap().keySet().removeIf(key -> key.indexName.equals(indexName));
+    }
+
+    public void clear() {
+        if (cache != null) {
+            clearStamp.incrementAndGet();
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * 缓存统计，未开启缓存返回null
+     *
+     * @return
+     */
+    @Nullable
+    public MyEsNearCacheStats getStats() {
+        if (cache == null) {
+            return null;
+        }
+        CacheStats cacheStats = cache.stats();
+        MyEsNearCacheStats stats = new MyEsNearCacheStats();
+        stats.setHitCount(cacheStats.hitCount());
+        stats.setMissCount(cacheStats.missCount());
+        stats.setHitRate(cacheStats.hitRate());
+        stats.setEvictionCount(cacheStats.evictionCount());
+        stats.setSize(cache.size());
+        return stats;
+    }
+
+    private static int stripe(String indexName, String id) {
+        int hash = 31 * indexName.hashCode() + id.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private static final class Key {
+        private final String indexName;
+        private final String id;
+
+        private Key(String indexName, String id) {
+            this.indexName = indexName;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return indexName.equals(key.indexName) && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(indexName, id);
+        }
+    }
+}
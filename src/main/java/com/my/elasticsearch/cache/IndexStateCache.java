@@ -0,0 +1,81 @@
+package com.my.elasticsearch.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已存在索引缓存，减少写入、更新前重复调用existIndex的网络请求
+ *
+ *  key为实际操作的索引名(已按租户模式转换)，即同一个索引类在不同租户下分别缓存；
+ *  只缓存存在的索引，过期后重新远程判断，创建、删除索引时主动失效
+ *
+ * @authro nantian
+ * @date 2022-11-04 09:40
+ */
+public class IndexStateCache {
+    /**
+     * 索引名与过期时间(毫秒)
+     */
+    private final Map<String, Long> existIndexExpireMap = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存有效期，小于等于0表示不缓存
+     */
+    private final long ttlMillis;
+
+    public IndexStateCache(long ttl, TimeUnit unit) {
+        this.ttlMillis = unit.toMillis(ttl);
+    }
+
+    public boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    /**
+     * 索引是否已知存在，未缓存或已过期返回false
+     *
+     * @param indexName 实际索引名
+     * @return
+     */
+    public boolean isKnownExist(String indexName) {
+        if (!isEnabled() || indexName == null) {
+            return false;
+        }
+        Long expireAt = existIndexExpireMap.get(indexName);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            existIndexExpireMap.remove(indexName, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记索引存在
+     *
+     * @param indexName 实际索引名
+     */
+    public void markExist(String indexName) {
+        if (isEnabled() && indexName != null) {
+            existIndexExpireMap.put(indexName, System.currentTimeMillis() + ttlMillis);
+        }
+    }
+
+    /**
+     * 失效索引缓存
+     *
+     * @param indexName 实际索引名
+     */
+    public void invalidate(String indexName) {
+        if (indexName != null) {
+            existIndexExpireMap.remove(indexName);
+        }
+    }
+
+    public void clear() {
+        existIndexExpireMap.clear();
+    }
+}
@@ -0,0 +1,253 @@
+package com.my.elasticsearch.cache;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.springframework.lang.Nullable;
+
+/**
+ * 查询结果缓存，缓存es返回的原始search响应
+ *
+ *  key为实际操作的索引名(已按租户模式转换)、索引版本与渲染后的查询请求(查询条件、过滤、聚合、分页排序、返回字段、routing)，
+ *  每次命中重新转换为SearchHits，调用方修改结果不影响缓存；按命中文档_source大小估算占用限制总内存，写入后超过有效期过期。
+ *  写入索引时索引版本更新为全局递增的新值，旧版本的缓存不再命中，等待过期或淘汰；写入后refreshDelay内的查询可能读不到新写入的数据，不缓存。
+ *  索引版本超过有效期加refreshDelay未访问时移除，再次访问时重新分配版本
+ *
+ * @authro nantian
+ * @date 2022-11-22 10:10
+ */
+public class SearchResultCache {
+    /**
+     * 为null表示不缓存
+     */
+    @Nullable
+    private final Cache<Key, Entry> cache;
+    /**
+     * 写入后不缓存查询结果的时间(毫秒)，一般为索引刷新间隔
+     */
+    private final long refreshDelayMillis;
+    /**
+     * 每条命中文档除_source外的估算开销(字节)
+     */
+    private static final int HIT_OVERHEAD = 256;
+    /**
+     * 每个聚合结果的估算开销(字节)
+     */
+    private static final int AGGREGATION_OVERHEAD = 1024;
+    /**
+     * 每个响应的估算开销(字节)
+     */
+    private static final int RESPONSE_OVERHEAD = 512;
+
+    /**
+     * 索引版本序号，版本不重复使用，移除后重新分配的版本不会命中移除前的缓存
+     */
+    private final AtomicLong versionSequence = new AtomicLong();
+    /**
+     * 索引名与写入版本，为null表示不缓存
+     */
+    @Nullable
+    private final Map<String, IndexVersion> indexVersionMap;
+
+    /**
+     * @param maximumBytes       缓存响应的最大总大小(字节)，小于等于0表示不缓存
+     * @param ttl                写入后有效期，小于等于0表示不缓存
+     * @param unit
+     * @param refreshDelayMillis 索引写入后不缓存查询结果的时间(毫秒)
+     */
+    public SearchResultCache(long maximumBytes, long ttl, TimeUnit unit, long refreshDelayMillis) {
+        this.refreshDelayMillis = Math.max(refreshDelayMillis, 0);
+        if (maximumBytes > 0 && ttl > 0) {
+            this.cache = CacheBuilder.newBuilder().maximumWeight(maximumBytes)
+                    .weigher((Key key, Entry entry) -> entry.weight).expireAfterWrite(ttl, unit).build();
+            // 超过有效期加refreshDelay未访问的索引已没有可命中的缓存，最后写入也已超过refreshDelay，移除后不影响正确性
+            Cache<String, IndexVersion> versions = CacheBuilder.newBuilder()
+                    .expireAfterAccess(unit.toMillis(ttl) + this.refreshDelayMillis, TimeUnit.MILLISECONDS).build();
+            this.indexVersionMap = versions.asMap();
+        } else {
+            this.cache = null;
+            this.indexVersionMap = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * 渲染查询请求作为缓存key，相同条件的查询渲染结果相同
+     *
+     * @param searchRequest
+     * @return
+     */
+    public static String keyOf(SearchRequest searchRequest) {
+        return searchRequest.routing() + '|' + searchRequest.preference() + '|' + searchRequest.source();
+    }
+
+    /**
+     * 当前索引版本，查询es前获取，写入缓存时传入
+     *
+     * @param indexName 实际索引名
+     * @return
+     */
+    public long version(String indexName) {
+        return indexVersion(indexName).version;
+    }
+
+    private IndexVersion indexVersion(String indexName) {
+        if (indexVersionMap == null) {
+            return new IndexVersion(0, 0);
+        }
+        return indexVersionMap.computeIfAbsent(indexName, k -> new IndexVersion(versionSequence.incrementAndGet(), 0));
+    }
+
+    /**
+     * 获取缓存的查询响应，未缓存或索引已写入返回null
+     *
+     * @param indexName  实际索引名
+     * @param requestKey keyOf生成的key
+     * @return
+     */
+    @Nullable
+    public SearchResponse get(String indexName, String requestKey) {
+        if (cache == null) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(new Key(indexName, version(indexName), requestKey));
+        return entry == null ? null : entry.response;
+    }
+
+    /**
+     * 缓存查询响应，查询开始后索引有写入、刚写入过或响应不完整(超时、分片失败)时不缓存
+     *
+     * @param indexName  实际索引名
+     * @param requestKey keyOf生成的key
+     * @param response   es返回的响应
+     * @param version    查询前获取的索引版本
+     */
+    public void put(String indexName, String requestKey, SearchResponse response, long version) {
+        if (cache == null || response.isTimedOut() || response.getFailedShards() > 0) {
+            return;
+        }
+        IndexVersion indexVersion = indexVersion(indexName);
+        if (indexVersion.version != version
+                || System.currentTimeMillis() - indexVersion.lastWriteMillis < refreshDelayMillis) {
+            return;
+        }
+        cache.put(new Key(indexName, version, requestKey), new Entry(response, weigh(response)));
+    }
+
+    /**
+     * 按命中文档_source大小加每条命中、每个聚合的固定开销估算占用内存，不重新渲染响应
+     */
+    private static int weigh(SearchResponse response) {
+        long weight = RESPONSE_OVERHEAD;
+        SearchHits hits = response.getHits();
+        if (hits != null) {
+            for (SearchHit hit : hits.getHits()) {
+                weight += HIT_OVERHEAD + (hit.getSourceRef() == null ? 0 : hit.getSourceRef().length());
+            }
+        }
+        Aggregations aggregations = response.getAggregations();
+        if (aggregations != null) {
+            weight += (long) AGGREGATION_OVERHEAD * aggregations.asList().size();
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 索引写入，之后的查询不再命中之前的缓存
+     *
+     * @param indexName 实际索引名
+     */
+    public void invalidateIndex(String indexName) {
+        if (cache == null || indexName == null) {
+            return;
+        }
+        indexVersionMap.put(indexName, new IndexVersion(versionSequence.incrementAndGet(), System.currentTimeMillis()));
+    }
+
+    /**
+     * 失效写入请求涉及的索引
+     *
+     * @param requests 写入、更新、删除请求
+     */
+    public void invalidate(Iterable<? extends DocWriteRequest<?>> requests) {
+        if (cache == null) {
+            return;
+        }
+        Set<String> indices = new HashSet<>();
+        for (DocWriteRequest<?> request : requests) {
+            if (indices.add(request.index())) {
+                invalidateIndex(request.index());
+            }
+        }
+    }
+
+    public void clear() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    private static final class IndexVersion {
+        private final long version;
+        private final long lastWriteMillis;
+
+        private IndexVersion(long version, long lastWriteMillis) {
+            this.version = version;
+            this.lastWriteMillis = lastWriteMillis;
+        }
+    }
+
+    private static final class Entry {
+        private final SearchResponse response;
+        private final int weight;
+
+        private Entry(SearchResponse response, int weight) {
+            this.response = response;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Key {
+        private final String indexName;
+        private final long version;
+        private final String requestKey;
+
+        private Key(String indexName, long version, String requestKey) {
+            this.indexName = indexName;
+            this.version = version;
+            this.requestKey = requestKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return version == key.version && indexName.equals(key.indexName) && requestKey.equals(key.requestKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(indexName, version, requestKey);
+        }
+    }
+}
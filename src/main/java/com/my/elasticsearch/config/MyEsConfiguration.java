@@ -5,12 +5,19 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import com.my.elasticsearch.cache.DocumentNearCache;
+import com.my.elasticsearch.cache.IndexStateCache;
+import com.my.elasticsearch.cache.SearchResultCache;
+import com.my.elasticsearch.MyEsBulkFailureHandler;
+import com.my.elasticsearch.MyEsBulkWriter;
+import com.my.elasticsearch.impl.MyEsBulkWriterImpl;
 import com.my.elasticsearch.impl.MyEsServiceImpl;
 import com.my.elasticsearch.MyEsService;
 import com.my.elasticsearch.util.EsLog;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -42,10 +49,225 @@ public class MyEsConfiguration implements InitializingBean {
     @Value("${my.elasticsearch.enableHeartbeat:true}")
     private boolean enableHeartbeat = true;
 
+    /**
+     * 已存在索引缓存时间，单位秒，小于等于0表示不缓存
+     */
+    @Value("${my.elasticsearch.indexStateCacheSeconds:60}")
+    private long indexStateCacheSeconds = 60;
 
-    @Bean
+    /**
+     * 批量写入：每个bulk请求最大文档条数，超过自动拆分
+     */
+    @Value("${my.elasticsearch.bulkChunkActions:5000}")
+    private int bulkChunkActions = 5000;
+
+    /**
+     * 批量写入：每个bulk请求最大数据量(MB)，超过自动拆分
+     */
+    @Value("${my.elasticsearch.bulkChunkSizeMb:10}")
+    private int bulkChunkSizeMb = 10;
+
+    /**
+     * 批量写入：拆分后同时发送的bulk请求数
+     */
+    @Value("${my.elasticsearch.bulkParallelism:1}")
+    private int bulkParallelism = 1;
+
+    /**
+     * 批量写入：文档并行序列化线程数，小于等于1表示不开启
+     */
+    @Value("${my.elasticsearch.bulkSerializeParallelism:0}")
+    private int bulkSerializeParallelism = 0;
+
+    /**
+     * 批量写入：单次文档条数达到该值才并行序列化
+     */
+    @Value("${my.elasticsearch.bulkSerializeThreshold:10000}")
+    private int bulkSerializeThreshold = 10000;
+
+    /**
+     * 批量写入：被es拒绝(429)的文档最大重试次数，小于等于0表示不重试
+     */
+    @Value("${my.elasticsearch.bulkRetryMax:3}")
+    private int bulkRetryMax = 3;
+
+    /**
+     * 批量写入：首次重试等待时间(毫秒)，之后每次翻倍
+     */
+    @Value("${my.elasticsearch.bulkRetryInitialBackoffMillis:100}")
+    private long bulkRetryInitialBackoffMillis = 100;
+
+    /**
+     * 异步批量写入：缓冲文档条数达到该值时发送
+     */
+    @Value("${my.elasticsearch.bulkWriterActions:1000}")
+    private int bulkWriterActions = 1000;
+
+    /**
+     * 异步批量写入：缓冲数据大小达到该值(MB)时发送
+     */
+    @Value("${my.elasticsearch.bulkWriterSizeMb:5}")
+    private int bulkWriterSizeMb = 5;
+
+    /**
+     * 异步批量写入：定时发送间隔(秒)
+     */
+    @Value("${my.elasticsearch.bulkWriterFlushIntervalSeconds:5}")
+    private int bulkWriterFlushIntervalSeconds = 5;
+
+    /**
+     * 异步批量写入：同时在途的bulk请求数，0表示同步发送
+     */
+    @Value("${my.elasticsearch.bulkWriterConcurrentRequests:2}")
+    private int bulkWriterConcurrentRequests = 2;
+
+    /**
+     * 异步批量写入：应用关闭时等待在途请求完成的时间(秒)
+     */
+    @Value("${my.elasticsearch.bulkWriterAwaitCloseSeconds:30}")
+    private long bulkWriterAwaitCloseSeconds = 30;
+
+    /**
+     * 异步批量写入：同一文档写入合并窗口(毫秒)，窗口内对同一文档的多次写入合并为一次，小于等于0表示不合并
+     */
+    @Value("${my.elasticsearch.bulkWriterCoalesceMillis:0}")
+    private long bulkWriterCoalesceMillis = 0;
+
+    /**
+     * 本地写入暂存目录，es不可用时写入暂存，恢复后按顺序重放，为空表示不开启
+     */
+    @Value("${my.elasticsearch.spoolDir:}")
+    private String spoolDir;
+
+    /**
+     * 本地写入暂存：单个暂存文件大小(MB)
+     */
+    @Value("${my.elasticsearch.spoolSegmentSizeMb:64}")
+    private int spoolSegmentSizeMb = 64;
+
+    /**
+     * 本地写入暂存：重放时每个bulk请求的条数
+     */
+    @Value("${my.elasticsearch.spoolReplayBatchSize:1000}")
+    private int spoolReplayBatchSize = 1000;
+
+    /**
+     * 本地写入暂存：检查es是否恢复的间隔(秒)
+     */
+    @Value("${my.elasticsearch.spoolReplayIntervalSeconds:5}")
+    private long spoolReplayIntervalSeconds = 5;
+
+    /**
+     * 深度分页查询searchStream：每页条数
+     */
+    @Value("${my.elasticsearch.searchStreamPageSize:1000}")
+    private int searchStreamPageSize = 1000;
+
+    /**
+     * 深度分页查询searchStream：每次请求后point in time保留时间(秒)
+     */
+    @Value("${my.elasticsearch.searchStreamKeepAliveSeconds:60}")
+    private long searchStreamKeepAliveSeconds = 60;
+
+    /**
+     * 分片(slice)并行导出：所有导出共用的线程数
+     */
+    @Value("${my.elasticsearch.exportParallelism:4}")
+    private int exportParallelism = 4;
+
+    /**
+     * 按ID批量查询：每个mget请求的ID数
+     */
+    @Value("${my.elasticsearch.multiGetChunkSize:1000}")
+    private int multiGetChunkSize = 1000;
+
+    /**
+     * 按ID批量查询：同时发送的mget请求数
+     */
+    @Value("${my.elasticsearch.multiGetParallelism:4}")
+    private int multiGetParallelism = 4;
+
+    /**
+     * 文档本地缓存：最大缓存条数，只缓存标注@EsNearCache的类，小于等于0表示不开启
+     */
+    @Value("${my.elasticsearch.nearCacheMaximumSize:10000}")
+    private long nearCacheMaximumSize = 10000;
+
+    /**
+     * 文档本地缓存：写入缓存后的有效期(秒)，其他进程的写入最多延迟该时间可见，小于等于0表示不开启
+     */
+    @Value("${my.elasticsearch.nearCacheTtlSeconds:30}")
+    private long nearCacheTtlSeconds = 30;
+
+    /**
+     * 查询结果缓存：缓存响应最大总大小(MB)，只缓存cacheable的查询，小于等于0表示不开启
+     */
+    @Value("${my.elasticsearch.searchCacheMaximumSizeMb:64}")
+    private long searchCacheMaximumSizeMb = 64;
+
+    /**
+     * 查询结果缓存：写入缓存后的有效期(秒)，其他进程的写入最多延迟该时间可见，小于等于0表示不开启
+     */
+    @Value("${my.elasticsearch.searchCacheTtlSeconds:10}")
+    private long searchCacheTtlSeconds = 10;
+
+    /**
+     * 查询结果缓存：索引写入后不缓存查询结果的时间(毫秒)，需不小于索引刷新间隔
+     */
+    @Value("${my.elasticsearch.searchCacheRefreshDelayMillis:1000}")
+    private long searchCacheRefreshDelayMillis = 1000;
+
+
+    @Bean(destroyMethod = "close")
     public MyEsService cbEsService(){
-        return new MyEsServiceImpl(elasticsearchRestTemplate);
+        MyEsServiceImpl myEsService = new MyEsServiceImpl(elasticsearchRestTemplate);
+        myEsService.setIndexStateCache(new IndexStateCache(indexStateCacheSeconds, TimeUnit.SECONDS));
+        myEsService.setBulkChunk(bulkChunkActions, bulkChunkSizeMb, bulkParallelism);
+        myEsService.setBulkSerialize(bulkSerializeParallelism, bulkSerializeThreshold);
+        myEsService.setBulkRetry(bulkRetryMax, bulkRetryInitialBackoffMillis);
+        myEsService.setWriteSpool(spoolDir, spoolSegmentSizeMb, spoolReplayBatchSize, spoolReplayIntervalSeconds);
+        myEsService.setSearchStream(searchStreamPageSize, searchStreamKeepAliveSeconds);
+        myEsService.setExportParallelism(exportParallelism);
+        myEsService.setMultiGet(multiGetChunkSize, multiGetParallelism);
+        myEsService.setNearCache(myEsNearCache());
+        myEsService.setSearchResultCache(myEsSearchResultCache());
+        return myEsService;
+    }
+
+    /**
+     * 文档本地缓存，MyEsService与MyEsBulkWriter共用，写入时失效
+     *
+     * @return
+     */
+    @Bean
+    public DocumentNearCache myEsNearCache() {
+        return new DocumentNearCache(nearCacheMaximumSize, nearCacheTtlSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 查询结果缓存，MyEsService与MyEsBulkWriter共用，写入时失效
+     *
+     * @return
+     */
+    @Bean
+    public SearchResultCache myEsSearchResultCache() {
+        return new SearchResultCache(searchCacheMaximumSizeMb * 1024 * 1024, searchCacheTtlSeconds, TimeUnit.SECONDS,
+                searchCacheRefreshDelayMillis);
+    }
+
+    /**
+     * 异步批量写入，应用关闭时会发送缓冲区剩余数据
+     *
+     * @param failureHandler 应用中注册的单条失败回调，可不注册
+     * @return
+     */
+    @Bean(destroyMethod = "close")
+    public MyEsBulkWriter myEsBulkWriter(ObjectProvider<MyEsBulkFailureHandler> failureHandler) {
+        MyEsBulkWriterImpl bulkWriter = new MyEsBulkWriterImpl(elasticsearchRestTemplate, restHighLevelClient,
+                bulkWriterActions, bulkWriterSizeMb, bulkWriterFlushIntervalSeconds, bulkWriterConcurrentRequests,
+                bulkWriterAwaitCloseSeconds, bulkWriterCoalesceMillis, failureHandler.getIfAvailable());
+        bulkWriter.setMyEsService(cbEsService());
+        return bulkWriter;
     }
 
     /**
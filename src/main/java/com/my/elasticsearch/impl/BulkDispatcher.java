@@ -0,0 +1,584 @@
+package com.my.elasticsearch.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import com.my.elasticsearch.cache.DocumentNearCache;
+import com.my.elasticsearch.cache.SearchResultCache;
+import com.my.elasticsearch.util.EsExceptionUtil;
+import com.my.elasticsearch.util.EsLog;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.core.TimeValue;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * bulk请求分批发送
+ *
+ *  按文档条数及序列化后字节数把写入请求拆分为多个bulk请求，可配置同时在途的请求数；
+ *  文档边构建边发送，内存中最多保留parallelism+1批数据，结果按原始顺序回调
+ *
+ * @authro nantian
+ * @date 2022-11-09 16:40
+ */
+class BulkDispatcher {
+    /**
+     * 与BulkRequest估算大小保持一致的单条请求额外开销
+     */
+    private static final int REQUEST_OVERHEAD = 50;
+
+    private final ElasticsearchRestTemplate elasticsearchRestTemplate;
+    private volatile int chunkActions;
+    private volatile long chunkBytes;
+    private volatile int parallelism;
+    @Nullable
+    private volatile ParallelSerializer serializer;
+    private volatile int maxRetries = 3;
+    private volatile long initialBackoffMillis = 100;
+    @Nullable
+    private volatile BulkListener listener;
+    @Nullable
+    private volatile WriteSpool spool;
+    @Nullable
+    private volatile DocumentNearCache nearCache;
+    @Nullable
+    private volatile SearchResultCache searchResultCache;
+    private volatile ThreadPoolExecutor executor;
+
+    /**
+     * @param elasticsearchRestTemplate
+     * @param chunkActions 每批最大文档条数，小于等于0表示不限制
+     * @param chunkBytes   每批最大字节数，小于等于0表示不限制
+     * @param parallelism  同时在途的bulk请求数，小于等于1表示在调用线程中顺序发送
+     */
+    BulkDispatcher(ElasticsearchRestTemplate elasticsearchRestTemplate, int chunkActions, long chunkBytes,
+                   int parallelism) {
+        this.elasticsearchRestTemplate = elasticsearchRestTemplate;
+        setChunk(chunkActions, chunkBytes, parallelism);
+    }
+
+    /**
+     * 修改分批参数，只影响之后开始的dispatch；已创建的发送线程池按新的并行数调整大小
+     *
+     * @param chunkActions 每批最大文档条数，小于等于0表示不限制
+     * @param chunkBytes   每批最大字节数，小于等于0表示不限制
+     * @param parallelism  同时在途的bulk请求数，小于等于1表示在调用线程中顺序发送
+     */
+    synchronized void setChunk(int chunkActions, long chunkBytes, int parallelism) {
+        this.chunkActions = chunkActions;
+        this.chunkBytes = chunkBytes;
+        this.parallelism = Math.max(parallelism, 1);
+        ThreadPoolExecutor pool = this.executor;
+        if (pool != null) {
+            // 扩大时先调最大线程数，缩小时先调核心线程数，保证core <= max
+            if (this.parallelism > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(this.parallelism);
+                pool.setCorePoolSize(this.parallelism);
+            } else {
+                pool.setCorePoolSize(this.parallelism);
+                pool.setMaximumPoolSize(this.parallelism);
+            }
+        }
+    }
+
+    /**
+     * 设置文档并行序列化，为null表示在调用线程中顺序转换，被替换的序列化线程池会关闭
+     *
+     * @param serializer
+     */
+    void setSerializer(@Nullable ParallelSerializer serializer) {
+        ParallelSerializer previous = this.serializer;
+        this.serializer = serializer;
+        if (previous != null && previous != serializer) {
+            previous.close();
+        }
+    }
+
+    /**
+     * 设置被拒绝(429)请求的重试，只重发被拒绝的文档
+     *
+     * @param maxRetries           最大重试次数，小于等于0表示不重试
+     * @param initialBackoffMillis 首次重试等待时间(毫秒)，之后每次翻倍并加随机抖动
+     */
+    void setRetry(int maxRetries, long initialBackoffMillis) {
+        this.maxRetries = Math.max(maxRetries, 0);
+        this.initialBackoffMillis = Math.max(initialBackoffMillis, 1);
+    }
+
+    void setListener(@Nullable BulkListener listener) {
+        this.listener = listener;
+    }
+
+    @Nullable
+    WriteSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * 设置本地写入暂存，es不可用或暂存中有待重放数据时，bulk请求写入暂存并返回已暂存结果；
+     * 暂存重放经过本类的beforeBulk、afterBulk，替换下来的暂存会被关闭
+     *
+     * @param spool 为null表示不暂存，es不可用时抛出异常
+     */
+    void setSpool(@Nullable WriteSpool spool) {
+        if (spool != null) {
+            spool.setDispatcher(this);
+        }
+        WriteSpool previous = this.spool;
+        this.spool = spool;
+        if (previous != null && previous != spool) {
+            previous.close();
+        }
+    }
+
+    /**
+     * 设置文档本地缓存，bulk请求完成(包括失败、暂存)后失效请求涉及的文档
+     *
+     * @param nearCache 为null表示不失效
+     */
+    void setNearCache(@Nullable DocumentNearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * 设置查询结果缓存，bulk请求完成(包括失败、暂存)后失效请求涉及的索引
+     *
+     * @param searchResultCache 为null表示不失效
+     */
+    void setSearchResultCache(@Nullable SearchResultCache searchResultCache) {
+        this.searchResultCache = searchResultCache;
+    }
+
+    /**
+     * bulk请求发送前及完成(包括重试)后的回调，在发送线程中执行
+     */
+    interface BulkListener {
+        void beforeBulk(BulkRequest request);
+
+        void afterBulk(BulkRequest request, BulkResponse response);
+    }
+
+    /**
+     * 每批bulk请求完成后的回调，按批次原始顺序在调用线程中执行
+     */
+    interface ChunkHandler {
+        void onChunk(BulkRequest request, BulkResponse response);
+    }
+
+    /**
+     * 分批发送并按原始顺序返回每条请求的结果
+     *
+     * @param docs           文档
+     * @param requestBuilder 文档转换为写入请求
+     * @param refreshPolicy  刷新策略，为null使用es默认值
+     * @return
+     */
+    <T> List<BulkItemResponse> dispatch(List<T> docs, Function<? super T, ? extends DocWriteRequest<?>> requestBuilder,
+                                        @Nullable WriteRequest.RefreshPolicy refreshPolicy) {
+        return dispatch(docs, requestBuilder, () -> newBulkRequest(refreshPolicy));
+    }
+
+    /**
+     * 分批发送并按原始顺序返回每条请求的结果
+     *
+     *  配置了并行序列化且文档条数达到阈值时，文档在ForkJoinPool中按窗口并行转换为写入请求；
+     *  文档边转换边发送，requestBuilder抛出异常时之前的批次已写入，调用方需在调用前校验ID等必填字段
+     *
+     * @param docs               文档
+     * @param requestBuilder     文档转换为写入请求
+     * @param bulkRequestFactory 创建每批的BulkRequest，用于设置超时、刷新策略等请求级参数
+     * @return
+     */
+    <T> List<BulkItemResponse> dispatch(List<T> docs, Function<? super T, ? extends DocWriteRequest<?>> requestBuilder,
+                                        Supplier<BulkRequest> bulkRequestFactory) {
+        if (docs == null || docs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<BulkItemResponse> items = new ArrayList<>(docs.size());
+        ChunkHandler handler = (request, response) -> Collections.addAll(items, response.getItems());
+        ParallelSerializer parallelSerializer = this.serializer;
+        if (parallelSerializer != null && parallelSerializer.accept(docs.size())) {
+            Iterator<DocWriteRequest<?>> requests = parallelSerializer.map(docs.iterator(), requestBuilder,
+                    chunkActions);
+            dispatch(requests, Function.identity(), bulkRequestFactory, handler);
+        } else {
+            dispatch(docs.iterator(), requestBuilder, bulkRequestFactory, handler);
+        }
+        return items;
+    }
+
+    /**
+     * 分批发送，每批完成后按原始顺序回调
+     *
+     * @param docs           文档
+     * @param requestBuilder 文档转换为写入请求
+     * @param refreshPolicy  刷新策略，为null使用es默认值
+     * @param handler        每批结果回调
+     */
+    <T> void dispatch(Iterator<T> docs, Function<? super T, ? extends DocWriteRequest<?>> requestBuilder,
+                      @Nullable WriteRequest.RefreshPolicy refreshPolicy, ChunkHandler handler) {
+        dispatch(docs, requestBuilder, () -> newBulkRequest(refreshPolicy), handler);
+    }
+
+    /**
+     * 分批发送，每批完成后按原始顺序回调
+     *
+     * @param docs               文档
+     * @param requestBuilder     文档转换为写入请求
+     * @param bulkRequestFactory 创建每批的BulkRequest，用于设置超时、刷新策略等请求级参数
+     * @param handler            每批结果回调
+     */
+    <T> void dispatch(Iterator<T> docs, Function<? super T, ? extends DocWriteRequest<?>> requestBuilder,
+                      Supplier<BulkRequest> bulkRequestFactory, ChunkHandler handler) {
+        Assert.notNull(docs, "bulk docs is null");
+        // 本次发送使用开始时的分批参数
+        int maxActions = chunkActions;
+        long maxBytes = chunkBytes;
+        int maxInFlight = parallelism;
+        Deque<Chunk> inFlight = new ArrayDeque<>();
+        try {
+            BulkRequest bulkRequest = bulkRequestFactory.get();
+            long bytes = 0;
+            while (docs.hasNext()) {
+                DocWriteRequest<?> request = requestBuilder.apply(docs.next());
+                long size = estimateSize(request);
+                if (bulkRequest.numberOfActions() > 0
+                        && isFull(bulkRequest.numberOfActions(), bytes + size, maxActions, maxBytes)) {
+                    submit(bulkRequest, inFlight, handler, maxInFlight);
+                    bulkRequest = bulkRequestFactory.get();
+                    bytes = 0;
+                }
+                bulkRequest.add(request);
+                bytes += size;
+            }
+            if (bulkRequest.numberOfActions() > 0) {
+                submit(bulkRequest, inFlight, handler, maxInFlight);
+            }
+            while (!inFlight.isEmpty()) {
+                complete(inFlight.pollFirst(), handler);
+            }
+        } finally {
+            // 异常时等待已提交的请求结束，不再回调
+            for (Chunk chunk : inFlight) {
+                try {
+                    chunk.future.get();
+                } catch (Exception ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 流式分批发送，文档边读取边转换边发送；配置了并行序列化时按窗口并行转换
+     *
+     * @param docs           文档
+     * @param requestBuilder 文档转换为写入请求
+     * @param refreshPolicy  刷新策略，为null使用es默认值
+     * @param handler        每批结果回调
+     */
+    <T> void stream(Iterator<T> docs, Function<? super T, ? extends DocWriteRequest<?>> requestBuilder,
+                    @Nullable WriteRequest.RefreshPolicy refreshPolicy, ChunkHandler handler) {
+        Assert.notNull(docs, "bulk docs is null");
+        ParallelSerializer parallelSerializer = this.serializer;
+        if (parallelSerializer != null) {
+            Iterator<DocWriteRequest<?>> requests = parallelSerializer.map(docs, requestBuilder, chunkActions);
+            dispatch(requests, Function.identity(), refreshPolicy, handler);
+        } else {
+            dispatch(docs, requestBuilder, refreshPolicy, handler);
+        }
+    }
+
+    private BulkRequest newBulkRequest(@Nullable WriteRequest.RefreshPolicy refreshPolicy) {
+        BulkRequest bulkRequest = new BulkRequest();
+        if (refreshPolicy != null) {
+            bulkRequest.setRefreshPolicy(refreshPolicy);
+        }
+        return bulkRequest;
+    }
+
+    private static boolean isFull(int actions, long bytes, int maxActions, long maxBytes) {
+        return (maxActions > 0 && actions >= maxActions) || (maxBytes > 0 && bytes > maxBytes);
+    }
+
+    private void submit(BulkRequest bulkRequest, Deque<Chunk> inFlight, ChunkHandler handler, int maxInFlight) {
+        if (maxInFlight <= 1) {
+            handler.onChunk(bulkRequest, execute(bulkRequest));
+            return;
+        }
+        while (inFlight.size() >= maxInFlight) {
+            complete(inFlight.pollFirst(), handler);
+        }
+        inFlight.addLast(new Chunk(bulkRequest, getExecutor().submit(() -> execute(bulkRequest))));
+    }
+
+    private void complete(Chunk chunk, ChunkHandler handler) {
+        BulkResponse response;
+        try {
+            response = chunk.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("bulk request interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        handler.onChunk(chunk.request, response);
+    }
+
+    /**
+     * 发送bulk请求，前后回调BulkListener；开启本地暂存时es不可用的请求写入暂存
+     *
+     * @param bulkRequest
+     * @return
+     */
+    BulkResponse execute(BulkRequest bulkRequest) {
+        try {
+            WriteSpool writeSpool = this.spool;
+            if (writeSpool != null && writeSpool.appendIfPending(bulkRequest.requests())) {
+                return WriteSpool.spooledResponse(bulkRequest);
+            }
+            beforeBulk(bulkRequest);
+            BulkResponse response = executeWithRetry(bulkRequest, writeSpool);
+            BulkListener bulkListener = this.listener;
+            if (bulkListener != null) {
+                bulkListener.afterBulk(bulkRequest, response);
+            }
+            return response;
+        } finally {
+            invalidate(bulkRequest);
+        }
+    }
+
+    /**
+     * 不经过execute发送的bulk请求(暂存重放、MyEsBulkWriter)发送前调用，与execute一致回调BulkListener
+     *
+     * @param bulkRequest
+     */
+    void beforeBulk(BulkRequest bulkRequest) {
+        BulkListener bulkListener = this.listener;
+        if (bulkListener != null) {
+            bulkListener.beforeBulk(bulkRequest);
+        }
+    }
+
+    /**
+     * 不经过execute发送的bulk请求完成后调用，与execute一致回调BulkListener并失效缓存
+     *
+     * @param bulkRequest
+     * @param response    为null表示请求失败，只失效缓存
+     */
+    void afterBulk(BulkRequest bulkRequest, @Nullable BulkResponse response) {
+        try {
+            BulkListener bulkListener = this.listener;
+            if (bulkListener != null && response != null) {
+                bulkListener.afterBulk(bulkRequest, response);
+            }
+        } finally {
+            invalidate(bulkRequest);
+        }
+    }
+
+    private void invalidate(BulkRequest bulkRequest) {
+        DocumentNearCache cache = this.nearCache;
+        if (cache != null) {
+            cache.invalidate(bulkRequest.requests());
+        }
+        SearchResultCache resultCache = this.searchResultCache;
+        if (resultCache != null) {
+            resultCache.invalidate(bulkRequest.requests());
+        }
+    }
+
+    /**
+     * 发送bulk请求，被拒绝(429)的文档或整个请求按指数退避重试，重试结果合并回原始位置；
+     * 开启本地暂存时es不可用的部分(首次为整个请求，重试时为待重试的文档)写入暂存，结果为已暂存
+     *
+     * @param bulkRequest
+     * @param writeSpool  为null表示不暂存
+     * @return 重试后仍失败的文档保留最后一次的失败结果
+     */
+    private BulkResponse executeWithRetry(BulkRequest bulkRequest, @Nullable WriteSpool writeSpool) {
+        BulkItemResponse[] items = null;
+        BulkRequest pending = bulkRequest;
+        int[] positions = null;
+        long tookMillis = 0;
+        for (int attempt = 0; ; attempt++) {
+            BulkResponse response;
+            try {
+                response = send(pending);
+            } catch (RuntimeException e) {
+                if (attempt < maxRetries && EsExceptionUtil.isRejected(e)) {
+                    backoff(attempt);
+                    continue;
+                }
+                if (writeSpool == null || !EsExceptionUtil.isUnavailable(e)) {
+                    throw e;
+                }
+                EsLog.warn("elasticsearch unavailable, spool " + pending.numberOfActions() + " actions", e);
+                writeSpool.append(pending.requests());
+                response = WriteSpool.spooledResponse(pending);
+            }
+            tookMillis += response.getTook().millis();
+            if (positions == null) {
+                items = response.getItems();
+            } else {
+                merge(items, positions, response.getItems());
+            }
+
+            List<Integer> rejected = new ArrayList<>();
+            for (int i = 0; i < items.length; i++) {
+                if (EsExceptionUtil.isRejected(items[i])) {
+                    rejected.add(i);
+                }
+            }
+            if (rejected.isEmpty() || attempt >= maxRetries) {
+                return new BulkResponse(items, tookMillis);
+            }
+            positions = rejected.stream().mapToInt(Integer::intValue).toArray();
+            pending = retryRequest(bulkRequest, positions);
+            backoff(attempt);
+        }
+    }
+
+    BulkResponse send(BulkRequest bulkRequest) {
+        return elasticsearchRestTemplate.execute(client -> client.bulk(bulkRequest, RequestOptions.DEFAULT));
+    }
+
+    private static void merge(BulkItemResponse[] items, int[] positions, BulkItemResponse[] retried) {
+        for (int i = 0; i < retried.length; i++) {
+            BulkItemResponse item = retried[i];
+            int position = positions[i];
+            items[position] = item.isFailed()
+                    ? BulkItemResponse.failure(position, item.getOpType(), item.getFailure())
+                    : BulkItemResponse.success(position, item.getOpType(), item.getResponse());
+        }
+    }
+
+    /**
+     * 构建只包含指定位置文档的bulk请求，复制全部请求级参数(客户端作为URL参数发送)
+     */
+    private static BulkRequest retryRequest(BulkRequest bulkRequest, int[] positions) {
+        BulkRequest retry = new BulkRequest();
+        retry.setRefreshPolicy(bulkRequest.getRefreshPolicy());
+        retry.timeout(bulkRequest.timeout());
+        retry.waitForActiveShards(bulkRequest.waitForActiveShards());
+        retry.pipeline(bulkRequest.pipeline());
+        retry.routing(bulkRequest.routing());
+        retry.requireAlias(bulkRequest.requireAlias());
+        List<DocWriteRequest<?>> requests = bulkRequest.requests();
+        for (int position : positions) {
+            retry.add(requests.get(position));
+        }
+        return retry;
+    }
+
+    /**
+     * 按当前重试配置生成的退避策略，等待时间与本类的重试一致，用于MyEsBulkWriter的BulkProcessor
+     *
+     * @return
+     */
+    BackoffPolicy backoffPolicy() {
+        return new BackoffPolicy() {
+            @Override
+            public Iterator<TimeValue> iterator() {
+                return IntStream.range(0, maxRetries)
+                        .mapToObj(attempt -> TimeValue.timeValueMillis(backoffMillis(attempt))).iterator();
+            }
+        };
+    }
+
+    /**
+     * 第attempt次重试前等待
+     */
+    private void backoff(int attempt) {
+        try {
+            Thread.sleep(backoffMillis(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("bulk retry interrupted", e);
+        }
+    }
+
+    /**
+     * 第attempt次重试前的等待时间，为initialBackoffMillis * 2^attempt，取其一半到全部之间的随机值
+     */
+    private long backoffMillis(int attempt) {
+        long delay = initialBackoffMillis << Math.min(attempt, 20);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    static long estimateSize(DocWriteRequest<?> request) {
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            return REQUEST_OVERHEAD + (indexRequest.source() == null ? 0 : indexRequest.source().length());
+        }
+        if (request instanceof UpdateRequest) {
+            UpdateRequest updateRequest = (UpdateRequest) request;
+            long size = REQUEST_OVERHEAD;
+            if (updateRequest.doc() != null && updateRequest.doc().source() != null) {
+                size += updateRequest.doc().source().length();
+            }
+            if (updateRequest.upsertRequest() != null && updateRequest.upsertRequest().source() != null) {
+                size += updateRequest.upsertRequest().source().length();
+            }
+            return size;
+        }
+        return REQUEST_OVERHEAD;
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(), r -> {
+                                Thread thread = new Thread(r, "my-es-bulk-" + threadNumber.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = pool;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static class Chunk {
+        private final BulkRequest request;
+        private final Future<BulkResponse> future;
+
+        Chunk(BulkRequest request, Future<BulkResponse> future) {
+            this.request = request;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.my.elasticsearch.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.my.elasticsearch.util.EsLog;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.xcontent.XContentType;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.lang.Nullable;
+
+/**
+ * 索引迁移期间的双写
+ *
+ *  迁移开始后，写入原索引(别名)成功的请求会再写一份到新索引：index原样写入；update会让es返回更新后的完整文档，
+ *  以index方式写入新索引；delete同样删除新索引中的文档，并记录文档ID，reindex完成后再删除一次，避免被reindex重新写入，
+ *  之后又写入的文档不再删除。
+ *  新索引的写入使用原索引返回的版本号(external_gte)，并发写入到达顺序颠倒时旧版本被拒绝(版本冲突忽略)；
+ *  其它写入失败不影响原请求结果，记录在迁移上，切换别名前检查，存在失败时终止迁移
+ *
+ * @authro nantian
+ * @date 2022-11-16 10:30
+ */
+class IndexMigrations implements BulkDispatcher.BulkListener {
+    private final ElasticsearchRestTemplate elasticsearchRestTemplate;
+    /**
+     * 原索引名(别名) -> 迁移中的新索引
+     */
+    private final Map<String, Migration> migrations = new ConcurrentHashMap<>();
+
+    IndexMigrations(ElasticsearchRestTemplate elasticsearchRestTemplate) {
+        this.elasticsearchRestTemplate = elasticsearchRestTemplate;
+    }
+
+    /**
+     * 开始双写
+     *
+     * @param index       原索引名(别名)
+     * @param targetIndex 新索引
+     */
+    void start(String index, String targetIndex) {
+        if (migrations.putIfAbsent(index, new Migration(targetIndex)) != null) {
+            throw new IllegalStateException("index " + index + " is migrating");
+        }
+    }
+
+    /**
+     * 迁移期间被删除且之后未再写入的文档，在新索引中再删除一次的请求，使用删除时的版本号，
+     * 新索引中版本更新的文档返回版本冲突
+     *
+     * @param index 原索引名(别名)
+     * @return
+     */
+    List<DeleteRequest> getDeleteRequests(String index) {
+        Migration migration = migrations.get(index);
+        if (migration == null) {
+            return Collections.emptyList();
+        }
+        List<DeleteRequest> requests = new ArrayList<>(migration.deletedIds.size());
+        migration.deletedIds.forEach((id, deleted) -> requests.add(new DeleteRequest(migration.targetIndex, id)
+                .routing(deleted.routing).version(deleted.version).versionType(VersionType.EXTERNAL_GTE)));
+        return requests;
+    }
+
+    /**
+     * 检查写入新索引是否有失败，切换别名前调用
+     *
+     * @param index 原索引名(别名)
+     * @throws IllegalStateException 存在写入失败
+     */
+    void checkReplicated(String index) {
+        Migration migration = migrations.get(index);
+        if (migration != null && migration.failures.get() > 0) {
+            throw new IllegalStateException("index " + index + " migration has " + migration.failures.get()
+                    + " failed writes to " + migration.targetIndex + ", last failure: " + migration.lastFailure);
+        }
+    }
+
+    /**
+     * 结束双写
+     *
+     * @param index 原索引名(别名)
+     */
+    void finish(String index) {
+        migrations.remove(index);
+    }
+
+    boolean isMigrating(String index) {
+        return !migrations.isEmpty() && migrations.containsKey(index);
+    }
+
+    /**
+     * 发送前调用，迁移中索引的update请求需要es返回更新后的文档
+     *
+     * @param request
+     */
+    void prepare(DocWriteRequest<?> request) {
+        if (request instanceof UpdateRequest && isMigrating(request.index())) {
+            ((UpdateRequest) request).fetchSource(true);
+        }
+    }
+
+    /**
+     * 单条写入成功后调用，写入迁移中的新索引
+     *
+     * @param request
+     * @param response 原索引返回的结果
+     */
+    void replicate(DocWriteRequest<?> request, DocWriteResponse response) {
+        BulkRequest bulkRequest = new BulkRequest();
+        addReplica(bulkRequest, request, response);
+        send(bulkRequest);
+    }
+
+    @Override
+    public void beforeBulk(BulkRequest request) {
+        if (migrations.isEmpty()) {
+            return;
+        }
+        request.requests().forEach(this::prepare);
+    }
+
+    @Override
+    public void afterBulk(BulkRequest request, BulkResponse response) {
+        if (migrations.isEmpty()) {
+            return;
+        }
+        BulkRequest bulkRequest = new BulkRequest();
+        List<DocWriteRequest<?>> requests = request.requests();
+        BulkItemResponse[] items = response.getItems();
+        for (int i = 0; i < items.length; i++) {
+            // 已暂存的请求重放时再双写
+            if (!items[i].isFailed() && !WriteSpool.isSpooled(items[i])) {
+                addReplica(bulkRequest, requests.get(i), items[i].getResponse());
+            }
+        }
+        send(bulkRequest);
+    }
+
+    private void addReplica(BulkRequest bulkRequest, DocWriteRequest<?> request, DocWriteResponse response) {
+        Migration migration = migrations.get(request.index());
+        if (migration == null) {
+            return;
+        }
+        String id = response.getId();
+        long version = response.getVersion();
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            migration.written(id, indexRequest.routing(), version);
+            bulkRequest.add(new IndexRequest(migration.targetIndex).id(id)
+                    .source(indexRequest.source(), indexRequest.getContentType())
+                    .routing(indexRequest.routing()).version(version).versionType(VersionType.EXTERNAL_GTE));
+        } else if (request instanceof UpdateRequest) {
+            GetResult getResult = response instanceof UpdateResponse ? ((UpdateResponse) response).getGetResult() : null;
+            if (getResult == null || getResult.sourceRef() == null) {
+                EsLog.warn("index " + request.index() + " migrating, update of " + id + " has no source to replicate");
+                migration.failed("update of " + id + " has no source to replicate");
+                return;
+            }
+            migration.written(id, request.routing(), version);
+            bulkRequest.add(new IndexRequest(migration.targetIndex).id(id)
+                    .source(getResult.sourceRef(), XContentType.JSON)
+                    .routing(request.routing()).version(version).versionType(VersionType.EXTERNAL_GTE));
+        } else if (request instanceof DeleteRequest) {
+            migration.deleted(id, request.routing(), version);
+            bulkRequest.add(new DeleteRequest(migration.targetIndex, id)
+                    .routing(request.routing()).version(version).versionType(VersionType.EXTERNAL_GTE));
+        }
+    }
+
+    private void send(BulkRequest bulkRequest) {
+        if (bulkRequest.numberOfActions() == 0) {
+            return;
+        }
+        BulkResponse response;
+        try {
+            response = elasticsearchRestTemplate.execute(client -> client.bulk(bulkRequest, RequestOptions.DEFAULT));
+        } catch (RuntimeException e) {
+            EsLog.warn("index migration replicate failed", e);
+            for (DocWriteRequest<?> request : bulkRequest.requests()) {
+                failed(request.index(), request.opType() + " " + request.id() + ": " + e);
+            }
+            return;
+        }
+        for (BulkItemResponse item : response.getItems()) {
+            // 版本冲突为新索引中已有更新的写入，忽略
+            if (item.isFailed() && item.status() != RestStatus.CONFLICT) {
+                EsLog.warn("index migration replicate " + item.getOpType() + " " + item.getIndex() + "/"
+                        + item.getId() + " failed: " + item.getFailureMessage());
+                failed(item.getIndex(), item.getOpType() + " " + item.getId() + ": " + item.getFailureMessage());
+            }
+        }
+    }
+
+    private void failed(String targetIndex, String message) {
+        for (Migration migration : migrations.values()) {
+            if (migration.targetIndex.equals(targetIndex)) {
+                migration.failed(message);
+            }
+        }
+    }
+
+    private static class Migration {
+        private final String targetIndex;
+        /**
+         * 文档ID -> 删除时的routing、版本
+         */
+        private final Map<String, Deleted> deletedIds = new ConcurrentHashMap<>();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile String lastFailure;
+
+        Migration(String targetIndex) {
+            this.targetIndex = targetIndex;
+        }
+
+        void deleted(String id, @Nullable String routing, long version) {
+            deletedIds.merge(id, new Deleted(routing, version), (old, deleted) -> old.version > version ? old : deleted);
+        }
+
+        /**
+         * 删除后又写入(版本更新、routing相同)的文档不再删除
+         */
+        void written(String id, @Nullable String routing, long version) {
+            deletedIds.computeIfPresent(id, (key, deleted) ->
+                    deleted.version < version && Objects.equals(deleted.routing, routing) ? null : deleted);
+        }
+
+        void failed(String message) {
+            failures.incrementAndGet();
+            lastFailure = message;
+        }
+    }
+
+    private static class Deleted {
+        @Nullable
+        private final String routing;
+        private final long version;
+
+        Deleted(@Nullable String routing, long version) {
+            this.routing = routing;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.my.elasticsearch.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import com.my.elasticsearch.MyEsBulkFailureHandler;
+import com.my.elasticsearch.MyEsBulkWriter;
+import com.my.elasticsearch.MyEsService;
+import com.my.elasticsearch.cache.DocumentMetadataCache;
+import com.my.elasticsearch.cache.EsIndexNameCache;
+import com.my.elasticsearch.metadata.DocumentMetadata;
+import com.my.elasticsearch.model.MyEsBulkItemResult;
+import com.my.elasticsearch.util.EsExceptionUtil;
+import com.my.elasticsearch.util.EsLog;
+import com.my.elasticsearch.util.EsTenantUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.xcontent.XContentType;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.data.elasticsearch.core.MyRequestFactory;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * es异步批量写入实现，基于es客户端BulkProcessor
+ *
+ *  BulkProcessor在同时在途请求数达到concurrentRequests时会阻塞add调用，缓冲区最多保留bulkActions条数据，
+ *  因此内存占用有上限；被es拒绝(429)的bulk请求按指数退避重试，关联MyEsService后使用其bulk重试配置；
+ *  可选开启同一文档写入合并，合并窗口内对同一文档的多次写入只发送一次；
+ *  每批使用ElasticsearchRestTemplate的刷新策略，关联MyEsService后与其批量写入共用迁移双写、本地暂存及缓存失效；
+ *  本地暂存中有待重放的数据时整批写入暂存，保证同一文档的写入顺序
+ *
+ * @authro nantian
+ * @date 2022-11-08 10:26
+ */
+public class MyEsBulkWriterImpl implements MyEsBulkWriter {
+    /**
+     * 未关联MyEsService时的退避策略
+     */
+    private static final BackoffPolicy DEFAULT_BACKOFF = BackoffPolicy.exponentialBackoff(
+            TimeValue.timeValueMillis(100), 3);
+
+    private final ElasticsearchRestTemplate elasticsearchRestTemplate;
+    private final BulkProcessor bulkProcessor;
+    @Nullable
+    private final MyEsBulkFailureHandler failureHandler;
+    private final long awaitCloseSeconds;
+    @Nullable
+    private final WriteCoalescer coalescer;
+    @Nullable
+    private volatile BulkDispatcher dispatcher;
+
+    /**
+     * @param elasticsearchRestTemplate
+     * @param restHighLevelClient
+     * @param bulkActions          缓冲文档条数达到该值时发送，小于等于0表示不按条数
+     * @param bulkSizeMb           缓冲数据大小达到该值(MB)时发送，小于等于0表示不按大小
+     * @param flushIntervalSeconds 距上次发送超过该时间(秒)时发送，小于等于0表示不定时发送
+     * @param concurrentRequests   同时在途的bulk请求数，0表示同步发送
+     * @param awaitCloseSeconds    关闭时等待在途请求完成的时间(秒)
+     * @param failureHandler       单条失败回调，为null时只打印日志
+     */
+    public MyEsBulkWriterImpl(ElasticsearchRestTemplate elasticsearchRestTemplate,
+                              RestHighLevelClient restHighLevelClient, int bulkActions, int bulkSizeMb,
+                              int flushIntervalSeconds, int concurrentRequests, long awaitCloseSeconds,
+                              @Nullable MyEsBulkFailureHandler failureHandler) {
+        this(elasticsearchRestTemplate, restHighLevelClient, bulkActions, bulkSizeMb, flushIntervalSeconds,
+                concurrentRequests, awaitCloseSeconds, 0, failureHandler);
+    }
+
+    /**
+     * @param elasticsearchRestTemplate
+     * @param restHighLevelClient
+     * @param bulkActions          缓冲文档条数达到该值时发送，小于等于0表示不按条数
+     * @param bulkSizeMb           缓冲数据大小达到该值(MB)时发送，小于等于0表示不按大小
+     * @param flushIntervalSeconds 距上次发送超过该时间(秒)时发送，小于等于0表示不定时发送
+     * @param concurrentRequests   同时在途的bulk请求数，0表示同步发送
+     * @param awaitCloseSeconds    关闭时等待在途请求完成的时间(秒)
+     * @param coalesceMillis       同一文档写入合并窗口(毫秒)，小于等于0表示不合并
+     * @param failureHandler       单条失败回调，为null时只打印日志
+     */
+    public MyEsBulkWriterImpl(ElasticsearchRestTemplate elasticsearchRestTemplate,
+                              RestHighLevelClient restHighLevelClient, int bulkActions, int bulkSizeMb,
+                              int flushIntervalSeconds, int concurrentRequests, long awaitCloseSeconds,
+                              long coalesceMillis, @Nullable MyEsBulkFailureHandler failureHandler) {
+        Assert.notNull(elasticsearchRestTemplate, "elasticsearchRestTemplate is null");
+        Assert.notNull(restHighLevelClient, "restHighLevelClient is null");
+        this.elasticsearchRestTemplate = elasticsearchRestTemplate;
+        this.failureHandler = failureHandler;
+        this.awaitCloseSeconds = awaitCloseSeconds;
+
+        BulkProcessor.Builder builder = BulkProcessor.builder(
+                (request, listener) -> bulkAsync(restHighLevelClient, request, listener),
+                new FailureListener(), "my-es-bulk-writer")
+                .setBulkActions(bulkActions > 0 ? bulkActions : -1)
+                .setBulkSize(bulkSizeMb > 0 ? new ByteSizeValue(bulkSizeMb, ByteSizeUnit.MB) : new ByteSizeValue(-1))
+                .setConcurrentRequests(Math.max(concurrentRequests, 0))
+                .setBackoffPolicy(new RetryBackoffPolicy());
+        if (flushIntervalSeconds > 0) {
+            builder.setFlushInterval(TimeValue.timeValueSeconds(flushIntervalSeconds));
+        }
+        this.bulkProcessor = builder.build();
+        this.coalescer = coalesceMillis > 0 ? new WriteCoalescer(bulkProcessor::add,
+                MyEsServiceImpl.getObjectMapper(), coalesceMillis, bulkActions) : null;
+    }
+
+    /**
+     * 关联MyEsService，每批bulk请求发送前后回调其批量写入的BulkListener(迁移中索引双写)并失效缓存，
+     * es不可用时写入其本地暂存
+     *
+     * @param myEsService
+     */
+    public void setMyEsService(MyEsService myEsService) {
+        Assert.isInstanceOf(MyEsServiceImpl.class, myEsService, "MyEsBulkWriter requires MyEsServiceImpl");
+        this.dispatcher = ((MyEsServiceImpl) myEsService).getBulkDispatcher();
+    }
+
+    /**
+     * 发送bulk请求，关联的本地暂存中有待重放的数据时追加到暂存，返回已暂存结果
+     */
+    private void bulkAsync(RestHighLevelClient restHighLevelClient, BulkRequest request,
+                           ActionListener<BulkResponse> listener) {
+        BulkDispatcher bulkDispatcher = dispatcher;
+        WriteSpool writeSpool = bulkDispatcher == null ? null : bulkDispatcher.getSpool();
+        if (writeSpool != null) {
+            try {
+                if (writeSpool.appendIfPending(request.requests())) {
+                    listener.onResponse(WriteSpool.spooledResponse(request));
+                    return;
+                }
+            } catch (RuntimeException e) {
+                listener.onFailure(e);
+                return;
+            }
+        }
+        restHighLevelClient.bulkAsync(request, RequestOptions.DEFAULT, listener);
+    }
+
+    private void add(DocWriteRequest<?> request) {
+        if (coalescer != null) {
+            coalescer.add(request);
+        } else {
+            bulkProcessor.add(request);
+        }
+    }
+
+    private IndexCoordinates buildIndexCoordinates(Class<?> clazz, boolean nonTenantMode) {
+        String index = EsIndexNameCache.get(clazz);
+        return IndexCoordinates.of(nonTenantMode ? index : EsTenantUtil.getTenantIndex(index));
+    }
+
+    @Override
+    public <T> void add(T model) {
+        add(model, false);
+    }
+
+    @Override
+    public <T> void add(T model, boolean nonTenantMode) {
+        save(model, null, nonTenantMode);
+    }
+
+    @Override
+    public <T> void save(T model, Long version) {
+        save(model, version, false);
+    }
+
+    @Override
+    public <T> void save(T model, Long version, boolean nonTenantMode) {
+        Assert.notNull(model, "bulk writer document is null");
+        DocumentMetadata metadata = DocumentMetadataCache.get(model.getClass());
+        add(MyRequestFactory.indexRequest(elasticsearchRestTemplate,
+                new IndexQueryBuilder().withId(metadata.getIdValue(model)).withRouting(metadata.getRoutingValue(model))
+                        .withVersion(version).withObject(model).build(),
+                buildIndexCoordinates(model.getClass(), nonTenantMode)));
+    }
+
+    @Override
+    public <T> void update(T model) {
+        update(model, false);
+    }
+
+    @Override
+    public <T> void update(T model, boolean nonTenantMode) {
+        Assert.notNull(model, "bulk writer document is null");
+        DocumentMetadata metadata = DocumentMetadataCache.get(model.getClass());
+        try {
+            byte[] source = MyEsServiceImpl.getObjectMapper().writeValueAsBytes(model);
+            add(new UpdateRequest(buildIndexCoordinates(model.getClass(), nonTenantMode).getIndexName(),
+                    metadata.getIdValue(model)).routing(metadata.getRoutingValue(model)).doc(source, XContentType.JSON));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(model.getClass().getName() + " serialize failed", e);
+        }
+    }
+
+    @Override
+    public void delete(String id, Class<?> clazz) {
+        delete(id, clazz, false);
+    }
+
+    @Override
+    public void delete(String id, Class<?> clazz, boolean nonTenantMode) {
+        delete(id, clazz, null, nonTenantMode);
+    }
+
+    @Override
+    public void delete(String id, Class<?> clazz, @Nullable String routing, boolean nonTenantMode) {
+        Assert.hasText(id, "bulk writer delete id is empty");
+        Assert.notNull(clazz, "bulk writer delete clazz is null");
+        add(new DeleteRequest(buildIndexCoordinates(clazz, nonTenantMode).getIndexName(), id).routing(routing));
+    }
+
+    @Override
+    public <T> void delete(T model) {
+        delete(model, false);
+    }
+
+    @Override
+    public <T> void delete(T model, boolean nonTenantMode) {
+        Assert.notNull(model, "bulk writer document is null");
+        DocumentMetadata metadata = DocumentMetadataCache.get(model.getClass());
+        delete(metadata.getIdValue(model), model.getClass(), metadata.getRoutingValue(model), nonTenantMode);
+    }
+
+    @Override
+    public void flush() {
+        if (coalescer != null) {
+            coalescer.drain();
+        }
+        bulkProcessor.flush();
+    }
+
+    @Override
+    public boolean close(long timeout, TimeUnit unit) {
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        try {
+            return bulkProcessor.awaitClose(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!close(awaitCloseSeconds, TimeUnit.SECONDS)) {
+            EsLog.warn("MyEsBulkWriter close timeout, some bulk requests may not be completed");
+        }
+    }
+
+    private void onFailure(MyEsBulkItemResult failure) {
+        if (failureHandler == null) {
+            return;
+        }
+        try {
+            failureHandler.onFailure(failure);
+        } catch (Exception e) {
+            EsLog.warn("MyEsBulkFailureHandler exception", e);
+        }
+    }
+
+    /**
+     * 被拒绝(429)时的退避策略，每个bulk请求开始重试时读取关联MyEsService当前的重试配置，未关联时使用默认值
+     */
+    private class RetryBackoffPolicy extends BackoffPolicy {
+        @Override
+        public Iterator<TimeValue> iterator() {
+            BulkDispatcher bulkDispatcher = dispatcher;
+            return bulkDispatcher == null ? DEFAULT_BACKOFF.iterator() : bulkDispatcher.backoffPolicy().iterator();
+        }
+    }
+
+    /**
+     * bulk执行监听，发送前设置刷新策略，前后回调关联的MyEsService，单条失败回调给MyEsBulkFailureHandler
+     */
+    private class FailureListener implements BulkProcessor.Listener {
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            WriteRequest.RefreshPolicy refreshPolicy = MyRequestFactory.refreshPolicy(elasticsearchRestTemplate);
+            if (refreshPolicy != null) {
+                request.setRefreshPolicy(refreshPolicy);
+            }
+            BulkDispatcher bulkDispatcher = dispatcher;
+            if (bulkDispatcher != null) {
+                bulkDispatcher.beforeBulk(request);
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            BulkDispatcher bulkDispatcher = dispatcher;
+            if (bulkDispatcher != null) {
+                bulkDispatcher.afterBulk(request, response);
+            }
+            if (!response.hasFailures()) {
+                return;
+            }
+            int failed = 0;
+            for (BulkItemResponse item : response.getItems()) {
+                if (item.isFailed()) {
+                    failed++;
+                    onFailure(MyEsBulkItemResult.of(item));
+                }
+            }
+            EsLog.warn("MyEsBulkWriter bulk " + executionId + " has " + failed + "/" + request.numberOfActions()
+                    + " failed items: " + response.buildFailureMessage());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            BulkDispatcher bulkDispatcher = dispatcher;
+            if (bulkDispatcher != null) {
+                bulkDispatcher.afterBulk(request, null);
+                WriteSpool writeSpool = bulkDispatcher.getSpool();
+                if (writeSpool != null && EsExceptionUtil.isUnavailable(failure)) {
+                    EsLog.warn("MyEsBulkWriter bulk " + executionId + " elasticsearch unavailable, spool "
+                            + request.numberOfActions() + " actions", failure);
+                    writeSpool.append(request.requests());
+                    return;
+                }
+            }
+            EsLog.warn("MyEsBulkWriter bulk " + executionId + " with " + request.numberOfActions()
+                    + " actions failed", failure);
+            for (DocWriteRequest<?> docWriteRequest : request.requests()) {
+                onFailure(MyEsBulkItemResult.failed(docWriteRequest, failure));
+            }
+        }
+    }
+}
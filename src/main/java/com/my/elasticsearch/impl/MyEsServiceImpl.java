@@ -1,38 +1,125 @@
 package com.my.elasticsearch.impl;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import com.my.elasticsearch.MyEsBulkFailureException;
 import com.my.elasticsearch.MyEsService;
+import com.my.elasticsearch.cache.DocumentMetadataCache;
+import com.my.elasticsearch.cache.DocumentNearCache;
 import com.my.elasticsearch.cache.EsIndexNameCache;
-import com.my.elasticsearch.util.EsReflectUtils;
+import com.my.elasticsearch.cache.IndexStateCache;
+import com.my.elasticsearch.cache.SearchResultCache;
+import com.my.elasticsearch.metadata.DocumentMetadata;
+import com.my.elasticsearch.util.EsDocDiffUtil;
+import com.my.elasticsearch.util.EsExceptionUtil;
+import com.my.elasticsearch.util.EsLog;
 import com.my.elasticsearch.util.EsTenantUtil;
+import com.my.elasticsearch.model.MyEsBulkItemResult;
+import com.my.elasticsearch.model.MyEsBulkSummary;
+import com.my.elasticsearch.model.MyEsByQueryOptions;
+import com.my.elasticsearch.model.MyEsNearCacheStats;
 import com.my.elasticsearch.model.MyEsSearchRequest;
+import com.my.elasticsearch.model.MyEsSpoolStats;
+import com.my.elasticsearch.model.MyEsTaskStatus;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.OpenPointInTimeRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.tasks.GetTaskRequest;
+import org.elasticsearch.client.tasks.GetTaskResponse;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.AbstractBulkByScrollRequest;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.join.query.JoinQueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.tasks.TaskId;
+import org.elasticsearch.xcontent.XContentType;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
 import org.springframework.data.elasticsearch.core.IndexedObjectInformation;
 import org.springframework.data.elasticsearch.core.MultiGetItem;
+import org.springframework.data.elasticsearch.core.MyRequestFactory;
 import org.springframework.data.elasticsearch.core.MyRestIndexTemplate;
+import org.springframework.data.elasticsearch.core.ResponseConverter;
 import org.springframework.data.elasticsearch.core.SearchHits;
 import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.document.DocumentAdapters;
 import org.springframework.data.elasticsearch.core.index.Settings;
 import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
 import org.springframework.data.elasticsearch.core.query.BulkOptions;
+import org.springframework.data.elasticsearch.core.query.ByQueryResponse;
 import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 import org.springframework.data.elasticsearch.core.query.IndexQuery;
 import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
-import org.springframework.data.elasticsearch.core.query.StringQuery;
-import org.springframework.data.elasticsearch.core.query.UpdateQuery;
+import org.springframework.data.elasticsearch.core.query.Query;
 import org.springframework.data.elasticsearch.core.query.UpdateResponse;
 import org.springframework.lang.Nullable;
 import org.springframework.util.Assert;
@@ -50,9 +137,200 @@ public class MyEsServiceImpl implements MyEsService {
     private static ObjectMapper objectMapper;
     private ElasticsearchRestTemplate elasticsearchRestTemplate;
     private static final String PROPERTIES_KEY = "properties";
+    private static final String INDEX_REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String INDEX_NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    private static final String INDEX_NUMBER_OF_SHARDS = "index.number_of_shards";
+    private static final long TASK_POLL_MIN_INTERVAL_MILLIS = 200;
+    private static final long TASK_POLL_MAX_INTERVAL_MILLIS = 5000;
+    private static final String INDEX_VERSION_SEPARATOR = "_v";
+    private static final String SHARD_DOC_SORT_FIELD = "_shard_doc";
+    private static final int EXPORT_FLUSH_BYTES = 1024 * 1024;
+    /**
+     * 已存在索引缓存，默认缓存60秒
+     */
+    private IndexStateCache indexStateCache = new IndexStateCache(60, TimeUnit.SECONDS);
+    /**
+     * 批量写入分批发送，默认每批最多5000条、10MB，顺序发送
+     */
+    private final BulkDispatcher bulkDispatcher;
+    /**
+     * 迁移中的索引，迁移期间的写入同时写入新索引
+     */
+    private final IndexMigrations indexMigrations;
+    /**
+     * searchStream每页条数、point in time保留时间
+     */
+    private int searchStreamPageSize = 1000;
+    private TimeValue searchStreamKeepAlive = TimeValue.timeValueSeconds(60);
+    /**
+     * 分片并行导出的线程数，默认4
+     */
+    private int exportParallelism = 4;
+    private volatile ExecutorService exportExecutor;
+    /**
+     * 按ID批量查询每个mget请求的条数、并行请求数，默认每批1000条、4个并行
+     */
+    private int multiGetChunkSize = 1000;
+    private int multiGetParallelism = 4;
+    private volatile ExecutorService multiGetExecutor;
+    /**
+     * 文档本地缓存，默认不开启
+     */
+    private DocumentNearCache nearCache = new DocumentNearCache(0, 0, TimeUnit.SECONDS);
+    /**
+     * 查询结果缓存，默认不开启
+     */
+    private SearchResultCache searchResultCache = new SearchResultCache(0, 0, TimeUnit.SECONDS, 0);
 
     public MyEsServiceImpl(ElasticsearchRestTemplate elasticsearchRestTemplate) {
         this.elasticsearchRestTemplate = elasticsearchRestTemplate;
+        this.bulkDispatcher = new BulkDispatcher(elasticsearchRestTemplate, 5000, 10L * 1024 * 1024, 1);
+        this.indexMigrations = new IndexMigrations(elasticsearchRestTemplate);
+        this.bulkDispatcher.setListener(indexMigrations);
+    }
+
+    /**
+     * 批量写入分批发送器，MyEsBulkWriter通过它共用BulkListener、本地暂存及缓存失效
+     *
+     * @return
+     */
+    BulkDispatcher getBulkDispatcher() {
+        return bulkDispatcher;
+    }
+
+    /**
+     * 更新文档使用的序列化器，null值不参与序列化
+     *
+     * @return
+     */
+    static ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    /**
+     * 设置批量写入分批参数
+     *
+     * @param chunkActions 每个bulk请求最大文档条数，小于等于0表示不限制
+     * @param chunkSizeMb  每个bulk请求最大数据量(MB)，小于等于0表示不限制
+     * @param parallelism  同时发送的bulk请求数，小于等于1表示顺序发送
+     */
+    public void setBulkChunk(int chunkActions, int chunkSizeMb, int parallelism) {
+        bulkDispatcher.setChunk(chunkActions, chunkSizeMb * 1024L * 1024L, parallelism);
+    }
+
+    /**
+     * 开启本地写入暂存，es不可用时单条及批量写入暂存到本地文件，es恢复后按顺序重放，默认不开启
+     *
+     * @param directory             暂存目录，为空表示不开启
+     * @param segmentSizeMb         单个暂存文件大小(MB)
+     * @param replayBatchSize       重放时每个bulk请求的条数
+     * @param replayIntervalSeconds 检查es是否恢复的间隔(秒)
+     */
+    public void setWriteSpool(@Nullable String directory, int segmentSizeMb, int replayBatchSize,
+                              long replayIntervalSeconds) {
+        bulkDispatcher.setSpool(StringUtils.isBlank(directory) ? null : new WriteSpool(elasticsearchRestTemplate,
+                directory, segmentSizeMb * 1024L * 1024L, replayBatchSize, replayIntervalSeconds));
+    }
+
+    /**
+     * 关闭本地写入暂存，停止重放，未重放的数据保留在暂存目录，下次启动后继续重放；
+     * 关闭并行序列化、并行导出及按ID批量查询的线程池，已提交的任务继续完成
+     */
+    public void close() {
+        bulkDispatcher.setSpool(null);
+        bulkDispatcher.setSerializer(null);
+        synchronized (this) {
+            if (exportExecutor != null) {
+                exportExecutor.shutdown();
+                exportExecutor = null;
+            }
+            if (multiGetExecutor != null) {
+                multiGetExecutor.shutdown();
+                multiGetExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * 批量写入时被es拒绝(429)的文档重试，默认重试3次，首次等待100毫秒
+     *
+     * @param maxRetries           最大重试次数，小于等于0表示不重试
+     * @param initialBackoffMillis 首次重试等待时间(毫秒)，之后每次翻倍并加随机抖动
+     */
+    public void setBulkRetry(int maxRetries, long initialBackoffMillis) {
+        bulkDispatcher.setRetry(maxRetries, initialBackoffMillis);
+    }
+
+    /**
+     * 批量写入时文档并行序列化，默认不开启
+     *
+     * @param parallelism 并行线程数，小于等于1表示不开启
+     * @param threshold   单次批量写入文档条数达到该值才并行
+     */
+    public void setBulkSerialize(int parallelism, int threshold) {
+        bulkDispatcher.setSerializer(parallelism > 1 ? new ParallelSerializer(parallelism, threshold) : null);
+    }
+
+    /**
+     * 设置searchStream深度分页参数，默认每页1000条，point in time保留60秒
+     *
+     * @param pageSize         每页条数
+     * @param keepAliveSeconds 每次请求后point in time保留时间(秒)，需大于处理一页数据的耗时
+     */
+    public void setSearchStream(int pageSize, long keepAliveSeconds) {
+        Assert.isTrue(pageSize > 0, "searchStream pageSize must be greater than 0");
+        Assert.isTrue(keepAliveSeconds > 0, "searchStream keepAliveSeconds must be greater than 0");
+        this.searchStreamPageSize = pageSize;
+        this.searchStreamKeepAlive = TimeValue.timeValueSeconds(keepAliveSeconds);
+    }
+
+    /**
+     * 设置分片(slice)并行导出的线程数，所有并行导出共用，默认4
+     *
+     * @param parallelism 线程数
+     */
+    public void setExportParallelism(int parallelism) {
+        Assert.isTrue(parallelism > 0, "export parallelism must be greater than 0");
+        this.exportParallelism = parallelism;
+    }
+
+    /**
+     * 设置按ID批量查询拆分参数，默认每批1000条、4个并行
+     *
+     * @param chunkSize   每个mget请求的ID数
+     * @param parallelism 同时发送的mget请求数，小于等于1表示顺序发送
+     */
+    public void setMultiGet(int chunkSize, int parallelism) {
+        Assert.isTrue(chunkSize > 0, "multiGet chunkSize must be greater than 0");
+        this.multiGetChunkSize = chunkSize;
+        this.multiGetParallelism = parallelism;
+    }
+
+    /**
+     * 设置文档本地缓存，标注@EsNearCache的类按ID查询时使用，通过本服务的写入、删除失效对应文档
+     *
+     * @param nearCache
+     */
+    public void setNearCache(DocumentNearCache nearCache) {
+        Assert.notNull(nearCache, "nearCache is null");
+        this.nearCache = nearCache;
+        bulkDispatcher.setNearCache(nearCache);
+    }
+
+    /**
+     * 设置查询结果缓存，MyEsSearchRequest.cacheable为true的查询使用，通过本服务的写入失效对应索引
+     *
+     * @param searchResultCache
+     */
+    public void setSearchResultCache(SearchResultCache searchResultCache) {
+        Assert.notNull(searchResultCache, "searchResultCache is null");
+        this.searchResultCache = searchResultCache;
+        bulkDispatcher.setSearchResultCache(searchResultCache);
+    }
+
+    public void setIndexStateCache(IndexStateCache indexStateCache) {
+        Assert.notNull(indexStateCache, "indexStateCache is null");
+        this.indexStateCache = indexStateCache;
     }
 
     static {
@@ -118,11 +396,33 @@ public class MyEsServiceImpl implements MyEsService {
      */
     public boolean existIndex(String indexName, boolean nonTenantMode) {
         if (StringUtils.isNotEmpty(indexName)) {
-            return elasticsearchRestTemplate.indexOps(buildIndexCoordinates(indexName, nonTenantMode)).exists();
+            IndexCoordinates indexCoordinates = buildIndexCoordinates(indexName, nonTenantMode);
+            boolean exist = elasticsearchRestTemplate.indexOps(indexCoordinates).exists();
+            if (exist) {
+                indexStateCache.markExist(indexCoordinates.getIndexName());
+            } else {
+                indexStateCache.invalidate(indexCoordinates.getIndexName());
+            }
+            return exist;
         }
         return Boolean.FALSE;
     }
 
+    /**
+     * 判断索引是否存在，优先使用已存在索引缓存，缓存未命中时远程判断
+     *
+     * @param indexName     索引名称
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    private boolean existIndexWithCache(String indexName, boolean nonTenantMode) {
+        if (StringUtils.isNotEmpty(indexName)
+                && indexStateCache.isKnownExist(buildIndexCoordinates(indexName, nonTenantMode).getIndexName())) {
+            return true;
+        }
+        return existIndex(indexName, nonTenantMode);
+    }
+
     /**
      * 判断索引是否存在
      *
@@ -161,7 +461,12 @@ public class MyEsServiceImpl implements MyEsService {
      */
     private boolean createIndexIfNotExist(String indexName, boolean nonTenantMode) {
         if (!existIndex(indexName, nonTenantMode)) {
-            return elasticsearchRestTemplate.indexOps(buildIndexCoordinates(indexName, nonTenantMode)).create();
+            IndexCoordinates indexCoordinates = buildIndexCoordinates(indexName, nonTenantMode);
+            boolean result = elasticsearchRestTemplate.indexOps(indexCoordinates).create();
+            if (result) {
+                indexStateCache.markExist(indexCoordinates.getIndexName());
+            }
+            return result;
         }
         return Boolean.FALSE;
     }
@@ -187,7 +492,12 @@ public class MyEsServiceImpl implements MyEsService {
             Document document = esRestIndexTemplate.createMapping();
             Settings settings = esRestIndexTemplate.createSettings();
 
-            return esRestIndexTemplate.doCreate(buildIndexCoordinates(clazz, nonTenantMode), settings, document);
+            IndexCoordinates indexCoordinates = buildIndexCoordinates(clazz, nonTenantMode);
+            boolean created = esRestIndexTemplate.doCreate(indexCoordinates, settings, document);
+            if (created) {
+                indexStateCache.markExist(indexCoordinates.getIndexName());
+            }
+            return created;
         }
         return Boolean.FALSE;
     }
@@ -205,7 +515,7 @@ public class MyEsServiceImpl implements MyEsService {
 
     @Override
     public boolean updateIndexMapping(Class<?> clazz, boolean nonTenantMode) {
-        boolean result = existIndex(clazz, nonTenantMode);
+        boolean result = clazz != null && existIndexWithCache(getEsIndexName(clazz), nonTenantMode);
         if (result) {
             MyRestIndexTemplate esRestIndexTemplate = new MyRestIndexTemplate(elasticsearchRestTemplate, clazz);
             Document document = esRestIndexTemplate.createMapping();
@@ -232,7 +542,16 @@ public class MyEsServiceImpl implements MyEsService {
      */
     public boolean deleteIndexIfExist(String indexName, boolean nonTenantMode) {
         if (existIndex(indexName, nonTenantMode)) {
-            return elasticsearchRestTemplate.indexOps(buildIndexCoordinates(indexName, nonTenantMode)).delete();
+            IndexCoordinates indexCoordinates = buildIndexCoordinates(indexName, nonTenantMode);
+            indexStateCache.invalidate(indexCoordinates.getIndexName());
+            invalidateIndexCache(indexCoordinates.getIndexName());
+            // 迁移过的索引名是别名，需要删除别名指向的索引
+            Set<String> indices = new MyRestIndexTemplate(elasticsearchRestTemplate, indexCoordinates)
+                    .getAliasIndices(indexCoordinates.getIndexName());
+            if (!indices.isEmpty()) {
+                indexCoordinates = IndexCoordinates.of(indices.toArray(new String[0]));
+            }
+            return elasticsearchRestTemplate.indexOps(indexCoordinates).delete();
         }
         return Boolean.FALSE;
     }
@@ -245,15 +564,12 @@ public class MyEsServiceImpl implements MyEsService {
      */
     @Override
     public boolean deleteIndexIfExist(Class<?> clazz) {
-        if (existIndex(clazz)) {
-            return deleteIndexIfExist(getEsIndexName(clazz));
-        }
-        return Boolean.FALSE;
+        return deleteIndexIfExist(clazz, false);
     }
 
     @Override
     public boolean deleteIndexIfExist(Class<?> clazz, boolean nonTenantMode) {
-        if (existIndex(clazz, nonTenantMode)) {
+        if (clazz != null) {
             return deleteIndexIfExist(getEsIndexName(clazz), nonTenantMode);
         }
         return Boolean.FALSE;
@@ -291,9 +607,9 @@ public class MyEsServiceImpl implements MyEsService {
     public <T> String addIndexDoc(String indexName, T model, boolean nonTenantMode) {
         Assert.notNull(indexName, "addIndexDoc elasticsearch indexName is null");
         Assert.notNull(model, "addIndexDoc document is null");
-        return elasticsearchRestTemplate.index(
-                new IndexQueryBuilder().withId(getDocumentIdValue(model)).withObject(model).build(),
-                buildIndexCoordinates(indexName, nonTenantMode));
+        IndexQuery indexQuery = new IndexQueryBuilder().withId(getDocumentIdValue(model))
+                .withRouting(getRoutingValue(model)).withObject(model).build();
+        return index(indexQuery, buildIndexCoordinates(indexName, nonTenantMode));
     }
 
     /**
@@ -340,9 +656,66 @@ public class MyEsServiceImpl implements MyEsService {
     public <T> String saveIndexDoc(String indexName, T model, Long version, boolean nonTenantMode) {
         Assert.notNull(indexName, "addIndexDoc elasticsearch indexName is null");
         Assert.notNull(model, "addIndexDoc document is null");
-        return elasticsearchRestTemplate.index(
-                new IndexQueryBuilder().withId(getDocumentIdValue(model)).withVersion(version).withObject(model).build(),
-                buildIndexCoordinates(indexName, nonTenantMode));
+        IndexQuery indexQuery = new IndexQueryBuilder().withId(getDocumentIdValue(model))
+                .withRouting(getRoutingValue(model)).withVersion(version).withObject(model).build();
+        return index(indexQuery, buildIndexCoordinates(indexName, nonTenantMode));
+    }
+
+    /**
+     * 写入单个文档，索引迁移中时同时写入新索引；开启本地暂存时es不可用写入暂存
+     *
+     * @param indexQuery
+     * @param indexCoordinates
+     * @return 文档ID
+     */
+    private String index(IndexQuery indexQuery, IndexCoordinates indexCoordinates) {
+        try {
+            WriteSpool writeSpool = bulkDispatcher.getSpool();
+            if (writeSpool != null) {
+                return spoolOrWrite(writeSpool, MyRequestFactory.indexRequest(elasticsearchRestTemplate, indexQuery,
+                        indexCoordinates), () -> doIndex(indexQuery, indexCoordinates));
+            }
+            return doIndex(indexQuery, indexCoordinates);
+        } finally {
+            invalidateCache(indexCoordinates.getIndexName(), indexQuery.getId());
+        }
+    }
+
+    private String doIndex(IndexQuery indexQuery, IndexCoordinates indexCoordinates) {
+        if (!indexMigrations.isMigrating(indexCoordinates.getIndexName())) {
+            return elasticsearchRestTemplate.index(indexQuery, indexCoordinates);
+        }
+        // 双写需要原索引返回的版本号
+        IndexResponse response = MyRequestFactory.index(elasticsearchRestTemplate, indexQuery, indexCoordinates);
+        indexMigrations.replicate(MyRequestFactory.indexRequest(elasticsearchRestTemplate, indexQuery,
+                indexCoordinates), response);
+        return response.getId();
+    }
+
+    /**
+     * 单条写入，暂存中有待重放的数据或es不可用时写入本地暂存
+     *
+     * @param writeSpool
+     * @param request    写入暂存的请求
+     * @param write      直接写入es
+     * @return 文档ID
+     */
+    private String spoolOrWrite(WriteSpool writeSpool, DocWriteRequest<?> request, Supplier<String> write) {
+        List<DocWriteRequest<?>> requests = Collections.singletonList(request);
+        if (writeSpool.appendIfPending(requests)) {
+            return request.id();
+        }
+        try {
+            return write.get();
+        } catch (RuntimeException e) {
+            if (!EsExceptionUtil.isUnavailable(e)) {
+                throw e;
+            }
+            EsLog.warn("elasticsearch unavailable, spool " + request.opType() + " " + request.index() + "/"
+                    + request.id(), e);
+            writeSpool.append(requests);
+            return request.id();
+        }
     }
 
     @Override
@@ -355,6 +728,133 @@ public class MyEsServiceImpl implements MyEsService {
         return bulkAddIndexDoc(getEsIndexName(clazz), docList, nonTenantMode);
     }
 
+    @Override
+    public <T> MyEsBulkSummary bulkAddIndexDoc(Class<?> clazz, Iterator<T> docs) {
+        return bulkAddIndexDoc(clazz, docs, false);
+    }
+
+    /**
+     * 流式批量新增文档
+     *
+     *  文档边读取边发送，内存中只保留正在发送的几批数据，失败文档不抛异常，记录在返回的汇总结果中
+     *
+     * @param clazz
+     * @param docs          文档迭代器; 文档需标注@Document注解、包含@Id注解字段, 且@Id注解标注的文档ID字段值不能为空
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    @Override
+    public <T> MyEsBulkSummary bulkAddIndexDoc(Class<?> clazz, Iterator<T> docs, boolean nonTenantMode) {
+        Assert.notNull(clazz, "bulkAddIndexDoc clazz is null");
+        Assert.notNull(docs, "bulkAddIndexDoc document is null");
+
+        IndexCoordinates indexCoordinates = buildIndexCoordinates(clazz, nonTenantMode);
+        MyEsBulkSummary summary = new MyEsBulkSummary();
+        bulkDispatcher.stream(docs, doc -> MyRequestFactory.indexRequest(elasticsearchRestTemplate,
+                new IndexQueryBuilder().withId(getDocumentIdValue(doc))
+                        .withRouting(getRoutingValue(doc)).withObject(doc).build(), indexCoordinates),
+                MyRequestFactory.refreshPolicy(elasticsearchRestTemplate),
+                (request, response) -> addToSummary(summary, response));
+        return summary;
+    }
+
+    @Override
+    public <T> MyEsBulkSummary bulkAddIndexDoc(Class<?> clazz, Stream<T> docs) {
+        return bulkAddIndexDoc(clazz, docs, false);
+    }
+
+    /**
+     * 流式批量新增文档，执行完成后关闭stream
+     *
+     * @param clazz
+     * @param docs          文档stream; 文档需标注@Document注解、包含@Id注解字段, 且@Id注解标注的文档ID字段值不能为空
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    @Override
+    public <T> MyEsBulkSummary bulkAddIndexDoc(Class<?> clazz, Stream<T> docs, boolean nonTenantMode) {
+        Assert.notNull(docs, "bulkAddIndexDoc document is null");
+        try (Stream<T> stream = docs) {
+            return bulkAddIndexDoc(clazz, stream.iterator(), nonTenantMode);
+        }
+    }
+
+    @Override
+    public <T> MyEsBulkSummary bulkLoad(Class<?> clazz, Stream<T> docs, boolean forceMerge) {
+        return bulkLoad(clazz, docs, forceMerge, false);
+    }
+
+    /**
+     * 大批量导入，导入期间关闭索引刷新并把副本数设为0，导入结束(包括异常)后恢复原配置并刷新索引
+     * 同一索引不要同时执行多个bulkLoad，否则恢复的配置可能不是最初的配置
+     *
+     * @param clazz
+     * @param docs          文档stream，执行完成后关闭
+     * @param forceMerge    导入成功后是否强制合并为1个段，适用于导入后不再频繁更新的索引
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    @Override
+    public <T> MyEsBulkSummary bulkLoad(Class<?> clazz, Stream<T> docs, boolean forceMerge, boolean nonTenantMode) {
+        Assert.notNull(clazz, "bulkLoad clazz is null");
+        Assert.notNull(docs, "bulkLoad document is null");
+        createIndexIfNotExist(clazz, nonTenantMode);
+
+        IndexCoordinates indexCoordinates = buildIndexCoordinates(clazz, nonTenantMode);
+        MyRestIndexTemplate esRestIndexTemplate = new MyRestIndexTemplate(elasticsearchRestTemplate, clazz);
+        Map<String, String> original = esRestIndexTemplate.getIndexSettings(indexCoordinates,
+                INDEX_REFRESH_INTERVAL, INDEX_NUMBER_OF_REPLICAS);
+        Map<String, Object> loadSettings = new HashMap<>();
+        loadSettings.put(INDEX_REFRESH_INTERVAL, "-1");
+        loadSettings.put(INDEX_NUMBER_OF_REPLICAS, 0);
+        esRestIndexTemplate.updateIndexSettings(indexCoordinates, loadSettings);
+
+        MyEsBulkSummary summary;
+        Throwable failure = null;
+        try {
+            summary = bulkAddIndexDoc(clazz, docs, nonTenantMode);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            // 无论成功与否（包括Error）都恢复原设置，恢复失败不覆盖原异常
+            try {
+                restoreLoadSettings(esRestIndexTemplate, indexCoordinates, original);
+            } catch (RuntimeException restoreException) {
+                if (failure == null) {
+                    throw restoreException;
+                }
+                failure.addSuppressed(restoreException);
+            }
+        }
+        if (forceMerge) {
+            esRestIndexTemplate.forceMerge(indexCoordinates, 1);
+        }
+        return summary;
+    }
+
+    private void restoreLoadSettings(MyRestIndexTemplate esRestIndexTemplate, IndexCoordinates indexCoordinates,
+                                     Map<String, String> original) {
+        esRestIndexTemplate.updateIndexSettings(indexCoordinates, new HashMap<>(original));
+        esRestIndexTemplate.doRefresh(indexCoordinates);
+    }
+
+    private static void addToSummary(MyEsBulkSummary summary, BulkResponse response) {
+        summary.setBatches(summary.getBatches() + 1);
+        summary.setTookMillis(summary.getTookMillis() + response.getTook().millis());
+        for (BulkItemResponse item : response.getItems()) {
+            summary.setTotal(summary.getTotal() + 1);
+            if (!item.isFailed()) {
+                summary.setSucceeded(summary.getSucceeded() + 1);
+                continue;
+            }
+            summary.setFailed(summary.getFailed() + 1);
+            if (summary.getFailures().size() < MyEsBulkSummary.MAX_FAILURE_DETAILS) {
+                summary.getFailures().add(MyEsBulkItemResult.of(item));
+            }
+        }
+    }
+
     @Override
     public <T> List<IndexedObjectInformation> bulkSaveIndexDoc(Class<?> clazz, List<T> docList) {
         return bulkSaveIndexDoc(clazz, docList, false);
@@ -379,6 +879,8 @@ public class MyEsServiceImpl implements MyEsService {
     /**
      * 批量新增文档
      *
+     *  按条数及数据量自动拆分为多个bulk请求发送，返回结果与docList顺序一致
+     *
      * @param indexName     索引名称
      * @param docList       es文档集合; 文档需标注@Document注解、包含@Id注解字段, 且@Id注解标注的文档ID字段值不能为空
      * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
@@ -389,11 +891,15 @@ public class MyEsServiceImpl implements MyEsService {
         Assert.notNull(indexName, "bulkAddIndexDoc elasticsearch indexName is null");
         Assert.notNull(docList, "bulkAddIndexDoc document is null");
 
-        List<IndexQuery> indexQueries = new ArrayList<>();
-        docList.forEach(doc ->
-                indexQueries.add(new IndexQueryBuilder().withId(getDocumentIdValue(doc)).withObject(doc).build()));
+        // 验证文档ID，避免部分批次已发送后才发现缺失
+        docList.forEach(this::getDocumentIdValue);
 
-        return elasticsearchRestTemplate.bulkIndex(indexQueries, buildIndexCoordinates(indexName, nonTenantMode));
+        IndexCoordinates indexCoordinates = buildIndexCoordinates(indexName, nonTenantMode);
+        List<BulkItemResponse> items = bulkDispatcher.dispatch(docList, doc -> MyRequestFactory.indexRequest(
+                elasticsearchRestTemplate, new IndexQueryBuilder().withId(getDocumentIdValue(doc))
+                        .withRouting(getRoutingValue(doc)).withObject(doc).build(),
+                indexCoordinates), MyRequestFactory.refreshPolicy(elasticsearchRestTemplate));
+        return toIndexedObjectInformation(items);
     }
 
     /**
@@ -422,14 +928,46 @@ public class MyEsServiceImpl implements MyEsService {
         Assert.notNull(indexName, "bulkAddIndexDoc elasticsearch indexName is null");
         Assert.notNull(docList, "bulkAddIndexDoc document is null");
 
-        // 验证是否传version值
-        docList.forEach(doc -> getDocumentVersionValue(doc));
+        // 验证文档ID及version值，避免部分批次已发送后才发现缺失
+        docList.forEach(doc -> {
+            DocumentMetadata metadata = getDocumentMetadata(doc);
+            metadata.getIdValue(doc);
+            metadata.getVersionValue(doc);
+        });
 
-        List<IndexQuery> indexQueries = new ArrayList<>();
-        docList.forEach(doc ->
-                indexQueries.add(new IndexQueryBuilder().withId(getDocumentIdValue(doc)).withVersion(getDocumentVersionValue(doc)).withObject(doc).build()));
+        IndexCoordinates indexCoordinates = buildIndexCoordinates(indexName, nonTenantMode);
+        List<BulkItemResponse> items = bulkDispatcher.dispatch(docList, doc -> {
+            DocumentMetadata metadata = getDocumentMetadata(doc);
+            return MyRequestFactory.indexRequest(elasticsearchRestTemplate, new IndexQueryBuilder()
+                    .withId(metadata.getIdValue(doc)).withRouting(metadata.getRoutingValue(doc))
+                    .withVersion(metadata.getVersionValue(doc)).withObject(doc).build(),
+                    indexCoordinates);
+        }, MyRequestFactory.refreshPolicy(elasticsearchRestTemplate));
+        return toIndexedObjectInformation(items);
+    }
 
-        return elasticsearchRestTemplate.bulkIndex(indexQueries, buildIndexCoordinates(indexName, nonTenantMode));
+    /**
+     * 转换bulk结果，存在失败文档时抛出MyEsBulkFailureException(BulkFailureException子类)，与ElasticsearchRestTemplate.bulkIndex保持一致
+     *
+     * @param items 按请求顺序的bulk结果，被拒绝的文档已重试
+     * @return
+     */
+    private List<IndexedObjectInformation> toIndexedObjectInformation(List<BulkItemResponse> items) {
+        List<MyEsBulkItemResult> failures = new ArrayList<>();
+        List<IndexedObjectInformation> result = new ArrayList<>(items.size());
+        for (BulkItemResponse item : items) {
+            if (item.isFailed()) {
+                failures.add(MyEsBulkItemResult.of(item));
+                continue;
+            }
+            DocWriteResponse response = item.getResponse();
+            result.add(IndexedObjectInformation.of(response.getId(), response.getSeqNo(), response.getPrimaryTerm(),
+                    response.getVersion()));
+        }
+        if (!failures.isEmpty()) {
+            throw new MyEsBulkFailureException(failures);
+        }
+        return result;
     }
 
     /**
@@ -444,11 +982,34 @@ public class MyEsServiceImpl implements MyEsService {
      */
     public <T> T findById(String indexName, String docId, Class<T> clazz, boolean nonTenantMode) {
         if (StringUtils.isNotEmpty(docId) && clazz != null) {
-            return elasticsearchRestTemplate.get(docId, clazz, buildIndexCoordinates(indexName, nonTenantMode));
+            IndexCoordinates indexCoordinates = buildIndexCoordinates(indexName, nonTenantMode);
+            if (nearCache.isEnabled(clazz)) {
+                return getWithNearCache(docId, clazz, indexCoordinates);
+            }
+            return elasticsearchRestTemplate.get(docId, clazz, indexCoordinates);
         }
         return null;
     }
 
+    /**
+     * 按ID查询，先读本地缓存，未命中查询es并写入缓存
+     */
+    private <T> T getWithNearCache(String docId, Class<T> clazz, IndexCoordinates indexCoordinates) {
+        String indexName = indexCoordinates.getIndexName();
+        Document document = nearCache.get(indexName, docId);
+        if (document == null) {
+            long stamp = nearCache.stamp(indexName, docId);
+            GetResponse response = elasticsearchRestTemplate.execute(
+                    client -> client.get(new GetRequest(indexName, docId), RequestOptions.DEFAULT));
+            document = DocumentAdapters.from(response);
+            if (document == null) {
+                return null;
+            }
+            nearCache.put(indexName, docId, document, stamp);
+        }
+        return elasticsearchRestTemplate.getElasticsearchConverter().read(clazz, document);
+    }
+
     public <T> T findById(String docId, Class<T> clazz) {
         return findById(docId, clazz, false);
     }
@@ -458,6 +1019,15 @@ public class MyEsServiceImpl implements MyEsService {
         return findById(getEsIndexName(clazz), docId, clazz, nonTenantMode);
     }
 
+    @Override
+    public <T> T findById(String docId, Class<T> clazz, @Nullable String routing, boolean nonTenantMode) {
+        if (routing == null) {
+            return findById(docId, clazz, nonTenantMode);
+        }
+        List<T> list = findByIds(clazz, Collections.singletonList(docId), routing, nonTenantMode);
+        return CollectionUtils.isEmpty(list) ? null : list.get(0);
+    }
+
 
     /**
      * 根据多个ID查询文档
@@ -474,8 +1044,8 @@ public class MyEsServiceImpl implements MyEsService {
         if (CollectionUtils.isEmpty(docIdList) || clazz == null || indexName == null) {
             return null;
         }
-        StringQuery query = StringQuery.builder("stringQuery").withIds(docIdList).build();
-        List<MultiGetItem<T>> result = elasticsearchRestTemplate.multiGet(query, clazz, buildIndexCoordinates(indexName, nonTenantMode));
+        List<MultiGetItem<T>> result = multiGetWithNearCache(docIdList, clazz,
+                buildIndexCoordinates(indexName, nonTenantMode));
         if(CollectionUtils.isEmpty(result)){
             return null;
         }
@@ -494,6 +1064,177 @@ public class MyEsServiceImpl implements MyEsService {
         return findByIds(getEsIndexName(clazz),  clazz,docIdList, nonTenantMode);
     }
 
+    @Override
+    public <T> List<T> findByIds(Class<T> clazz, List<String> docIdList, @Nullable String routing, boolean nonTenantMode) {
+        if (routing == null) {
+            return findByIds(clazz, docIdList, nonTenantMode);
+        }
+        if (CollectionUtils.isEmpty(docIdList) || clazz == null) {
+            return null;
+        }
+        List<MultiGetItem<T>> result = multiGet(docIdList, routing, null, clazz,
+                buildIndexCoordinates(clazz, nonTenantMode));
+        if (CollectionUtils.isEmpty(result)) {
+            return null;
+        }
+        return result.stream().map(MultiGetItem::getItem).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    @Override
+    public <T> Map<String, T> findByIdsAsMap(Class<T> clazz, List<String> docIdList) {
+        return findByIdsAsMap(clazz, docIdList, null, false);
+    }
+
+    @Override
+    public <T> Map<String, T> findByIdsAsMap(Class<T> clazz, List<String> docIdList, @Nullable String[] includes,
+                                             boolean nonTenantMode) {
+        Assert.notNull(clazz, "clazz must not be null");
+        if (CollectionUtils.isEmpty(docIdList)) {
+            return Collections.emptyMap();
+        }
+        IndexCoordinates indexCoordinates = buildIndexCoordinates(clazz, nonTenantMode);
+        List<MultiGetItem<T>> result = includes == null || includes.length == 0
+                ? multiGetWithNearCache(docIdList, clazz, indexCoordinates)
+                : multiGet(docIdList, null, includes, clazz, indexCoordinates);
+        Map<String, T> docs = new LinkedHashMap<>(result.size() * 4 / 3 + 1);
+        int failures = 0;
+        for (int i = 0; i < result.size(); i++) {
+            MultiGetItem<T> item = result.get(i);
+            if (item.hasItem()) {
+                docs.put(docIdList.get(i), item.getItem());
+            } else if (item.isFailed()) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            EsLog.warn("findByIdsAsMap " + clazz.getSimpleName() + " has " + failures + " failed ids");
+        }
+        return docs;
+    }
+
+    /**
+     * 按ID批量查询，ID数超过每批条数时拆分为多个mget请求并行发送，结果与docIdList顺序一一对应
+     *
+     * @param routing  路由值，可为null
+     * @param includes 返回的字段，为空返回全部
+     */
+    private <T> List<MultiGetItem<T>> multiGet(List<String> docIdList, @Nullable String routing,
+                                               @Nullable String[] includes, Class<T> clazz, IndexCoordinates index) {
+        return multiGetChunked(docIdList, index.getIndexName(),
+                chunk -> multiGetChunk(chunk, routing, includes, clazz, index));
+    }
+
+    /**
+     * 按ID批量查询，开启本地缓存的类只查询未命中的ID并写入缓存，结果与docIdList顺序一一对应
+     */
+    private <T> List<MultiGetItem<T>> multiGetWithNearCache(List<String> docIdList, Class<T> clazz,
+                                                            IndexCoordinates index) {
+        if (!nearCache.isEnabled(clazz)) {
+            return multiGet(docIdList, null, null, clazz, index);
+        }
+        String indexName = index.getIndexName();
+        List<MultiGetItem<T>> result = new ArrayList<>(docIdList.size());
+        List<Integer> missPositions = new ArrayList<>();
+        List<String> missIds = new ArrayList<>();
+        for (String id : docIdList) {
+            Document document = nearCache.get(indexName, id);
+            if (document != null) {
+                result.add(MultiGetItem.of(elasticsearchRestTemplate.getElasticsearchConverter().read(clazz, document),
+                        null));
+            } else {
+                missPositions.add(result.size());
+                missIds.add(id);
+                result.add(null);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        long[] stamps = new long[missIds.size()];
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i] = nearCache.stamp(indexName, missIds.get(i));
+        }
+        List<MultiGetItem<Document>> documents = multiGetChunked(missIds, indexName,
+                chunk -> multiGetDocuments(chunk, indexName));
+        for (int i = 0; i < documents.size(); i++) {
+            MultiGetItem<Document> item = documents.get(i);
+            T doc = null;
+            if (item.hasItem()) {
+                nearCache.put(indexName, missIds.get(i), item.getItem(), stamps[i]);
+                doc = elasticsearchRestTemplate.getElasticsearchConverter().read(clazz, item.getItem());
+            }
+            result.set(missPositions.get(i), MultiGetItem.of(doc, item.getFailure()));
+        }
+        return result;
+    }
+
+    /**
+     * ID数超过每批条数时拆分为多个mget请求并行发送，结果按docIdList顺序合并
+     *
+     * @param chunkGet 查询一批ID
+     */
+    private <R> List<R> multiGetChunked(List<String> docIdList, String indexName,
+                                        Function<List<String>, List<R>> chunkGet) {
+        int size = docIdList.size();
+        if (size <= multiGetChunkSize) {
+            return chunkGet.apply(docIdList);
+        }
+        List<List<String>> chunks = new ArrayList<>(size / multiGetChunkSize + 1);
+        for (int i = 0; i < size; i += multiGetChunkSize) {
+            chunks.add(docIdList.subList(i, Math.min(size, i + multiGetChunkSize)));
+        }
+        List<R> result = new ArrayList<>(size);
+        if (multiGetParallelism <= 1) {
+            chunks.forEach(chunk -> result.addAll(chunkGet.apply(chunk)));
+            return result;
+        }
+        List<Future<List<R>>> futures = new ArrayList<>(chunks.size());
+        try {
+            for (List<String> chunk : chunks) {
+                futures.add(getMultiGetExecutor().submit(() -> chunkGet.apply(chunk)));
+            }
+            for (Future<List<R>> future : futures) {
+                result.addAll(future.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("multiGet " + indexName + " interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            futures.forEach(future -> future.cancel(false));
+        }
+    }
+
+    private <T> List<MultiGetItem<T>> multiGetChunk(List<String> docIdList, @Nullable String routing,
+                                                    @Nullable String[] includes, Class<T> clazz,
+                                                    IndexCoordinates index) {
+        Query query;
+        if (routing == null) {
+            query = Query.multiGetQuery(docIdList);
+        } else {
+            query = Query.multiGetQueryWithRouting(docIdList.stream().map(id -> new Query.IdWithRouting(id, routing))
+                    .collect(Collectors.toList()));
+        }
+        if (includes != null && includes.length > 0) {
+            query.addSourceFilter(new FetchSourceFilter(includes, null));
+        }
+        return elasticsearchRestTemplate.multiGet(query, clazz, index);
+    }
+
+    private List<MultiGetItem<Document>> multiGetDocuments(List<String> docIdList, String indexName) {
+        MultiGetRequest request = new MultiGetRequest();
+        docIdList.forEach(id -> request.add(indexName, id));
+        MultiGetResponse response = elasticsearchRestTemplate.execute(
+                client -> client.mget(request, RequestOptions.DEFAULT));
+        return DocumentAdapters.from(response);
+    }
+
     /**
      * 根据ID判断文档是否存在
      *
@@ -502,7 +1243,7 @@ public class MyEsServiceImpl implements MyEsService {
      * @return 存在与否
      */
     private boolean existDocById(String indexName, String docId, boolean nonTenantMode) {
-        if (existIndex(indexName, nonTenantMode) && StringUtils.isNotEmpty(docId)) {
+        if (StringUtils.isNotEmpty(docId) && existIndexWithCache(indexName, nonTenantMode)) {
             return elasticsearchRestTemplate.exists(docId, buildIndexCoordinates(indexName, nonTenantMode));
         }
         return Boolean.FALSE;
@@ -514,9 +1255,27 @@ public class MyEsServiceImpl implements MyEsService {
 
     @Override
     public boolean existDocById(Class<?> clazz, String docId, boolean nonTenantMode) {
+        if (nearCache.isEnabled(clazz) && nearCache.get(buildIndexCoordinates(clazz, nonTenantMode).getIndexName(),
+                docId) != null) {
+            return true;
+        }
         return existDocById(getEsIndexName(clazz), docId, nonTenantMode);
     }
 
+    @Override
+    public boolean existDocById(Class<?> clazz, String docId, @Nullable String routing, boolean nonTenantMode) {
+        if (routing == null) {
+            return existDocById(clazz, docId, nonTenantMode);
+        }
+        String indexName = getEsIndexName(clazz);
+        if (StringUtils.isEmpty(docId) || !existIndexWithCache(indexName, nonTenantMode)) {
+            return Boolean.FALSE;
+        }
+        GetRequest getRequest = new GetRequest(buildIndexCoordinates(indexName, nonTenantMode).getIndexName(), docId)
+                .routing(routing).fetchSourceContext(FetchSourceContext.DO_NOT_FETCH_SOURCE).storedFields("_none_");
+        return elasticsearchRestTemplate.execute(client -> client.exists(getRequest, RequestOptions.DEFAULT));
+    }
+
     public <T> UpdateResponse.Result updateDoc(T elasticsearchModel) {
         return updateDoc(elasticsearchModel, false);
     }
@@ -527,9 +1286,22 @@ public class MyEsServiceImpl implements MyEsService {
         return updateDoc(indexName, elasticsearchModel, nonTenantMode);
     }
 
-    /**
-     * 更新文档
-     *
+    @Override
+    public <T> UpdateResponse.Result updateDoc(T elasticsearchModel, boolean docAsUpsert, @Nullable Integer retryOnConflict) {
+        return updateDoc(elasticsearchModel, docAsUpsert, retryOnConflict, false);
+    }
+
+    @Override
+    public <T> UpdateResponse.Result updateDoc(T elasticsearchModel, boolean docAsUpsert, @Nullable Integer retryOnConflict,
+                                               boolean nonTenantMode) {
+        Assert.notNull(elasticsearchModel, "updateDoc document is null");
+        String indexName = getEsIndexName(elasticsearchModel.getClass());
+        return updateDoc(indexName, elasticsearchModel, objectMapper, docAsUpsert, retryOnConflict, nonTenantMode);
+    }
+
+    /**
+     * 更新文档
+     *
      * @param indexName          索引名称
      * @param elasticsearchModel elasticsearch文档; 文档需标注@Document注解、包含@Id注解字段, 且@Id标注的文档ID值不能为空
      * @return UpdateResponse.Result
@@ -561,20 +1333,150 @@ public class MyEsServiceImpl implements MyEsService {
      * @return UpdateResponse.Result
      */
     private <T> UpdateResponse.Result updateDoc(String indexName, T elasticsearchModel, ObjectMapper objectMapper, boolean nonTenantMode) {
-        Assert.notNull(indexName, "bulkUpdateDoc clazz is null");
-        Assert.notNull(elasticsearchModel, "bulkUpdateDoc modelList is null");
+        return updateDoc(indexName, elasticsearchModel, objectMapper, false, null, nonTenantMode);
+    }
+
+    /**
+     * 更新文档
+     *
+     *  只发送一次update请求，文档不存在时由es返回document_missing_exception，不再预先判断索引及文档是否存在；
+     *  文档直接序列化为字节作为partial doc，不再经过String、Document中转
+     *
+     * @param indexName          索引名称
+     * @param elasticsearchModel elasticsearch文档; 文档需标注@Document注解、包含@Id注解字段, 且@Id标注的文档ID值不能为空
+     * @param objectMapper       objectMapper
+     * @param docAsUpsert        文档不存在时是否以当前文档新增
+     * @param retryOnConflict    版本冲突时es端重试次数，为null使用es默认值
+     * @param nonTenantMode      是否是租户模式，true表示非租户模式，即通用索引
+     * @return UpdateResponse.Result
+     */
+    private <T> UpdateResponse.Result updateDoc(String indexName, T elasticsearchModel, ObjectMapper objectMapper,
+                                                boolean docAsUpsert, @Nullable Integer retryOnConflict,
+                                                boolean nonTenantMode) {
+        Assert.notNull(indexName, "updateDoc indexName is null");
+        Assert.notNull(elasticsearchModel, "updateDoc document is null");
+        String index = buildIndexCoordinates(indexName, nonTenantMode).getIndexName();
+        UpdateRequest updateRequest = buildUpdateRequest(index, elasticsearchModel,
+                objectMapper == null ? this.objectMapper : objectMapper);
+        if (docAsUpsert) {
+            updateRequest.docAsUpsert(true);
+        }
+        if (retryOnConflict != null) {
+            updateRequest.retryOnConflict(retryOnConflict);
+        }
+        return executeUpdate(updateRequest, docAsUpsert);
+    }
+
+    /**
+     * 发送update请求，文档不存在且非upsert模式时抛出IllegalArgumentException
+     *
+     * @param updateRequest
+     * @param docAsUpsert
+     * @return
+     */
+    private UpdateResponse.Result executeUpdate(UpdateRequest updateRequest, boolean docAsUpsert) {
+        WriteRequest.RefreshPolicy refreshPolicy = MyRequestFactory.refreshPolicy(elasticsearchRestTemplate);
+        if (refreshPolicy != null) {
+            updateRequest.setRefreshPolicy(refreshPolicy);
+        }
+        indexMigrations.prepare(updateRequest);
+
         try {
-            String id = getDocumentIdValue(elasticsearchModel);
-            Assert.isTrue(existDocById(indexName, id, nonTenantMode), "elasticsearch document is not exist.");
+            org.elasticsearch.action.update.UpdateResponse response = elasticsearchRestTemplate.execute(
+                    client -> client.update(updateRequest, RequestOptions.DEFAULT));
+            if (indexMigrations.isMigrating(updateRequest.index())) {
+                indexMigrations.replicate(updateRequest, response);
+            }
+            return UpdateResponse.Result.valueOf(response.getResult().name());
+        } catch (RuntimeException e) {
+            if (!docAsUpsert && EsExceptionUtil.isDocumentMissing(e)) {
+                throw new IllegalArgumentException("elasticsearch document is not exist.", e);
+            }
+            throw e;
+        } finally {
+            invalidateCache(updateRequest.index(), updateRequest.id());
+        }
+    }
+
+    @Override
+    public <T> UpdateResponse.Result updateDocDiff(T oldModel, T newModel) {
+        return updateDocDiff(oldModel, newModel, false);
+    }
 
-            objectMapper = objectMapper == null ? this.objectMapper : objectMapper;
-            String json = objectMapper.writeValueAsString(elasticsearchModel);
-            UpdateQuery updateQuery = UpdateQuery.builder(id).withDocument(Document.parse(json)).build();
+    /**
+     * 只更新变更字段，修改后为null的字段会被清空
+     *
+     * @param oldModel      修改前文档
+     * @param newModel      修改后文档
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 无变更字段时不发送请求，返回NOOP
+     */
+    @Override
+    public <T> UpdateResponse.Result updateDocDiff(T oldModel, T newModel, boolean nonTenantMode) {
+        String id = getDiffDocumentId(oldModel, newModel);
+        ObjectNode changed = EsDocDiffUtil.diff(oldModel, newModel);
+        if (changed.size() == 0) {
+            return UpdateResponse.Result.NOOP;
+        }
+        String index = buildIndexCoordinates(newModel.getClass(), nonTenantMode).getIndexName();
+        return executeUpdate(buildUpdateRequest(index, id, getRoutingValue(newModel), changed), false);
+    }
 
-            return elasticsearchRestTemplate.update(updateQuery, buildIndexCoordinates(indexName, nonTenantMode)).getResult();
+    @Override
+    public <T> List<IndexedObjectInformation> bulkUpdateDocDiff(Class<?> clazz, List<T> oldList, List<T> newList) {
+        return bulkUpdateDocDiff(clazz, oldList, newList, false);
+    }
+
+    /**
+     * 批量只更新变更字段，修改前后文档按@Id匹配，没有变更字段的文档不发送
+     *
+     * @param clazz
+     * @param oldList       修改前文档
+     * @param newList       修改后文档，每个文档在oldList中需存在相同@Id的文档
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 实际发送的文档更新结果
+     */
+    @Override
+    public <T> List<IndexedObjectInformation> bulkUpdateDocDiff(Class<?> clazz, List<T> oldList, List<T> newList,
+                                                                boolean nonTenantMode) {
+        Assert.notNull(clazz, "bulkUpdateDocDiff clazz is null");
+        Assert.notNull(oldList, "bulkUpdateDocDiff oldList is null");
+        Assert.notNull(newList, "bulkUpdateDocDiff newList is null");
+
+        Map<String, T> oldModels = new HashMap<>(oldList.size() * 4 / 3 + 1);
+        for (T oldModel : oldList) {
+            oldModels.put(getDocumentIdValue(oldModel), oldModel);
+        }
+        String index = buildIndexCoordinates(clazz, nonTenantMode).getIndexName();
+        List<UpdateRequest> requests = new ArrayList<>(newList.size());
+        for (T newModel : newList) {
+            String id = getDocumentIdValue(newModel);
+            T oldModel = oldModels.get(id);
+            Assert.notNull(oldModel, clazz.getSimpleName() + " old document not found, id: " + id);
+            ObjectNode changed = EsDocDiffUtil.diff(oldModel, newModel);
+            if (changed.size() > 0) {
+                requests.add(buildUpdateRequest(index, id, getRoutingValue(newModel), changed));
+            }
+        }
+        List<BulkItemResponse> items = bulkDispatcher.dispatch(requests, Function.identity(),
+                MyRequestFactory.refreshPolicy(elasticsearchRestTemplate));
+        return toIndexedObjectInformation(items);
+    }
+
+    private <T> String getDiffDocumentId(T oldModel, T newModel) {
+        Assert.notNull(oldModel, "updateDocDiff old document is null");
+        Assert.notNull(newModel, "updateDocDiff new document is null");
+        String id = getDocumentIdValue(newModel);
+        Assert.isTrue(id.equals(getDocumentIdValue(oldModel)), "updateDocDiff documents @Id value not equal");
+        return id;
+    }
+
+    private UpdateRequest buildUpdateRequest(String index, String id, @Nullable String routing, ObjectNode changed) {
+        try {
+            return new UpdateRequest(index, id).routing(routing)
+                    .doc(objectMapper.writeValueAsBytes(changed), XContentType.JSON);
         } catch (JsonProcessingException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+            throw new IllegalArgumentException("update document serialize failed", e);
         }
     }
 
@@ -590,6 +1492,8 @@ public class MyEsServiceImpl implements MyEsService {
     /**
      * 批量更新文档
      *
+     *  每个文档直接序列化为字节作为partial doc，按bulkChunk配置分批发送
+     *
      * @param clazz        索引名称
      * @param modelList    elasticsearch文档; 文档需标注@Document注解、包含@Id注解字段, 且@Id标注的文档ID值不能为空
      * @param objectMapper objectMapper
@@ -598,33 +1502,55 @@ public class MyEsServiceImpl implements MyEsService {
     private <T> List<IndexedObjectInformation> bulkUpdateDoc(Class<?> clazz, List<T> modelList, BulkOptions bulkOptions,
                                                              ObjectMapper objectMapper) {
         Assert.notNull(clazz, "bulkUpdateDoc clazz is null");
-        Assert.notNull(clazz, "bulkUpdateDoc modelList is null");
+        Assert.notNull(modelList, "bulkUpdateDoc modelList is null");
+
+        // 验证文档ID，避免部分批次已发送后才发现缺失
+        modelList.forEach(this::getDocumentIdValue);
+
+        IndexCoordinates indexCoordinates = buildIndexCoordinates(clazz);
+        BulkOptions options = bulkOptions == null ? BulkOptions.defaultOptions() : bulkOptions;
+        List<BulkItemResponse> items = bulkDispatcher.dispatch(modelList,
+                model -> buildUpdateRequest(indexCoordinates.getIndexName(), model, objectMapper),
+                () -> MyRequestFactory.bulkRequest(elasticsearchRestTemplate, options, indexCoordinates));
+        return toIndexedObjectInformation(items);
+    }
 
+    /**
+     * 构建update请求，文档由objectMapper一次序列化为字节直接作为partial doc
+     *
+     * @param index              实际索引名称
+     * @param elasticsearchModel elasticsearch文档
+     * @param objectMapper       objectMapper
+     * @return
+     */
+    private <T> UpdateRequest buildUpdateRequest(String index, T elasticsearchModel, ObjectMapper objectMapper) {
+        String id = getDocumentIdValue(elasticsearchModel);
         try {
-            List<UpdateQuery> queries = new ArrayList(modelList.size());
-            UpdateQuery updateQuery = null;
-            String id = null;
-            for (T model : modelList) {
-                id = getDocumentIdValue(model);
-                Assert.notNull(id, clazz.getName() + " instance document id is null");
-                String json = objectMapper.writeValueAsString(model);
-                updateQuery = UpdateQuery.builder(getDocumentIdValue(model)).withDocument(Document.parse(json)).build();
-                queries.add(updateQuery);
-            }
-            bulkOptions = bulkOptions == null ? BulkOptions.defaultOptions() : bulkOptions;
-            return elasticsearchRestTemplate.doBulkOperation(queries, bulkOptions, buildIndexCoordinates(clazz));
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+            return new UpdateRequest(index, id).routing(getRoutingValue(elasticsearchModel))
+                    .doc(objectMapper.writeValueAsBytes(elasticsearchModel), XContentType.JSON);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(elasticsearchModel.getClass().getName() + " serialize failed", e);
         }
     }
 
+    /**
+     * 获取文档类元数据，每个类只反射解析一次
+     *
+     * @param elasticsearchModel
+     * @return
+     */
+    private <T> DocumentMetadata getDocumentMetadata(T elasticsearchModel) {
+        Assert.notNull(elasticsearchModel, "elasticsearch document is null");
+        return DocumentMetadataCache.get(elasticsearchModel.getClass());
+    }
+
     private <T> String getDocumentIdValue(T elasticsearchModel) {
-        return EsReflectUtils.getDocumentIdValue(elasticsearchModel);
+        return getDocumentMetadata(elasticsearchModel).getIdValue(elasticsearchModel);
     }
 
-    private <T> Long getDocumentVersionValue(T elasticsearchModel) {
-        return EsReflectUtils.getDocumentVersionValue(elasticsearchModel);
+    @Nullable
+    private <T> String getRoutingValue(T elasticsearchModel) {
+        return getDocumentMetadata(elasticsearchModel).getRoutingValue(elasticsearchModel);
     }
 
     /**
@@ -678,7 +1604,316 @@ public class MyEsServiceImpl implements MyEsService {
     @Override
     public <T> SearchHits<T> search(Class<T> clazz, MyEsSearchRequest request, boolean nonTenantMode) {
         return search(getEsIndexName(clazz), clazz, request.getQueryBuilder(), request.getFilterBuilder(),
-                request.getAggregationBuilder(), request.getPageable(), request.getQueryFields(), nonTenantMode);
+                request.getAggregationBuilder(), request.getPageable(), request.getQueryFields(), request.getRouting(),
+                request.isCacheable(), nonTenantMode);
+    }
+
+    @Override
+    public <T> Stream<T> searchStream(Class<T> clazz, MyEsSearchRequest request) {
+        return searchStream(clazz, request, searchStreamPageSize, false);
+    }
+
+    @Override
+    public <T> Stream<T> searchStream(Class<T> clazz, MyEsSearchRequest request, int pageSize, boolean nonTenantMode) {
+        Assert.notNull(clazz, "clazz must not be null");
+        Assert.notNull(request, "request must not be null");
+        Assert.isNull(request.getAggregationBuilder(), "searchStream does not support aggregation");
+        IndexCoordinates indexCoordinates = buildIndexCoordinates(clazz, nonTenantMode);
+        // 只使用pageable中的排序，翻页由search_after完成
+        Sort sort = request.getPageable() == null ? Sort.unsorted() : request.getPageable().getSort();
+        SearchRequest searchRequest = buildSearchAfterRequest(clazz, request.getQueryBuilder(),
+                request.getFilterBuilder(), sort, request.getQueryFields(), pageSize, indexCoordinates);
+        String pitId = openPointInTime(indexCoordinates, request.getRouting());
+        SearchAfterIterator<T> iterator = new SearchAfterIterator<>(elasticsearchRestTemplate, searchRequest,
+                hit -> elasticsearchRestTemplate.getElasticsearchConverter().read(clazz, DocumentAdapters.from(hit)),
+                pitId, searchStreamKeepAlive);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+    }
+
+    @Override
+    public <T> long export(Class<T> clazz, @Nullable QueryBuilder filterBuilder, Consumer<? super T> consumer) {
+        return export(clazz, filterBuilder, consumer, false);
+    }
+
+    @Override
+    public <T> long export(Class<T> clazz, @Nullable QueryBuilder filterBuilder, Consumer<? super T> consumer,
+                           boolean nonTenantMode) {
+        return export(clazz, filterBuilder, consumer, 1, nonTenantMode);
+    }
+
+    @Override
+    public <T> long export(Class<T> clazz, @Nullable QueryBuilder filterBuilder, Consumer<? super T> consumer,
+                           int slices, boolean nonTenantMode) {
+        Assert.notNull(consumer, "consumer must not be null");
+        Object lock = new Object();
+        return exportSlices(clazz, filterBuilder, slices, nonTenantMode,
+                hit -> elasticsearchRestTemplate.getElasticsearchConverter().read(clazz, DocumentAdapters.from(hit)),
+                (iterator, parallel) -> {
+                    long count = 0;
+                    while (iterator.hasNext()) {
+                        T doc = iterator.next();
+                        if (parallel) {
+                            // 文档转换在各分片线程中并行，consumer串行调用
+                            synchronized (lock) {
+                                consumer.accept(doc);
+                            }
+                        } else {
+                            consumer.accept(doc);
+                        }
+                        count++;
+                    }
+                    return count;
+                });
+    }
+
+    @Override
+    public long exportRaw(Class<?> clazz, @Nullable QueryBuilder filterBuilder, OutputStream outputStream) {
+        return exportRaw(clazz, filterBuilder, outputStream, false);
+    }
+
+    @Override
+    public long exportRaw(Class<?> clazz, @Nullable QueryBuilder filterBuilder, OutputStream outputStream,
+                          boolean nonTenantMode) {
+        return exportRaw(clazz, filterBuilder, outputStream, 1, nonTenantMode);
+    }
+
+    @Override
+    public long exportRaw(Class<?> clazz, @Nullable QueryBuilder filterBuilder, OutputStream outputStream,
+                          int slices, boolean nonTenantMode) {
+        Assert.notNull(outputStream, "outputStream must not be null");
+        long count = exportSlices(clazz, filterBuilder, slices, nonTenantMode, SearchHit::getSourceRef,
+                (iterator, parallel) -> {
+                    // 并行时每个分片先写入本地缓冲，按块整体写入outputStream，保证行不交错
+                    ByteArrayOutputStream buffer = parallel ? new ByteArrayOutputStream() : null;
+                    long sliceCount = 0;
+                    while (iterator.hasNext()) {
+                        BytesReference source = iterator.next();
+                        if (source == null) {
+                            continue;
+                        }
+                        writeNdjsonLine(source, parallel ? buffer : outputStream);
+                        sliceCount++;
+                        if (parallel && buffer.size() >= EXPORT_FLUSH_BYTES) {
+                            flushExportBuffer(buffer, outputStream);
+                        }
+                    }
+                    if (parallel) {
+                        flushExportBuffer(buffer, outputStream);
+                    }
+                    return sliceCount;
+                });
+        try {
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("export " + clazz.getName() + " failed", e);
+        }
+        return count;
+    }
+
+    private static void writeNdjsonLine(BytesReference source, OutputStream outputStream) {
+        try {
+            // 写入时带换行的_source(如格式化后的json)压缩为单行，保证每行一个文档
+            if (source.indexOf((byte) '\n', 0) >= 0) {
+                source = new BytesArray(XContentHelper.convertToJson(source, true, false, XContentType.JSON));
+            }
+            source.writeTo(outputStream);
+            outputStream.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException("export write failed", e);
+        }
+    }
+
+    private static void flushExportBuffer(ByteArrayOutputStream buffer, OutputStream outputStream) {
+        if (buffer.size() == 0) {
+            return;
+        }
+        synchronized (outputStream) {
+            try {
+                buffer.writeTo(outputStream);
+            } catch (IOException e) {
+                throw new UncheckedIOException("export write failed", e);
+            }
+        }
+        buffer.reset();
+    }
+
+    /**
+     * 按索引顺序导出，slices大于1时多个分片(slice)共用一个point in time，在导出线程池中并行读取
+     *
+     * @param slices    分片数，小于等于0表示使用索引主分片数，1表示不分片在调用线程中读取
+     * @param sliceTask 处理一个分片的数据，第二个参数表示是否并行，返回处理条数
+     * @return 导出条数
+     */
+    private <T> long exportSlices(Class<?> clazz, @Nullable QueryBuilder filterBuilder, int slices,
+                                  boolean nonTenantMode, Function<SearchHit, T> hitMapper,
+                                  BiFunction<Iterator<T>, Boolean, Long> sliceTask) {
+        Assert.notNull(clazz, "clazz must not be null");
+        IndexCoordinates indexCoordinates = buildIndexCoordinates(clazz, nonTenantMode);
+        if (slices <= 0) {
+            slices = getNumberOfShards(clazz, indexCoordinates);
+        }
+        SearchRequest searchRequest = buildSearchAfterRequest(clazz, null, filterBuilder, Sort.unsorted(), null,
+                searchStreamPageSize, indexCoordinates);
+        String pitId = openPointInTime(indexCoordinates, null);
+        if (slices <= 1) {
+            try (SearchAfterIterator<T> iterator = new SearchAfterIterator<>(elasticsearchRestTemplate, searchRequest,
+                    hitMapper, pitId, searchStreamKeepAlive)) {
+                return sliceTask.apply(iterator, false);
+            }
+        }
+
+        AtomicBoolean aborted = new AtomicBoolean();
+        List<Future<Long>> futures = new ArrayList<>(slices);
+        try {
+            for (int i = 0; i < slices; i++) {
+                SearchRequest sliceRequest = new SearchRequest(searchRequest).source(
+                        searchRequest.source().shallowCopy().slice(new SliceBuilder(i, slices)));
+                futures.add(getExportExecutor().submit(() -> {
+                    try (SearchAfterIterator<T> iterator = new SearchAfterIterator<>(elasticsearchRestTemplate,
+                            sliceRequest, hitMapper, pitId, searchStreamKeepAlive, false)) {
+                        // 其他分片失败后不再继续处理
+                        return sliceTask.apply(new Iterator<T>() {
+                            @Override
+                            public boolean hasNext() {
+                                return !aborted.get() && iterator.hasNext();
+                            }
+
+                            @Override
+                            public T next() {
+                                return iterator.next();
+                            }
+                        }, true);
+                    }
+                }));
+            }
+            long count = 0;
+            for (Future<Long> future : futures) {
+                count += future.get();
+            }
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("export " + indexCoordinates.getIndexName() + " interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("export " + indexCoordinates.getIndexName() + " failed", e.getCause());
+        } finally {
+            aborted.set(true);
+            futures.forEach(future -> future.cancel(false));
+            SearchAfterIterator.closePointInTime(elasticsearchRestTemplate, pitId, searchStreamKeepAlive);
+        }
+    }
+
+    private int getNumberOfShards(Class<?> clazz, IndexCoordinates indexCoordinates) {
+        String shards = new MyRestIndexTemplate(elasticsearchRestTemplate, clazz)
+                .getIndexSettings(indexCoordinates, INDEX_NUMBER_OF_SHARDS).get(INDEX_NUMBER_OF_SHARDS);
+        return shards == null ? 1 : Integer.parseInt(shards);
+    }
+
+    /**
+     * 构建search_after逐页查询请求，排序最后追加_shard_doc保证排序值唯一
+     */
+    private SearchRequest buildSearchAfterRequest(Class<?> clazz, @Nullable QueryBuilder queryBuilder,
+                                                  @Nullable QueryBuilder filterBuilder, Sort sort,
+                                                  @Nullable String[] fields, int pageSize,
+                                                  IndexCoordinates indexCoordinates) {
+        Assert.isTrue(pageSize > 0, "pageSize must be greater than 0");
+        NativeSearchQuery query = buildSearchQuery(clazz, queryBuilder, filterBuilder, null,
+                PageRequest.of(0, pageSize, sort), fields, null).build();
+        query.setTrackTotalHits(false);
+        SearchRequest searchRequest = MyRequestFactory.searchRequest(elasticsearchRestTemplate, query, clazz,
+                indexCoordinates);
+        // point in time请求不能指定索引、routing，由打开point in time时指定
+        searchRequest.indices(Strings.EMPTY_ARRAY);
+        searchRequest.setCcsMinimizeRoundtrips(false);
+        searchRequest.source().sort(SortBuilders.fieldSort(SHARD_DOC_SORT_FIELD));
+        return searchRequest;
+    }
+
+    private String openPointInTime(IndexCoordinates indexCoordinates, @Nullable String routing) {
+        OpenPointInTimeRequest pitRequest = new OpenPointInTimeRequest(indexCoordinates.getIndexNames())
+                .keepAlive(searchStreamKeepAlive).routing(routing);
+        return elasticsearchRestTemplate.execute(
+                client -> client.openPointInTime(pitRequest, RequestOptions.DEFAULT)).getPointInTimeId();
+    }
+
+    private ExecutorService getExportExecutor() {
+        if (exportExecutor == null) {
+            synchronized (this) {
+                if (exportExecutor == null) {
+                    exportExecutor = newDaemonPool(exportParallelism, "my-es-export-");
+                }
+            }
+        }
+        return exportExecutor;
+    }
+
+    private ExecutorService getMultiGetExecutor() {
+        if (multiGetExecutor == null) {
+            synchronized (this) {
+                if (multiGetExecutor == null) {
+                    multiGetExecutor = newDaemonPool(multiGetParallelism, "my-es-mget-");
+                }
+            }
+        }
+        return multiGetExecutor;
+    }
+
+    private static ExecutorService newDaemonPool(int threads, String namePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, namePrefix + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    @Override
+    public <T> SearchHits<T> searchHasChild(Class<T> clazz, String childRelationName, QueryBuilder childQuery,
+                                            @Nullable Pageable pageable, boolean nonTenantMode) {
+        Assert.hasText(childRelationName, "childRelationName must not be empty");
+        Assert.notNull(childQuery, "childQuery must not be null");
+        return searchByFilter(clazz, JoinQueryBuilders.hasChildQuery(childRelationName, childQuery, ScoreMode.None),
+                pageable, nonTenantMode);
+    }
+
+    @Override
+    public <T> SearchHits<T> searchHasParent(Class<T> clazz, String parentRelationName, QueryBuilder parentQuery,
+                                             @Nullable Pageable pageable, boolean nonTenantMode) {
+        Assert.hasText(parentRelationName, "parentRelationName must not be empty");
+        Assert.notNull(parentQuery, "parentQuery must not be null");
+        return searchByFilter(clazz, JoinQueryBuilders.hasParentQuery(parentRelationName, parentQuery, false),
+                pageable, nonTenantMode);
+    }
+
+    @Override
+    public <T> SearchHits<T> searchByParentId(Class<T> clazz, String childRelationName, String parentId,
+                                              @Nullable Pageable pageable, boolean nonTenantMode) {
+        Assert.notNull(clazz, "searchByParentId clazz is null");
+        // 子文档未标注@EsRouting时按父文档ID路由写入，只查询父文档所在分片；否则路由值未知，查询所有分片
+        String routing = DocumentMetadataCache.get(clazz).hasRoutingField() ? null : parentId;
+        return searchByParentId(clazz, childRelationName, parentId, routing, pageable, nonTenantMode);
+    }
+
+    @Override
+    public <T> SearchHits<T> searchByParentId(Class<T> clazz, String childRelationName, String parentId,
+                                              @Nullable String routing, @Nullable Pageable pageable,
+                                              boolean nonTenantMode) {
+        Assert.hasText(childRelationName, "childRelationName must not be empty");
+        Assert.hasText(parentId, "parentId must not be empty");
+        MyEsSearchRequest request = new MyEsSearchRequest(null, JoinQueryBuilders.parentId(childRelationName, parentId),
+                pageable);
+        request.setRouting(routing);
+        return search(clazz, request, nonTenantMode);
     }
 
     public <T> SearchHits<T> search(Class<T> clazz, NativeSearchQueryBuilder queryBuilder) {
@@ -704,41 +1939,80 @@ public class MyEsServiceImpl implements MyEsService {
      * @param abstractAggregationBuilder 聚合查询Builder
      * @param pageable                   分页/排序; 分页从0开始
      * @param fields                     包含字段
+     * @param routing                    路由值，指定后只查询对应分片
+     * @param cacheable                  是否使用查询结果缓存
      * @param nonTenantMode              是否是租户模式，false表示非租户模式，即通用索引
      * @return
      */
     private <T> SearchHits<T> search(String indexName, Class<T> clazz, @Nullable QueryBuilder queryBuilder,
                                      @Nullable QueryBuilder filterBuilder,
                                      @Nullable AbstractAggregationBuilder abstractAggregationBuilder,
-                                     @Nullable Pageable pageable, @Nullable String[] fields, boolean nonTenantMode) {
+                                     @Nullable Pageable pageable, @Nullable String[] fields,
+                                     @Nullable String routing, boolean cacheable, boolean nonTenantMode) {
         if (StringUtils.isNotBlank(indexName)) {
-            // 查询的文档必须包含映射@Document的@Id字段（
-            BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery().must(
-                    QueryBuilders.existsQuery(EsReflectUtils.getDocumentIdFieldName(clazz)));
-            if (queryBuilder != null) {
-                boolQueryBuilder.must(queryBuilder);
-            }
-            NativeSearchQueryBuilder nativeSearchQueryBuilder = new NativeSearchQueryBuilder().withQuery(
-                    boolQueryBuilder);
-            if (filterBuilder != null) {
-                nativeSearchQueryBuilder.withFilter(filterBuilder);
+            NativeSearchQueryBuilder nativeSearchQueryBuilder = buildSearchQuery(clazz, queryBuilder, filterBuilder,
+                    abstractAggregationBuilder, pageable, fields, routing);
+            if (cacheable && searchResultCache.isEnabled()) {
+                return searchWithCache(clazz, nativeSearchQueryBuilder.build(),
+                        buildIndexCoordinates(clazz, nonTenantMode));
             }
-            if (abstractAggregationBuilder != null) {
-                nativeSearchQueryBuilder.withAggregations(abstractAggregationBuilder);
-            }
-            if (pageable != null) {
-                nativeSearchQueryBuilder.withPageable(pageable);
-            }
-            if (fields != null && fields.length > 0) {
-                nativeSearchQueryBuilder.withSourceFilter(new FetchSourceFilter(fields, null));
-                //nativeSearchQueryBuilder.withFields(fields);
-            }
-//            nativeSearchQueryBuilder.withSorts(SortBuilders.fieldSort("id").order(SortOrder.ASC));
             return search(clazz, nativeSearchQueryBuilder, nonTenantMode);
         }
         return null;
     }
 
+    /**
+     * 查询文档，先按渲染后的查询请求读取结果缓存，未命中查询es并写入缓存
+     */
+    private <T> SearchHits<T> searchWithCache(Class<T> clazz, NativeSearchQuery query,
+                                              IndexCoordinates indexCoordinates) {
+        String indexName = indexCoordinates.getIndexName();
+        SearchRequest searchRequest = MyRequestFactory.searchRequest(elasticsearchRestTemplate, query, clazz,
+                indexCoordinates);
+        String requestKey = SearchResultCache.keyOf(searchRequest);
+        SearchResponse response = searchResultCache.get(indexName, requestKey);
+        if (response == null) {
+            long version = searchResultCache.version(indexName);
+            response = elasticsearchRestTemplate.execute(
+                    client -> client.search(searchRequest, RequestOptions.DEFAULT));
+            searchResultCache.put(indexName, requestKey, response, version);
+        }
+        return MyRequestFactory.searchHits(elasticsearchRestTemplate, response, clazz, indexCoordinates);
+    }
+
+    private <T> NativeSearchQueryBuilder buildSearchQuery(Class<T> clazz, @Nullable QueryBuilder queryBuilder,
+                                                          @Nullable QueryBuilder filterBuilder,
+                                                          @Nullable AbstractAggregationBuilder abstractAggregationBuilder,
+                                                          @Nullable Pageable pageable, @Nullable String[] fields,
+                                                          @Nullable String routing) {
+        // 查询的文档必须包含映射@Document的@Id字段（
+        BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery().must(
+                QueryBuilders.existsQuery(DocumentMetadataCache.get(clazz).getIdFieldName()));
+        if (queryBuilder != null) {
+            boolQueryBuilder.must(queryBuilder);
+        }
+        NativeSearchQueryBuilder nativeSearchQueryBuilder = new NativeSearchQueryBuilder().withQuery(
+                boolQueryBuilder);
+        if (filterBuilder != null) {
+            nativeSearchQueryBuilder.withFilter(filterBuilder);
+        }
+        if (abstractAggregationBuilder != null) {
+            nativeSearchQueryBuilder.withAggregations(abstractAggregationBuilder);
+        }
+        if (pageable != null) {
+            nativeSearchQueryBuilder.withPageable(pageable);
+        }
+        if (fields != null && fields.length > 0) {
+            nativeSearchQueryBuilder.withSourceFilter(new FetchSourceFilter(fields, null));
+            //nativeSearchQueryBuilder.withFields(fields);
+        }
+        if (routing != null) {
+            nativeSearchQueryBuilder.withRoute(routing);
+        }
+//        nativeSearchQueryBuilder.withSorts(SortBuilders.fieldSort("id").order(SortOrder.ASC));
+        return nativeSearchQueryBuilder;
+    }
+
     @Override
     public String delIndexDoc(String id, Class<?> clazz) {
         return delIndexDoc(id, clazz, false);
@@ -746,7 +2020,32 @@ public class MyEsServiceImpl implements MyEsService {
 
     @Override
     public String delIndexDoc(String id, Class<?> clazz, boolean nonTenantMode) {
-        return elasticsearchRestTemplate.delete(id, buildIndexCoordinates(clazz, nonTenantMode));
+        return delIndexDoc(id, clazz, null, nonTenantMode);
+    }
+
+    @Override
+    public String delIndexDoc(String id, Class<?> clazz, @Nullable String routing, boolean nonTenantMode) {
+        IndexCoordinates indexCoordinates = buildIndexCoordinates(clazz, nonTenantMode);
+        try {
+            WriteSpool writeSpool = bulkDispatcher.getSpool();
+            if (writeSpool != null) {
+                return spoolOrWrite(writeSpool, new DeleteRequest(indexCoordinates.getIndexName(), id).routing(routing),
+                        () -> doDelete(id, routing, indexCoordinates));
+            }
+            return doDelete(id, routing, indexCoordinates);
+        } finally {
+            invalidateCache(indexCoordinates.getIndexName(), id);
+        }
+    }
+
+    private String doDelete(String id, @Nullable String routing, IndexCoordinates indexCoordinates) {
+        if (!indexMigrations.isMigrating(indexCoordinates.getIndexName())) {
+            return elasticsearchRestTemplate.delete(id, routing, indexCoordinates);
+        }
+        // 双写需要原索引返回的版本号
+        DeleteResponse response = MyRequestFactory.delete(elasticsearchRestTemplate, id, routing, indexCoordinates);
+        indexMigrations.replicate(new DeleteRequest(indexCoordinates.getIndexName(), id).routing(routing), response);
+        return response.getId();
     }
 
     @Override
@@ -756,12 +2055,12 @@ public class MyEsServiceImpl implements MyEsService {
 
     @Override
     public <T> String delIndexDoc(T model, boolean nonTenantMode) {
-        return delIndexDoc(EsReflectUtils.getDocumentIdValue(model), model.getClass(), nonTenantMode);
+        return delIndexDoc(getDocumentIdValue(model), model.getClass(), getRoutingValue(model), nonTenantMode);
     }
 
     /**
      * 根据ID批量删除
-     * 官方未提供根据id批量删除的，暂时就以循环删除的方式来操作，若有大批量操作存在性能问题考虑转为query delete方式
+     * 使用bulk delete，按条数自动拆分为多个bulk请求
      *
      * @param clazz
      * @param ids
@@ -774,7 +2073,7 @@ public class MyEsServiceImpl implements MyEsService {
 
     /**
      * 根据ID批量删除
-     * 官方未提供根据id批量删除的，暂时就以循环删除的方式来操作，若有大批量操作存在性能问题考虑转为query delete方式
+     * 使用bulk delete，按条数自动拆分为多个bulk请求，文档不存在不算失败，存在失败时抛出BulkFailureException
      *
      * @param clazz
      * @param ids
@@ -783,14 +2082,361 @@ public class MyEsServiceImpl implements MyEsService {
      */
     @Override
     public List<String> bulkDelIndexDoc(Class<?> clazz, List<String> ids, boolean nonTenantMode) {
+        return bulkDelIndexDoc(clazz, ids, null, nonTenantMode);
+    }
+
+    @Override
+    public List<String> bulkDelIndexDoc(Class<?> clazz, List<String> ids, @Nullable String routing,
+                                        boolean nonTenantMode) {
+        List<MyEsBulkItemResult> results = bulkDelIndexDocWithResult(clazz, ids, routing, nonTenantMode);
+        if (results == null) {
+            return null;
+        }
+        List<MyEsBulkItemResult> failures = new ArrayList<>();
+        List<String> delResultList = new ArrayList<>(results.size());
+        for (MyEsBulkItemResult result : results) {
+            if (result.isFailed()) {
+                failures.add(result);
+            } else {
+                delResultList.add(result.getId());
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new MyEsBulkFailureException(failures);
+        }
+        return delResultList;
+    }
+
+    @Override
+    public List<MyEsBulkItemResult> bulkDelIndexDocWithResult(Class<?> clazz, List<String> ids) {
+        return bulkDelIndexDocWithResult(clazz, ids, false);
+    }
+
+    /**
+     * 根据ID批量删除，返回每个ID的删除结果(DELETED/NOT_FOUND/FAILED)，与ids顺序一致
+     *
+     * @param clazz
+     * @param ids
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return
+     */
+    @Override
+    public List<MyEsBulkItemResult> bulkDelIndexDocWithResult(Class<?> clazz, List<String> ids, boolean nonTenantMode) {
+        return bulkDelIndexDocWithResult(clazz, ids, null, nonTenantMode);
+    }
+
+    @Override
+    public List<MyEsBulkItemResult> bulkDelIndexDocWithResult(Class<?> clazz, List<String> ids,
+                                                              @Nullable String routing, boolean nonTenantMode) {
         if (clazz == null || CollectionUtils.isEmpty(ids)) {
             return null;
         }
-        List delResutList = new ArrayList();
-        for (String id : ids) {
-            delResutList.add(elasticsearchRestTemplate.delete(id, buildIndexCoordinates(clazz, nonTenantMode)));
+        String index = buildIndexCoordinates(clazz, nonTenantMode).getIndexName();
+        List<BulkItemResponse> items = bulkDispatcher.dispatch(ids, id -> new DeleteRequest(index, id).routing(routing),
+                MyRequestFactory.refreshPolicy(elasticsearchRestTemplate));
+        return items.stream().map(MyEsBulkItemResult::of).collect(Collectors.toList());
+    }
+
+    @Override
+    public ByQueryResponse updateByQuery(Class<?> clazz, QueryBuilder queryBuilder, Script script) {
+        return updateByQuery(clazz, queryBuilder, script, null, false);
+    }
+
+    @Override
+    public ByQueryResponse updateByQuery(Class<?> clazz, QueryBuilder queryBuilder, Script script,
+                                         @Nullable MyEsByQueryOptions options, boolean nonTenantMode) {
+        UpdateByQueryRequest request = buildUpdateByQueryRequest(clazz, queryBuilder, script, options, nonTenantMode);
+        try {
+            return ResponseConverter.byQueryResponseOf(elasticsearchRestTemplate.execute(
+                    client -> client.updateByQuery(request, RequestOptions.DEFAULT)));
+        } finally {
+            invalidateIndexCache(request.indices());
+        }
+    }
+
+    @Override
+    public ByQueryResponse deleteByQuery(Class<?> clazz, QueryBuilder queryBuilder) {
+        return deleteByQuery(clazz, queryBuilder, null, false);
+    }
+
+    @Override
+    public ByQueryResponse deleteByQuery(Class<?> clazz, QueryBuilder queryBuilder, @Nullable MyEsByQueryOptions options,
+                                         boolean nonTenantMode) {
+        DeleteByQueryRequest request = buildDeleteByQueryRequest(clazz, queryBuilder, options, nonTenantMode);
+        try {
+            return ResponseConverter.byQueryResponseOf(elasticsearchRestTemplate.execute(
+                    client -> client.deleteByQuery(request, RequestOptions.DEFAULT)));
+        } finally {
+            invalidateIndexCache(request.indices());
+        }
+    }
+
+    @Override
+    public String submitUpdateByQuery(Class<?> clazz, QueryBuilder queryBuilder, Script script,
+                                      @Nullable MyEsByQueryOptions options, boolean nonTenantMode) {
+        UpdateByQueryRequest request = buildUpdateByQueryRequest(clazz, queryBuilder, script, options, nonTenantMode);
+        // 后台任务执行期间仍可能读到旧文档，只能等缓存过期
+        invalidateIndexCache(request.indices());
+        return elasticsearchRestTemplate.execute(
+                client -> client.submitUpdateByQueryTask(request, RequestOptions.DEFAULT)).getTask();
+    }
+
+    @Override
+    public String submitDeleteByQuery(Class<?> clazz, QueryBuilder queryBuilder, @Nullable MyEsByQueryOptions options,
+                                      boolean nonTenantMode) {
+        DeleteByQueryRequest request = buildDeleteByQueryRequest(clazz, queryBuilder, options, nonTenantMode);
+        // 后台任务执行期间仍可能读到旧文档，只能等缓存过期
+        invalidateIndexCache(request.indices());
+        return elasticsearchRestTemplate.execute(
+                client -> client.submitDeleteByQueryTask(request, RequestOptions.DEFAULT)).getTask();
+    }
+
+    @Override
+    public MyEsTaskStatus getTask(String taskId) {
+        Assert.hasText(taskId, "taskId is empty");
+        TaskId id = new TaskId(taskId);
+        GetTaskRequest request = new GetTaskRequest(id.getNodeId(), id.getId());
+        Optional<GetTaskResponse> response = elasticsearchRestTemplate.execute(
+                client -> client.tasks().get(request, RequestOptions.DEFAULT));
+        return response.map(MyEsTaskStatus::of).orElse(null);
+    }
+
+    /**
+     * 轮询等待后台任务完成，查询间隔从200毫秒开始逐次翻倍，最长5秒
+     *
+     * @param taskId  任务ID
+     * @param timeout 最长等待时间
+     * @param unit
+     * @return
+     */
+    @Override
+    public MyEsTaskStatus waitForTask(String taskId, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long interval = TASK_POLL_MIN_INTERVAL_MILLIS;
+        while (true) {
+            MyEsTaskStatus status = getTask(taskId);
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (status == null || status.isCompleted() || remaining <= 0) {
+                return status;
+            }
+            try {
+                Thread.sleep(Math.min(interval, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return status;
+            }
+            interval = Math.min(interval * 2, TASK_POLL_MAX_INTERVAL_MILLIS);
+        }
+    }
+
+    @Override
+    public String migrateIndex(Class<?> clazz) {
+        return migrateIndex(clazz, null, false);
+    }
+
+    /**
+     * 索引迁移，索引名作为别名，实际索引为索引名_v{n}：
+     *  1. 按类上的注解创建新版本索引，复制期间关闭刷新、副本数设为0
+     *  2. 开始双写，通过本服务写入原索引的文档同时写入新索引；刷新原索引，开始双写前已写入的文档对reindex可见
+     *  3. 提交reindex后台任务并等待完成，新索引中已存在的文档不会被覆盖
+     *  4. 复制期间被删除的文档在新索引中再删除一次，恢复配置并刷新
+     *  5. 原子切换别名到新索引，别名切换前读请求一直访问原索引
+     * 未迁移过的索引(与别名同名的实际索引)切换别名时会被删除，已迁移过的原版本索引保留，需确认后自行删除
+     * 双写只在当前服务实例内生效(包括MyEsBulkWriter、本地暂存重放的写入)，迁移期间需暂停其它实例的写入；
+     * 迁移中的索引拒绝updateByQuery、deleteByQuery；迁移失败时删除新索引，写入新索引失败时不切换别名
+     *
+     * @param clazz
+     * @param options       reindex切片、限流、批次大小参数，为null使用默认值；不支持maxDocs，迁移必须复制全部文档
+     * @param nonTenantMode 是否是租户模式，true表示非租户模式，即通用索引
+     * @return 新索引名
+     */
+    @Override
+    public String migrateIndex(Class<?> clazz, @Nullable MyEsByQueryOptions options, boolean nonTenantMode) {
+        Assert.notNull(clazz, "migrateIndex clazz is null");
+        Assert.isTrue(options == null || options.getMaxDocs() == null, "migrateIndex does not support maxDocs");
+        String alias = buildIndexCoordinates(clazz, nonTenantMode).getIndexName();
+        MyRestIndexTemplate esRestIndexTemplate = new MyRestIndexTemplate(elasticsearchRestTemplate, clazz);
+        Set<String> indices = esRestIndexTemplate.getAliasIndices(alias);
+        Assert.isTrue(indices.size() <= 1, "migrateIndex alias " + alias + " points to multiple indices " + indices);
+
+        String sourceIndex = null;
+        int version = 0;
+        if (!indices.isEmpty()) {
+            sourceIndex = indices.iterator().next();
+            version = parseIndexVersion(alias, sourceIndex);
+        } else if (elasticsearchRestTemplate.indexOps(IndexCoordinates.of(alias)).exists()) {
+            sourceIndex = alias;
+        }
+        String targetIndex = alias + INDEX_VERSION_SEPARATOR + (version + 1);
+        IndexCoordinates targetCoordinates = IndexCoordinates.of(targetIndex);
+
+        Settings settings = esRestIndexTemplate.createSettings().flatten();
+        Map<String, Object> original = new HashMap<>();
+        original.put(INDEX_REFRESH_INTERVAL, settings.get(INDEX_REFRESH_INTERVAL));
+        original.put(INDEX_NUMBER_OF_REPLICAS, settings.get(INDEX_NUMBER_OF_REPLICAS));
+        if (sourceIndex != null) {
+            settings.put(INDEX_REFRESH_INTERVAL, "-1");
+            settings.put(INDEX_NUMBER_OF_REPLICAS, 0);
+        }
+        esRestIndexTemplate.doCreate(targetCoordinates, settings, esRestIndexTemplate.createMapping());
+        if (sourceIndex == null) {
+            esRestIndexTemplate.swapAlias(alias, null, targetIndex, false);
+            indexStateCache.markExist(alias);
+            return targetIndex;
+        }
+
+        indexMigrations.start(alias, targetIndex);
+        try {
+            // 开始双写前已确认但未刷新的写入对reindex不可见，也不会双写
+            esRestIndexTemplate.doRefresh(IndexCoordinates.of(sourceIndex));
+            reindex(sourceIndex, targetIndex, options);
+            List<BulkItemResponse> items = bulkDispatcher.dispatch(indexMigrations.getDeleteRequests(alias),
+                    Function.identity(), (WriteRequest.RefreshPolicy) null);
+            for (BulkItemResponse item : items) {
+                // 版本冲突为删除后又写入的文档，不再删除
+                Assert.state(!item.isFailed() || item.status() == RestStatus.CONFLICT, () -> "migrateIndex delete "
+                        + item.getId() + " from " + targetIndex + " failed: " + item.getFailureMessage());
+            }
+            esRestIndexTemplate.updateIndexSettings(targetCoordinates, original);
+            esRestIndexTemplate.doRefresh(targetCoordinates);
+            indexMigrations.checkReplicated(alias);
+            esRestIndexTemplate.swapAlias(alias, sourceIndex, targetIndex, alias.equals(sourceIndex));
+        } catch (RuntimeException e) {
+            // 删除未切换的新索引，下次迁移重新创建
+            try {
+                elasticsearchRestTemplate.indexOps(targetCoordinates).delete();
+            } catch (RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        } finally {
+            indexMigrations.finish(alias);
+        }
+        indexStateCache.invalidate(alias);
+        invalidateIndexCache(alias);
+        return targetIndex;
+    }
+
+    /**
+     * 以后台任务执行reindex并等待完成，复制全部文档，已存在的文档跳过(双写的数据比复制的数据新)
+     */
+    private void reindex(String sourceIndex, String targetIndex, @Nullable MyEsByQueryOptions options) {
+        options = options == null ? MyEsByQueryOptions.defaultOptions() : options;
+        ReindexRequest request = new ReindexRequest().setSourceIndices(sourceIndex).setDestIndex(targetIndex)
+                .setDestOpType("create").setAbortOnVersionConflict(false).setSlices(options.getSlices());
+        if (options.getRequestsPerSecond() != null) {
+            request.setRequestsPerSecond(options.getRequestsPerSecond());
+        }
+        if (options.getBatchSize() != null) {
+            request.setSourceBatchSize(options.getBatchSize());
+        }
+        String taskId = elasticsearchRestTemplate.execute(
+                client -> client.submitReindexTask(request, RequestOptions.DEFAULT)).getTask();
+        MyEsTaskStatus status;
+        do {
+            status = waitForTask(taskId, 1, TimeUnit.HOURS);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("migrateIndex interrupted, reindex task " + taskId);
+            }
+        } while (status != null && !status.isCompleted());
+        // 任务结果中不含失败明细，复制条数(包括跳过的已存在文档)少于总数视为失败
+        if (status == null || status.isCancelled() || status.getCreated() + status.getVersionConflicts() < status.getTotal()) {
+            throw new IllegalStateException("migrateIndex reindex " + sourceIndex + " to " + targetIndex
+                    + " failed: " + (status == null ? "task not found" : status));
+        }
+    }
+
+    @Override
+    public MyEsSpoolStats getSpoolStats() {
+        WriteSpool writeSpool = bulkDispatcher.getSpool();
+        return writeSpool == null ? null : writeSpool.getStats();
+    }
+
+    @Override
+    public MyEsNearCacheStats getNearCacheStats() {
+        return nearCache.getStats();
+    }
+
+    /**
+     * 文档写入后失效文档缓存及所在索引的查询结果缓存
+     */
+    private void invalidateCache(String indexName, @Nullable String id) {
+        nearCache.invalidate(indexName, id);
+        searchResultCache.invalidateIndex(indexName);
+    }
+
+    /**
+     * 按条件更新、删除或重建索引后失效索引下全部缓存
+     */
+    private void invalidateIndexCache(String... indices) {
+        for (String index : indices) {
+            nearCache.invalidateIndex(index);
+            searchResultCache.invalidateIndex(index);
+        }
+    }
+
+    private static int parseIndexVersion(String alias, String index) {
+        String prefix = alias + INDEX_VERSION_SEPARATOR;
+        if (index.startsWith(prefix)) {
+            try {
+                return Integer.parseInt(index.substring(prefix.length()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        throw new IllegalStateException("migrateIndex alias " + alias + " points to unversioned index " + index);
+    }
+
+    private UpdateByQueryRequest buildUpdateByQueryRequest(Class<?> clazz, QueryBuilder queryBuilder, Script script,
+                                                           @Nullable MyEsByQueryOptions options,
+                                                           boolean nonTenantMode) {
+        Assert.notNull(clazz, "updateByQuery clazz is null");
+        Assert.notNull(queryBuilder, "updateByQuery queryBuilder is null");
+        Assert.notNull(script, "updateByQuery script is null");
+        UpdateByQueryRequest request = new UpdateByQueryRequest(buildIndexCoordinates(clazz, nonTenantMode).getIndexNames());
+        checkNotMigrating(request.indices());
+        request.setQuery(queryBuilder);
+        request.setScript(script);
+        applyByQueryOptions(request, options);
+        return request;
+    }
+
+    private DeleteByQueryRequest buildDeleteByQueryRequest(Class<?> clazz, QueryBuilder queryBuilder,
+                                                           @Nullable MyEsByQueryOptions options,
+                                                           boolean nonTenantMode) {
+        Assert.notNull(clazz, "deleteByQuery clazz is null");
+        Assert.notNull(queryBuilder, "deleteByQuery queryBuilder is null");
+        DeleteByQueryRequest request = new DeleteByQueryRequest(buildIndexCoordinates(clazz, nonTenantMode).getIndexNames());
+        checkNotMigrating(request.indices());
+        request.setQuery(queryBuilder);
+        applyByQueryOptions(request, options);
+        return request;
+    }
+
+    /**
+     * 按条件更新、删除无法双写，迁移中的索引拒绝执行
+     */
+    private void checkNotMigrating(String... indices) {
+        for (String index : indices) {
+            if (indexMigrations.isMigrating(index)) {
+                throw new IllegalStateException("index " + index + " is migrating, byQuery request is rejected");
+            }
+        }
+    }
+
+    private void applyByQueryOptions(AbstractBulkByScrollRequest<?> request, @Nullable MyEsByQueryOptions options) {
+        options = options == null ? MyEsByQueryOptions.defaultOptions() : options;
+        request.setSlices(options.getSlices());
+        request.setAbortOnVersionConflict(options.isAbortOnVersionConflict());
+        request.setRefresh(options.isRefresh());
+        if (options.getRequestsPerSecond() != null) {
+            request.setRequestsPerSecond(options.getRequestsPerSecond());
+        }
+        if (options.getBatchSize() != null) {
+            request.getSearchRequest().source().size(options.getBatchSize());
+        }
+        if (options.getMaxDocs() != null) {
+            request.setMaxDocs(options.getMaxDocs());
         }
-        return delResutList;
     }
 
 }
@@ -0,0 +1,140 @@
+package com.my.elasticsearch.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 文档并行序列化
+ *
+ *  按窗口从文档迭代器中取出一批文档，在独立的ForkJoinPool中并行转换为写入请求，转换结果保持原始顺序；
+ *  同一时刻内存中只保留一个窗口的转换结果
+ *
+ * @authro nantian
+ * @date 2022-11-10 14:12
+ */
+class ParallelSerializer {
+    private final int parallelism;
+    private final int threshold;
+    private volatile ForkJoinPool pool;
+    private volatile boolean closed;
+
+    /**
+     * @param parallelism 并行线程数
+     * @param threshold   文档条数达到该值才并行，小于该值在调用线程中顺序转换
+     */
+    ParallelSerializer(int parallelism, int threshold) {
+        this.parallelism = parallelism;
+        this.threshold = Math.max(threshold, 1);
+    }
+
+    /**
+     * 文档条数是否达到并行阈值
+     *
+     * @param size 文档条数
+     * @return
+     */
+    boolean accept(int size) {
+        return size >= threshold;
+    }
+
+    /**
+     * 并行转换，返回的迭代器按原始顺序输出结果
+     *
+     * @param docs      文档
+     * @param converter 文档转换，需线程安全
+     * @param window    每次并行转换的文档条数，小于阈值时按阈值
+     * @return
+     */
+    <T, R> Iterator<R> map(Iterator<T> docs, Function<? super T, ? extends R> converter, int window) {
+        int windowSize = Math.max(window, threshold);
+        return new Iterator<R>() {
+            private Iterator<? extends R> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                if (!current.hasNext() && docs.hasNext()) {
+                    List<T> batch = new ArrayList<>(windowSize);
+                    while (batch.size() < windowSize && docs.hasNext()) {
+                        batch.add(docs.next());
+                    }
+                    current = convert(batch, converter).iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public R next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    /**
+     * 关闭线程池，已提交的转换继续完成，之后的转换在调用线程中顺序执行
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private <T, R> List<R> convert(List<T> batch, Function<? super T, ? extends R> converter) {
+        ForkJoinPool forkJoinPool = getPool();
+        if (forkJoinPool == null) {
+            return sequential(batch, converter);
+        }
+        try {
+            // parallelStream在ForkJoinPool任务中执行时使用该pool，不占用commonPool
+            return forkJoinPool.submit(() -> batch.parallelStream().<R>map(converter).collect(Collectors.toList()))
+                    .get();
+        } catch (RejectedExecutionException e) {
+            // 转换过程中被替换并关闭
+            return sequential(batch, converter);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("bulk serialize interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static <T, R> List<R> sequential(List<T> batch, Function<? super T, ? extends R> converter) {
+        return batch.stream().<R>map(converter).collect(Collectors.toList());
+    }
+
+    private ForkJoinPool getPool() {
+        if (pool == null && !closed) {
+            synchronized (this) {
+                if (pool == null && !closed) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                        thread.setName("my-es-serialize-" + threadNumber.incrementAndGet());
+                        return thread;
+                    }, null, false);
+                }
+            }
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,137 @@
+package com.my.elasticsearch.impl;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import com.my.elasticsearch.util.EsLog;
+import org.elasticsearch.action.search.ClosePointInTimeRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+
+/**
+ * 基于point in time + search_after的深度分页迭代
+ *
+ *  每次只拉取一页，使用上一页最后一条的排序值请求下一页，内存和每页耗时不随翻页深度增长；
+ *  数据读取完或出现异常时自动关闭point in time，未读完需调用close。分片(slice)并行读取时多个迭代器共用
+ *  一个point in time，由调用方统一关闭
+ *
+ * @authro nantian
+ * @date 2022-11-18 15:10
+ */
+class SearchAfterIterator<T> implements Iterator<T>, Closeable {
+    private final ElasticsearchRestTemplate elasticsearchRestTemplate;
+    private final SearchRequest searchRequest;
+    private final Function<SearchHit, T> hitMapper;
+    private final TimeValue keepAlive;
+    private final boolean closePointInTime;
+    private String pitId;
+    private Iterator<SearchHit> hits = Collections.emptyIterator();
+    private Object[] searchAfter;
+    private boolean lastPage;
+    private boolean closed;
+
+    /**
+     * @param searchRequest 不含索引、routing的查询请求，size为每页条数，排序需包含唯一的排序字段
+     * @param hitMapper     查询结果转换，如转换为文档对象
+     * @param pitId         已打开的point in time
+     * @param keepAlive     每次请求后point in time的保留时间
+     */
+    SearchAfterIterator(ElasticsearchRestTemplate elasticsearchRestTemplate, SearchRequest searchRequest,
+                        Function<SearchHit, T> hitMapper, String pitId, TimeValue keepAlive) {
+        this(elasticsearchRestTemplate, searchRequest, hitMapper, pitId, keepAlive, true);
+    }
+
+    /**
+     * @param closePointInTime 迭代结束时是否关闭point in time，共用point in time时为false
+     */
+    SearchAfterIterator(ElasticsearchRestTemplate elasticsearchRestTemplate, SearchRequest searchRequest,
+                        Function<SearchHit, T> hitMapper, String pitId, TimeValue keepAlive,
+                        boolean closePointInTime) {
+        this.elasticsearchRestTemplate = elasticsearchRestTemplate;
+        this.searchRequest = searchRequest;
+        this.hitMapper = hitMapper;
+        this.pitId = pitId;
+        this.keepAlive = keepAlive;
+        this.closePointInTime = closePointInTime;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!hits.hasNext()) {
+            if (lastPage || closed) {
+                close();
+                return false;
+            }
+            fetch();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return hitMapper.apply(hits.next());
+    }
+
+    private void fetch() {
+        SearchSourceBuilder source = searchRequest.source();
+        source.pointInTimeBuilder(new PointInTimeBuilder(pitId).setKeepAlive(keepAlive));
+        if (searchAfter != null) {
+            source.searchAfter(searchAfter);
+        }
+        SearchResponse response;
+        try {
+            response = elasticsearchRestTemplate.execute(client -> client.search(searchRequest, RequestOptions.DEFAULT));
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        // 每次返回的point in time id可能变化，后续请求需使用最新的
+        if (response.pointInTimeId() != null) {
+            pitId = response.pointInTimeId();
+        }
+        SearchHit[] page = response.getHits().getHits();
+        lastPage = page.length < source.size();
+        if (page.length > 0) {
+            searchAfter = page[page.length - 1].getSortValues();
+        }
+        hits = Arrays.asList(page).iterator();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        hits = Collections.emptyIterator();
+        if (closePointInTime) {
+            closePointInTime(elasticsearchRestTemplate, pitId, keepAlive);
+        }
+    }
+
+    /**
+     * 关闭point in time，失败只打印日志，point in time会在保留时间后自动过期
+     */
+    static void closePointInTime(ElasticsearchRestTemplate elasticsearchRestTemplate, String pitId,
+                                 TimeValue keepAlive) {
+        try {
+            elasticsearchRestTemplate.execute(
+                    client -> client.closePointInTime(new ClosePointInTimeRequest(pitId), RequestOptions.DEFAULT));
+        } catch (RuntimeException e) {
+            EsLog.warn("close point in time failed, it will expire after " + keepAlive, e);
+        }
+    }
+}
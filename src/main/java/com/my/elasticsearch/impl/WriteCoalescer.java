@@ -0,0 +1,238 @@
+package com.my.elasticsearch.impl;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.my.elasticsearch.util.EsLog;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.xcontent.XContentType;
+
+/**
+ * 同一文档写入合并
+ *
+ *  在合并窗口内按(索引, 文档ID, routing)暂存写入请求，窗口结束或暂存条数达到上限时发送给下游：
+ *  index覆盖之前的任何操作；delete覆盖之前的任何操作；update与之前的index、update按字段合并(对象字段逐层合并，与es partial update一致)；
+ *  update之前为delete时先发送delete再暂存update，保证执行顺序。
+ *  待发送的请求在锁内按顺序放入发送队列，释放锁后再发送，下游阻塞时不影响其它线程暂存
+ *
+ * @authro nantian
+ * @date 2022-11-14 16:30
+ */
+class WriteCoalescer {
+    /**
+     * 未指定时暂存条数上限
+     */
+    static final int DEFAULT_MAX_PENDING = 10000;
+
+    private final Consumer<DocWriteRequest<?>> downstream;
+    private final ObjectMapper objectMapper;
+    private final int maxPending;
+    private final Map<Key, DocWriteRequest<?>> pending = new LinkedHashMap<>();
+    /**
+     * 待发送的批次，在pending锁内按顺序加入
+     */
+    private final Deque<List<DocWriteRequest<?>>> ready = new ArrayDeque<>();
+    /**
+     * 按队列顺序发送，同一时间只有一个线程向下游发送
+     */
+    private final Object sendLock = new Object();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param downstream   合并后的请求发送
+     * @param objectMapper 合并文档时解析、序列化json
+     * @param windowMillis 合并窗口(毫秒)
+     * @param maxPending   暂存条数达到该值时立即发送，小于等于0使用DEFAULT_MAX_PENDING
+     */
+    WriteCoalescer(Consumer<DocWriteRequest<?>> downstream, ObjectMapper objectMapper, long windowMillis,
+                   int maxPending) {
+        this.downstream = downstream;
+        this.objectMapper = objectMapper;
+        this.maxPending = maxPending > 0 ? maxPending : DEFAULT_MAX_PENDING;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "my-es-coalesce");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::drainQuietly, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void add(DocWriteRequest<?> request) {
+        if (request.id() == null) {
+            downstream.accept(request);
+            return;
+        }
+        boolean send = false;
+        synchronized (pending) {
+            Key key = new Key(request.index(), request.id(), request.routing());
+            DocWriteRequest<?> previous = pending.get(key);
+            if (previous == null || !(request instanceof UpdateRequest)) {
+                pending.put(key, request);
+            } else if (!merge(previous, (UpdateRequest) request)) {
+                // 无法合并时之前的请求先进入发送队列，保证同一文档的执行顺序
+                ready.addLast(Collections.singletonList(previous));
+                pending.put(key, request);
+                send = true;
+            }
+            if (pending.size() >= maxPending) {
+                enqueuePending();
+                send = true;
+            }
+        }
+        if (send) {
+            send();
+        }
+    }
+
+    /**
+     * 发送所有暂存请求
+     */
+    void drain() {
+        synchronized (pending) {
+            enqueuePending();
+        }
+        send();
+    }
+
+    private void enqueuePending() {
+        if (!pending.isEmpty()) {
+            ready.addLast(new ArrayList<>(pending.values()));
+            pending.clear();
+        }
+    }
+
+    /**
+     * 在pending锁外按队列顺序发送，其它线程正在发送时等待，形成背压
+     */
+    private void send() {
+        synchronized (sendLock) {
+            while (true) {
+                List<DocWriteRequest<?>> batch;
+                synchronized (pending) {
+                    batch = ready.pollFirst();
+                }
+                if (batch == null) {
+                    return;
+                }
+                batch.forEach(downstream);
+            }
+        }
+    }
+
+    /**
+     * 停止定时发送并发送所有暂存请求
+     */
+    void close() {
+        scheduler.shutdown();
+        drain();
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (Exception e) {
+            EsLog.warn("MyEsBulkWriter coalesce drain failed", e);
+        }
+    }
+
+    /**
+     * 把update合并到暂存请求中
+     *
+     * @return 无法合并返回false
+     */
+    private boolean merge(DocWriteRequest<?> previous, UpdateRequest update) {
+        if (previous instanceof DeleteRequest || update.doc() == null || update.script() != null) {
+            return false;
+        }
+        try {
+            if (previous instanceof IndexRequest) {
+                IndexRequest indexRequest = (IndexRequest) previous;
+                indexRequest.source(mergeSource(indexRequest.source(), update.doc().source()), XContentType.JSON);
+                return true;
+            }
+            UpdateRequest previousUpdate = (UpdateRequest) previous;
+            if (previousUpdate.doc() == null || previousUpdate.script() != null) {
+                return false;
+            }
+            previousUpdate.doc(mergeSource(previousUpdate.doc().source(), update.doc().source()), XContentType.JSON);
+            if (update.docAsUpsert()) {
+                previousUpdate.docAsUpsert(true);
+            }
+            return true;
+        } catch (IOException e) {
+            EsLog.warn("MyEsBulkWriter coalesce merge failed, send separately", e);
+            return false;
+        }
+    }
+
+    private byte[] mergeSource(BytesReference target, BytesReference update) throws IOException {
+        JsonNode targetNode = objectMapper.readTree(BytesReference.toBytes(target));
+        JsonNode updateNode = objectMapper.readTree(BytesReference.toBytes(update));
+        if (!targetNode.isObject() || !updateNode.isObject()) {
+            throw new IOException("document source is not json object");
+        }
+        deepMerge((ObjectNode) targetNode, (ObjectNode) updateNode);
+        return objectMapper.writeValueAsBytes(targetNode);
+    }
+
+    private static void deepMerge(ObjectNode target, ObjectNode update) {
+        Iterator<Map.Entry<String, JsonNode>> fields = update.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode current = target.get(field.getKey());
+            if (current != null && current.isObject() && field.getValue().isObject()) {
+                deepMerge((ObjectNode) current, (ObjectNode) field.getValue());
+            } else {
+                target.set(field.getKey(), field.getValue());
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String index;
+        private final String id;
+        private final String routing;
+
+        private Key(String index, String id, String routing) {
+            this.index = index;
+            this.id = id;
+            this.routing = routing;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return index.equals(key.index) && id.equals(key.id) && Objects.equals(routing, key.routing);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(index, id, routing);
+        }
+    }
+}
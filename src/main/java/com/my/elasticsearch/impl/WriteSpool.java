@@ -0,0 +1,703 @@
+package com.my.elasticsearch.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.my.elasticsearch.model.MyEsSpoolStats;
+import com.my.elasticsearch.util.EsExceptionUtil;
+import com.my.elasticsearch.util.EsLog;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.common.UUIDs;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.index.shard.ShardId;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
+import org.springframework.lang.Nullable;
+
+/**
+ * 本地写入暂存
+ *
+ *  es不可用时写入请求追加到本地暂存文件，es恢复(ping成功)后按写入顺序分批重放；
+ *  暂存中有待重放的数据时，新的写入同样追加到暂存，保证同一文档的写入顺序。
+ *  暂存文件按大小滚动，一次追加的记录写入同一文件，每条记录为[长度][crc32][请求]，重放时使用内存映射读取，
+ *  重放进度保存在checkpoint文件中，文件全部重放后删除；进程重启后从checkpoint继续重放(同一批可能重复发送)。
+ *  无法解析的记录、校验失败之后无法确定边界的数据复制到quarantine文件后跳过，计为丢弃，不阻塞之后的重放。
+ *  重放请求经过BulkDispatcher的beforeBulk、afterBulk，与直接写入一样双写迁移中的索引并失效缓存
+ *
+ * @authro nantian
+ * @date 2022-11-17 11:20
+ */
+class WriteSpool {
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String QUARANTINE_PREFIX = "quarantine-";
+    private static final String QUARANTINE_SUFFIX = ".bad";
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private final ElasticsearchRestTemplate elasticsearchRestTemplate;
+    private final Path directory;
+    private final long segmentBytes;
+    private final int replayBatchSize;
+    private final Object lock = new Object();
+    /**
+     * 文件序号 -> 文件大小，第一个为正在重放的文件，最后一个为正在写入的文件
+     */
+    private final TreeMap<Long, Long> segments = new TreeMap<>();
+    private final ScheduledExecutorService scheduler;
+    @Nullable
+    private volatile BulkDispatcher dispatcher;
+
+    private FileChannel writeChannel;
+    private boolean closed;
+    private long writeSegment;
+    private long readSegment;
+    private long readPosition;
+    private long pendingRecords;
+    private long spooledTotal;
+    private long replayedTotal;
+    private long droppedTotal;
+    private long stuckReplays;
+    private volatile long lastReplayTime;
+    private volatile String lastReplayError;
+
+    /**
+     * @param elasticsearchRestTemplate
+     * @param directory             暂存目录，不存在时自动创建
+     * @param segmentBytes          单个暂存文件大小上限，超过后写入新文件
+     * @param replayBatchSize       重放时每个bulk请求的条数
+     * @param replayIntervalSeconds 检查es是否恢复的间隔(秒)
+     */
+    WriteSpool(ElasticsearchRestTemplate elasticsearchRestTemplate, String directory, long segmentBytes,
+               int replayBatchSize, long replayIntervalSeconds) {
+        this.elasticsearchRestTemplate = elasticsearchRestTemplate;
+        this.directory = Paths.get(directory);
+        this.segmentBytes = Math.max(segmentBytes, 1024 * 1024);
+        this.replayBatchSize = Math.max(replayBatchSize, 1);
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("write spool init failed: " + directory, e);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "my-es-spool-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(replayIntervalSeconds, 1);
+        this.scheduler.scheduleWithFixedDelay(this::replayQuietly, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 设置重放时回调的BulkDispatcher，由BulkDispatcher.setSpool调用
+     *
+     * @param dispatcher
+     */
+    void setDispatcher(@Nullable BulkDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * 停止重放并关闭写入文件，未重放的数据保留在暂存目录，下次启动后继续重放
+     */
+    void close() {
+        scheduler.shutdown();
+        synchronized (lock) {
+            closed = true;
+            if (writeChannel != null) {
+                try {
+                    writeChannel.close();
+                } catch (IOException e) {
+                    EsLog.warn("write spool close failed: " + directory, e);
+                }
+                writeChannel = null;
+            }
+        }
+    }
+
+    /**
+     * 暂存中有待重放的数据时追加到暂存
+     *
+     * @param requests
+     * @return 是否已追加
+     */
+    boolean appendIfPending(List<? extends DocWriteRequest<?>> requests) {
+        synchronized (lock) {
+            if (pendingRecords == 0) {
+                return false;
+            }
+            append(requests);
+            return true;
+        }
+    }
+
+    /**
+     * 追加到暂存，写入后刷盘；写入失败时截断本次写入的部分，不会重放未返回成功的记录
+     *
+     * @param requests
+     */
+    void append(List<? extends DocWriteRequest<?>> requests) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("write spool closed: " + directory);
+            }
+            if (requests.isEmpty()) {
+                return;
+            }
+            try {
+                List<byte[]> payloads = new ArrayList<>(requests.size());
+                long bytes = 0;
+                for (DocWriteRequest<?> request : requests) {
+                    if (request instanceof IndexRequest && request.id() == null) {
+                        // 重放时可能重复发送，提前生成ID避免产生重复文档
+                        ((IndexRequest) request).id(UUIDs.base64UUID());
+                    }
+                    byte[] payload = serialize(request);
+                    payloads.add(payload);
+                    bytes += RECORD_HEADER_BYTES + payload.length;
+                }
+                long size = segments.getOrDefault(writeSegment, 0L);
+                if (writeChannel == null || (size > 0 && size + bytes > segmentBytes)) {
+                    rollSegment();
+                    size = 0;
+                }
+                try {
+                    for (byte[] payload : payloads) {
+                        write(payload);
+                    }
+                    writeChannel.force(false);
+                } catch (IOException e) {
+                    try {
+                        truncate(writeSegment, size);
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                    throw e;
+                }
+                segments.put(writeSegment, size + bytes);
+                pendingRecords += requests.size();
+                spooledTotal += requests.size();
+            } catch (IOException e) {
+                throw new UncheckedIOException("write spool append failed", e);
+            }
+        }
+    }
+
+    MyEsSpoolStats getStats() {
+        MyEsSpoolStats stats = new MyEsSpoolStats();
+        synchronized (lock) {
+            stats.setPendingRecords(pendingRecords);
+            stats.setPendingBytes(segments.values().stream().mapToLong(Long::longValue).sum() - readPosition);
+            stats.setSegments(segments.size());
+            stats.setSpooledTotal(spooledTotal);
+            stats.setReplayedTotal(replayedTotal);
+            stats.setDroppedTotal(droppedTotal);
+            stats.setStuckReplays(stuckReplays);
+        }
+        stats.setLastReplayTime(lastReplayTime);
+        stats.setLastReplayError(lastReplayError);
+        return stats;
+    }
+
+    /**
+     * 构建已暂存的bulk结果，seqNo、version为未分配
+     *
+     * @param bulkRequest
+     * @return
+     */
+    static BulkResponse spooledResponse(BulkRequest bulkRequest) {
+        List<DocWriteRequest<?>> requests = bulkRequest.requests();
+        BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+        for (int i = 0; i < items.length; i++) {
+            DocWriteRequest<?> request = requests.get(i);
+            items[i] = BulkItemResponse.success(i, request.opType(), spooledResponse(request));
+        }
+        return new BulkResponse(items, 0);
+    }
+
+    /**
+     * 是否为spooledResponse构建的已暂存结果
+     *
+     * @param item
+     * @return
+     */
+    static boolean isSpooled(BulkItemResponse item) {
+        return !item.isFailed() && item.getResponse().getSeqNo() == SequenceNumbers.UNASSIGNED_SEQ_NO;
+    }
+
+    private static DocWriteResponse spooledResponse(DocWriteRequest<?> request) {
+        ShardId shardId = new ShardId(request.index(), "_na_", -1);
+        String id = request.id() == null ? "" : request.id();
+        long seqNo = SequenceNumbers.UNASSIGNED_SEQ_NO;
+        long primaryTerm = SequenceNumbers.UNASSIGNED_PRIMARY_TERM;
+        switch (request.opType()) {
+            case DELETE:
+                return new DeleteResponse(shardId, "_doc", id, seqNo, primaryTerm, Versions.MATCH_ANY, true);
+            case UPDATE:
+                return new UpdateResponse(shardId, "_doc", id, seqNo, primaryTerm, Versions.MATCH_ANY,
+                        DocWriteResponse.Result.UPDATED);
+            default:
+                return new IndexResponse(shardId, "_doc", id, seqNo, primaryTerm, Versions.MATCH_ANY, true);
+        }
+    }
+
+    private void replayQuietly() {
+        try {
+            replay();
+        } catch (Exception e) {
+            lastReplayError = e.toString();
+            EsLog.warn("write spool replay failed", e);
+        }
+    }
+
+    /**
+     * es恢复后按顺序分批重放，被拒绝(429)或es再次不可用时停止，等待下次检查；
+     * 整个请求因请求本身错误(400、413等)失败时减半批次重试，单条仍失败时丢弃该条
+     */
+    void replay() throws IOException {
+        long progress = progress();
+        try {
+            doReplay();
+        } finally {
+            synchronized (lock) {
+                stuckReplays = pendingRecords > 0 && replayedTotal + droppedTotal == progress ? stuckReplays + 1 : 0;
+            }
+        }
+    }
+
+    private void doReplay() throws IOException {
+        if (pendingRecords() == 0 || !ping()) {
+            return;
+        }
+        int batchSize = replayBatchSize;
+        while (true) {
+            Batch batch = readBatch(batchSize);
+            if (batch == null) {
+                lastReplayError = null;
+                return;
+            }
+            BulkRequest bulkRequest = new BulkRequest();
+            batch.requests.forEach(bulkRequest::add);
+            BulkDispatcher bulkDispatcher = this.dispatcher;
+            if (bulkDispatcher != null) {
+                bulkDispatcher.beforeBulk(bulkRequest);
+            }
+            BulkResponse response = null;
+            try {
+                response = send(bulkRequest);
+            } catch (RuntimeException e) {
+                lastReplayError = e.toString();
+                if (EsExceptionUtil.isUnavailable(e) || EsExceptionUtil.isRejected(e)) {
+                    return;
+                }
+                if (!EsExceptionUtil.isBadRequest(e)) {
+                    throw e;
+                }
+                if (batch.requests.size() > 1) {
+                    batchSize = batch.requests.size() / 2;
+                    continue;
+                }
+                DocWriteRequest<?> request = batch.requests.get(0);
+                EsLog.warn("write spool replay dropped " + request.opType() + " " + request.index() + "/"
+                        + request.id(), e);
+                commit(batch, 1, 1);
+                batchSize = replayBatchSize;
+                continue;
+            } finally {
+                if (bulkDispatcher != null) {
+                    bulkDispatcher.afterBulk(bulkRequest, response);
+                }
+            }
+            lastReplayTime = System.currentTimeMillis();
+
+            // 只提交第一条被拒绝的记录之前的部分
+            BulkItemResponse[] items = response.getItems();
+            int count = 0;
+            int dropped = 0;
+            while (count < items.length && !EsExceptionUtil.isRejected(items[count])) {
+                if (items[count].isFailed()) {
+                    dropped++;
+                    EsLog.warn("write spool replay dropped " + items[count].getOpType() + " " + items[count].getIndex()
+                            + "/" + items[count].getId() + ": " + items[count].getFailureMessage());
+                }
+                count++;
+            }
+            commit(batch, count, dropped);
+            if (count < items.length) {
+                lastReplayError = "es rejected, " + pendingRecords() + " records pending";
+                return;
+            }
+        }
+    }
+
+    /**
+     * 发送重放的bulk请求
+     */
+    BulkResponse send(BulkRequest bulkRequest) {
+        return elasticsearchRestTemplate.execute(client -> client.bulk(bulkRequest, RequestOptions.DEFAULT));
+    }
+
+    private long progress() {
+        synchronized (lock) {
+            return replayedTotal + droppedTotal;
+        }
+    }
+
+    private long pendingRecords() {
+        synchronized (lock) {
+            return pendingRecords;
+        }
+    }
+
+    boolean ping() {
+        try {
+            return elasticsearchRestTemplate.execute(client -> client.ping(RequestOptions.DEFAULT));
+        } catch (RuntimeException e) {
+            lastReplayError = e.toString();
+            return false;
+        }
+    }
+
+    /**
+     * 从重放位置读取一批记录，只在同一个文件内读取；
+     * 第一条记录无法解析时隔离并跳过，校验失败时隔离文件剩余部分
+     */
+    private Batch readBatch(int batchSize) throws IOException {
+        synchronized (lock) {
+            while (true) {
+                Long size = segments.get(readSegment);
+                if (size == null) {
+                    return null;
+                }
+                if (readPosition >= size) {
+                    if (readSegment == writeSegment) {
+                        return null;
+                    }
+                    deleteSegment(readSegment);
+                    continue;
+                }
+                Batch batch = new Batch();
+                byte[] undecodable = null;
+                try (FileChannel channel = FileChannel.open(segmentPath(readSegment), StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, readPosition,
+                            size - readPosition);
+                    while (batch.requests.size() < batchSize && buffer.hasRemaining()) {
+                        int start = buffer.position();
+                        byte[] record = buffer.remaining() >= RECORD_HEADER_BYTES ? readRecord(buffer) : null;
+                        if (record == null) {
+                            break;
+                        }
+                        try {
+                            batch.requests.add(deserialize(record));
+                            batch.lengths.add(record.length);
+                        } catch (IOException | RuntimeException e) {
+                            if (batch.requests.isEmpty()) {
+                                EsLog.warn("write spool segment " + readSegment + " record at " + readPosition
+                                        + " cannot be decoded, skipped", e);
+                                undecodable = record;
+                            } else {
+                                buffer.position(start);
+                            }
+                            break;
+                        }
+                    }
+                    batch.endPosition = readPosition + buffer.position();
+                }
+                if (undecodable != null) {
+                    skipRecord(undecodable.length);
+                } else if (batch.requests.isEmpty()) {
+                    dropCorrupted(size);
+                } else {
+                    return batch;
+                }
+            }
+        }
+    }
+
+    /**
+     * 隔离重放位置的一条记录并跳过
+     */
+    private void skipRecord(int length) throws IOException {
+        quarantine(readSegment, readPosition, RECORD_HEADER_BYTES + length);
+        readPosition += RECORD_HEADER_BYTES + length;
+        pendingRecords--;
+        droppedTotal++;
+        writeCheckpoint();
+    }
+
+    /**
+     * 重放位置的记录校验失败，无法确定之后记录的边界，隔离文件剩余部分并重新统计待重放条数
+     */
+    private void dropCorrupted(long size) throws IOException {
+        EsLog.warn("write spool segment " + readSegment + " corrupted at " + readPosition + ", "
+                + (size - readPosition) + " bytes quarantined");
+        quarantine(readSegment, readPosition, size - readPosition);
+        if (readSegment == writeSegment) {
+            truncate(readSegment, readPosition);
+            segments.put(readSegment, readPosition);
+        } else {
+            deleteSegment(readSegment);
+        }
+        long remaining = 0;
+        for (Map.Entry<Long, Long> entry : segments.entrySet()) {
+            long start = entry.getKey() == readSegment ? readPosition : 0;
+            remaining += count(entry.getKey(), start, entry.getValue());
+        }
+        droppedTotal += Math.max(pendingRecords - remaining, 0);
+        pendingRecords = remaining;
+        writeCheckpoint();
+    }
+
+    /**
+     * 把无法重放的数据复制到quarantine文件，便于人工排查
+     */
+    private void quarantine(long segment, long position, long length) throws IOException {
+        Path target = directory.resolve(String.format("%s%020d-%d%s", QUARANTINE_PREFIX, segment, position,
+                QUARANTINE_SUFFIX));
+        try (FileChannel source = FileChannel.open(segmentPath(segment), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long transferred = 0;
+            while (transferred < length) {
+                long count = source.transferTo(position + transferred, length - transferred, out);
+                if (count <= 0) {
+                    break;
+                }
+                transferred += count;
+            }
+        }
+    }
+
+    private void truncate(long segment, long size) throws IOException {
+        if (segment == writeSegment && writeChannel != null) {
+            writeChannel.truncate(size);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    private void commit(Batch batch, int count, int dropped) throws IOException {
+        synchronized (lock) {
+            if (count == batch.requests.size()) {
+                readPosition = batch.endPosition;
+            } else {
+                // 部分提交时重新计算结束位置
+                for (int i = 0; i < count; i++) {
+                    readPosition += RECORD_HEADER_BYTES + batch.recordLength(i);
+                }
+            }
+            pendingRecords -= count;
+            replayedTotal += count - dropped;
+            droppedTotal += dropped;
+            if (readPosition >= segments.get(readSegment) && readSegment != writeSegment) {
+                deleteSegment(readSegment);
+            }
+            writeCheckpoint();
+        }
+    }
+
+    private void deleteSegment(long segment) throws IOException {
+        Files.deleteIfExists(segmentPath(segment));
+        segments.remove(segment);
+        Map.Entry<Long, Long> next = segments.ceilingEntry(segment);
+        readSegment = next == null ? writeSegment : next.getKey();
+        readPosition = 0;
+    }
+
+    private void write(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            writeChannel.write(buffer);
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        if (writeChannel != null) {
+            writeChannel.close();
+        }
+        writeSegment = segments.isEmpty() ? Math.max(writeSegment, readSegment) + 1 : segments.lastKey() + 1;
+        writeChannel = FileChannel.open(segmentPath(writeSegment), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (segments.isEmpty()) {
+            readSegment = writeSegment;
+            readPosition = 0;
+        }
+        segments.put(writeSegment, 0L);
+    }
+
+    /**
+     * 启动时加载已有暂存文件及重放进度，截断最后一个文件末尾未写完整的记录
+     */
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())), 0L));
+        }
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            String[] values = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim().split(",");
+            readSegment = Long.parseLong(values[0]);
+            readPosition = Long.parseLong(values[1]);
+        }
+        for (Long segment : new ArrayList<>(segments.keySet())) {
+            if (segment < readSegment) {
+                Files.deleteIfExists(segmentPath(segment));
+                segments.remove(segment);
+            }
+        }
+        if (!segments.isEmpty() && segments.firstKey() != readSegment) {
+            readSegment = segments.firstKey();
+            readPosition = 0;
+        }
+        for (Long segment : segments.keySet()) {
+            long start = segment == readSegment ? readPosition : 0;
+            long valid = scan(segment, start);
+            segments.put(segment, valid);
+        }
+        // 重启后不再追加到已有文件，下次写入时创建新文件
+        writeSegment = segments.isEmpty() ? readSegment : segments.lastKey();
+        if (pendingRecords > 0) {
+            EsLog.warn("write spool " + directory + " has " + pendingRecords + " records to replay");
+        }
+    }
+
+    /**
+     * 统计文件中start之后的完整记录数，返回有效数据结束位置，之后的数据截断
+     */
+    private long scan(long segment, long start) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (start >= size) {
+                return size;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size - start);
+            int valid = 0;
+            while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                if (readRecord(buffer) == null) {
+                    break;
+                }
+                pendingRecords++;
+                valid = buffer.position();
+            }
+            if (start + valid < size) {
+                EsLog.warn("write spool segment " + segment + " truncated from " + size + " to " + (start + valid));
+                quarantine(segment, start + valid, size - start - valid);
+                channel.truncate(start + valid);
+            }
+            return start + valid;
+        }
+    }
+
+    /**
+     * 统计文件中[start, end)之间的完整记录数，遇到校验失败的记录停止
+     */
+    private long count(long segment, long start, long end) throws IOException {
+        if (start >= end) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            long count = 0;
+            while (buffer.remaining() >= RECORD_HEADER_BYTES && readRecord(buffer) != null) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 读取一条记录，长度或校验不正确返回null
+     */
+    private static byte[] readRecord(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = buffer.getInt();
+        int crc = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            buffer.position(start);
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        CRC32 actual = new CRC32();
+        actual.update(payload);
+        if ((int) actual.getValue() != crc) {
+            buffer.position(start);
+            return null;
+        }
+        return payload;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(temp, (readSegment + "," + readPosition).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] serialize(DocWriteRequest<?> request) throws IOException {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            DocWriteRequest.writeDocumentRequest(out, request);
+            return BytesReference.toBytes(out.bytes());
+        }
+    }
+
+    private static DocWriteRequest<?> deserialize(byte[] record) throws IOException {
+        try (StreamInput in = StreamInput.wrap(record)) {
+            return DocWriteRequest.readDocumentRequest(null, in);
+        }
+    }
+
+    private static class Batch {
+        private final List<DocWriteRequest<?>> requests = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private long endPosition;
+
+        int recordLength(int index) {
+            return lengths.get(index);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.my.elasticsearch.metadata;
+
+import java.util.List;
+
+import com.my.elasticsearch.model.RelationModel;
+import org.springframework.lang.Nullable;
+
+/**
+ * 文档字段读取器
+ *
+ *  编译期由DocumentAccessorProcessor为@Document类生成实现(类名为文档类名加{@link #ACCESSOR_SUFFIX}后缀)，
+ *  运行时DocumentMetadata优先加载生成的实现，不存在时回退到反射实现
+ *
+ * @authro nantian
+ * @date 2022-11-03 14:12
+ */
+public interface DocumentAccessor<T> {
+    /**
+     * 生成类名后缀
+     */
+    String ACCESSOR_SUFFIX = "_EsAccessor";
+
+    /**
+     * @Document注解上配置的索引名
+     */
+    String getIndexName();
+
+    /**
+     * 标注@Id注解的字段名，不存在返回null
+     */
+    @Nullable
+    String getIdFieldName();
+
+    /**
+     * 标注@Version注解的字段名，不存在返回null
+     */
+    @Nullable
+    String getVersionFieldName();
+
+    /**
+     * 标注@EsRouting注解的字段名，不存在返回null
+     */
+    @Nullable
+    default String getRoutingFieldName() {
+        return null;
+    }
+
+    /**
+     * 类型为RelationModel的字段名，按声明顺序，不存在返回空集合
+     */
+    List<String> getRelationFieldNames();
+
+    /**
+     * 读取@Id字段值，getIdFieldName()为null时不会被调用
+     */
+    @Nullable
+    Object getId(T model);
+
+    /**
+     * 读取@Version字段值，getVersionFieldName()为null时不会被调用
+     */
+    @Nullable
+    Object getVersion(T model);
+
+    /**
+     * 读取@EsRouting字段值，getRoutingFieldName()为null时不会被调用
+     */
+    @Nullable
+    default Object getRouting(T model) {
+        return null;
+    }
+
+    /**
+     * 读取RelationModel字段值，与getRelationFieldNames()顺序一一对应，元素可能为null
+     */
+    List<RelationModel> getRelations(T model);
+
+    /**
+     * 获取文档类对应的生成类名，嵌套类以'_'连接
+     *
+     * @param documentClass
+     * @return
+     */
+    static String accessorClassName(Class<?> documentClass) {
+        return documentClass.getName().replace('$', '_') + ACCESSOR_SUFFIX;
+    }
+}
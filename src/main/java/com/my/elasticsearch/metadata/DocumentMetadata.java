@@ -0,0 +1,232 @@
+package com.my.elasticsearch.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.my.elasticsearch.model.RelationModel;
+import com.my.elasticsearch.util.EsLog;
+import com.my.elasticsearch.util.EsReflectUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+/**
+ * 文档类元数据
+ *
+ *  每个@Document类只在首次使用时解析一次@Id、@Version、@EsRouting、RelationModel字段及索引名，
+ *  优先使用编译期生成的DocumentAccessor读取字段，不存在时回退到反射实现
+ *
+ * @authro nantian
+ * @date 2022-11-02 10:21
+ */
+public class DocumentMetadata {
+    private final Class<?> documentClass;
+    private final DocumentAccessor<Object> accessor;
+    private final boolean generatedAccessor;
+
+    /**
+     * 解析文档类元数据，推荐通过DocumentMetadataCache获取
+     *
+     * @param documentClass 需标注@Document注解
+     * @return
+     */
+    public static DocumentMetadata of(Class<?> documentClass) {
+        return new DocumentMetadata(documentClass);
+    }
+
+    private DocumentMetadata(Class<?> documentClass) {
+        EsReflectUtils.validDocument(documentClass);
+        this.documentClass = documentClass;
+        DocumentAccessor<Object> generated = loadGeneratedAccessor(documentClass);
+        this.generatedAccessor = generated != null;
+        this.accessor = generated != null ? generated : new ReflectiveDocumentAccessor(documentClass);
+    }
+
+    /**
+     * 加载编译期生成的DocumentAccessor，未生成返回null
+     *
+     * @param documentClass
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private static DocumentAccessor<Object> loadGeneratedAccessor(Class<?> documentClass) {
+        String accessorClassName = DocumentAccessor.accessorClassName(documentClass);
+        try {
+            Class<?> accessorClass = Class.forName(accessorClassName, true, documentClass.getClassLoader());
+            if (!DocumentAccessor.class.isAssignableFrom(accessorClass)) {
+                return null;
+            }
+            return (DocumentAccessor<Object>) accessorClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            EsLog.warn("load " + accessorClassName + " failed, fallback to reflection", e);
+            return null;
+        }
+    }
+
+    private void checkModel(Object model) {
+        Assert.notNull(model, documentClass.getSimpleName() + " must not be null.");
+        Assert.isInstanceOf(documentClass, model);
+    }
+
+    public Class<?> getDocumentClass() {
+        return documentClass;
+    }
+
+    /**
+     * 是否使用编译期生成的DocumentAccessor
+     */
+    public boolean isGeneratedAccessor() {
+        return generatedAccessor;
+    }
+
+    /**
+     * @Document注解上配置的索引名
+     */
+    public String getIndexName() {
+        return accessor.getIndexName();
+    }
+
+    public boolean hasIdField() {
+        return accessor.getIdFieldName() != null;
+    }
+
+    public boolean hasVersionField() {
+        return accessor.getVersionFieldName() != null;
+    }
+
+    public boolean hasRoutingField() {
+        return accessor.getRoutingFieldName() != null;
+    }
+
+    public boolean hasRelationField() {
+        return !accessor.getRelationFieldNames().isEmpty();
+    }
+
+    /**
+     * 标注@Id注解的字段名(存在多个取first)
+     *
+     * @return not null
+     */
+    public String getIdFieldName() {
+        String idFieldName = accessor.getIdFieldName();
+        Assert.notNull(idFieldName, documentClass.getSimpleName()
+                + " no fields marked with @" + Id.class.getName() + " annotation.");
+        return idFieldName;
+    }
+
+    /**
+     * 获取标注@Id注解的文档Id值
+     *
+     * @param model
+     * @return 文档Id值; not null
+     */
+    public String getIdValue(Object model) {
+        checkModel(model);
+        Assert.isTrue(hasIdField(), documentClass.getSimpleName()
+                + " no fields marked with @" + Id.class.getName() + " annotation.");
+        Object fieldValue = accessor.getId(model);
+        Assert.isTrue(fieldValue != null && StringUtils.isNotEmpty(fieldValue.toString()),
+                documentClass.getSimpleName() + " @Id value must not be null.");
+        return String.valueOf(fieldValue);
+    }
+
+    /**
+     * 获取标注@Version注解的文档Version值
+     *
+     * @param model
+     * @return 文档Version值; not null
+     */
+    public Long getVersionValue(Object model) {
+        checkModel(model);
+        Assert.isTrue(hasVersionField(), documentClass.getSimpleName()
+                + " no fields marked with @" + Version.class.getName() + " annotation.");
+        Object fieldValue = accessor.getVersion(model);
+        Assert.isTrue(fieldValue != null && StringUtils.isNotEmpty(fieldValue.toString()),
+                documentClass.getSimpleName() + " @Version value must not be null.");
+        return Long.valueOf(fieldValue.toString());
+    }
+
+    /**
+     * 获取文档写入使用的路由值
+     *
+     *  优先使用标注@EsRouting注解的字段值；未标注或字段值为空时，父子文档(join)中的子文档
+     *  使用RelationModel.parent父文档ID，保证子文档与父文档写入同一分片。
+     *  只适用于单级父子文档：多级时孙文档需与根文档在同一分片，应使用@EsRouting字段保存根文档ID
+     *
+     * @param model
+     * @return 路由值，都不存在返回null
+     */
+    @Nullable
+    public String getRoutingValue(Object model) {
+        checkModel(model);
+        if (hasRoutingField()) {
+            Object fieldValue = accessor.getRouting(model);
+            if (fieldValue != null && StringUtils.isNotEmpty(fieldValue.toString())) {
+                return fieldValue.toString();
+            }
+        }
+        if (hasRelationField()) {
+            for (RelationModel relationModel : accessor.getRelations(model)) {
+                if (relationModel != null && StringUtils.isNotEmpty(relationModel.getParent())) {
+                    return relationModel.getParent();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取文档上所有RelationModel字段值，字段值为null的跳过
+     *
+     * @param model
+     * @return
+     */
+    public List<RelationModel> getRelationValues(Object model) {
+        checkModel(model);
+        if (!hasRelationField()) {
+            return Collections.emptyList();
+        }
+        List<RelationModel> relations = new ArrayList<>();
+        for (RelationModel relationModel : accessor.getRelations(model)) {
+            if (relationModel != null) {
+                relations.add(relationModel);
+            }
+        }
+        return relations;
+    }
+
+    /**
+     * 获取RelationModel字段中指定子文档关系名对应的parent父文档ID
+     *
+     * @param model
+     * @param subRelationName 子文档关系名
+     * @return 父文档ID
+     */
+    public String getParentIdValue(Object model, String subRelationName) {
+        checkModel(model);
+        Assert.isTrue(StringUtils.isNotEmpty(subRelationName), "parameter `subRelationName` must not be null");
+        List<String> fieldNames = accessor.getRelationFieldNames();
+        Assert.notEmpty(fieldNames,
+                documentClass.getSimpleName() + " must has " + RelationModel.class.getName() + " fields.");
+        List<RelationModel> relations = accessor.getRelations(model);
+        for (int i = 0; i < fieldNames.size(); i++) {
+            RelationModel relationModel = relations.get(i);
+            Assert.notNull(relationModel, documentClass.getSimpleName() + "." + fieldNames.get(i)
+                    + " field value must not be null.");
+            if (subRelationName.equals(relationModel.getName())) {
+                Assert.isTrue(StringUtils.isNotEmpty(relationModel.getParent()),
+                        documentClass.getSimpleName() + "." + fieldNames.get(i)
+                                + ".parent value must not be null.");
+                return relationModel.getParent();
+            }
+        }
+        throw new IllegalArgumentException(
+                documentClass.getSimpleName() + " has no sub relation model filed with name eq '"
+                        + subRelationName + "'");
+    }
+}
@@ -0,0 +1,138 @@
+package com.my.elasticsearch.metadata;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.my.elasticsearch.annotation.EsRouting;
+import com.my.elasticsearch.model.RelationModel;
+import com.my.elasticsearch.util.EsReflectUtils;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+
+/**
+ * 基于反射的文档字段读取器，未生成DocumentAccessor时使用
+ *
+ *  注解只在构建时扫描一次，字段读取使用预先绑定的MethodHandle
+ *
+ * @authro nantian
+ * @date 2022-11-03 14:12
+ */
+class ReflectiveDocumentAccessor implements DocumentAccessor<Object> {
+    private final String indexName;
+    private final Field idField;
+    private final MethodHandle idGetter;
+    private final Field versionField;
+    private final MethodHandle versionGetter;
+    private final Field routingField;
+    private final MethodHandle routingGetter;
+    private final List<String> relationFieldNames;
+    private final List<MethodHandle> relationGetters;
+
+    ReflectiveDocumentAccessor(Class<?> documentClass) {
+        this.indexName = EsReflectUtils.getDocumentIndexName(documentClass);
+        this.idField = firstField(EsReflectUtils.getClassFieldsByAnnotation(documentClass, Id.class));
+        this.idGetter = toGetter(idField);
+        this.versionField = firstField(EsReflectUtils.getClassFieldsByAnnotation(documentClass, Version.class));
+        this.versionGetter = toGetter(versionField);
+        this.routingField = firstField(EsReflectUtils.getClassFieldsByAnnotation(documentClass, EsRouting.class));
+        this.routingGetter = toGetter(routingField);
+
+        List<Field> fields = EsReflectUtils.getClassFieldsByType(documentClass, RelationModel.class);
+        if (fields == null) {
+            this.relationFieldNames = Collections.emptyList();
+            this.relationGetters = Collections.emptyList();
+        } else {
+            List<String> names = new ArrayList<>(fields.size());
+            List<MethodHandle> getters = new ArrayList<>(fields.size());
+            for (Field field : fields) {
+                names.add(field.getName());
+                getters.add(toGetter(field));
+            }
+            this.relationFieldNames = Collections.unmodifiableList(names);
+            this.relationGetters = Collections.unmodifiableList(getters);
+        }
+    }
+
+    private static Field firstField(List<Field> fields) {
+        return fields == null || fields.isEmpty() ? null : fields.get(0);
+    }
+
+    private static MethodHandle toGetter(Field field) {
+        if (field == null) {
+            return null;
+        }
+        try {
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("can not access field " + field.getDeclaringClass().getName() + "."
+                    + field.getName(), e);
+        }
+    }
+
+    private static Object invoke(MethodHandle getter, Object model) {
+        try {
+            return getter.invoke(model);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String getIndexName() {
+        return indexName;
+    }
+
+    @Override
+    public String getIdFieldName() {
+        return idField == null ? null : idField.getName();
+    }
+
+    @Override
+    public String getVersionFieldName() {
+        return versionField == null ? null : versionField.getName();
+    }
+
+    @Override
+    public String getRoutingFieldName() {
+        return routingField == null ? null : routingField.getName();
+    }
+
+    @Override
+    public List<String> getRelationFieldNames() {
+        return relationFieldNames;
+    }
+
+    @Override
+    public Object getId(Object model) {
+        return invoke(idGetter, model);
+    }
+
+    @Override
+    public Object getVersion(Object model) {
+        return invoke(versionGetter, model);
+    }
+
+    @Override
+    public Object getRouting(Object model) {
+        return invoke(routingGetter, model);
+    }
+
+    @Override
+    public List<RelationModel> getRelations(Object model) {
+        if (relationGetters.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<RelationModel> relations = new ArrayList<>(relationGetters.size());
+        for (MethodHandle getter : relationGetters) {
+            relations.add((RelationModel) invoke(getter, model));
+        }
+        return relations;
+    }
+}
@@ -0,0 +1,102 @@
+package com.my.elasticsearch.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * 批量操作单条文档结果
+ *
+ * @authro nantian
+ * @date 2022-11-08 10:26
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MyEsBulkItemResult {
+    /**
+     * 实际操作的索引名
+     */
+    private String index;
+    /**
+     * 文档ID
+     */
+    private String id;
+    /**
+     * 操作类型：index、create、update、delete
+     */
+    private String opType;
+    /**
+     * 操作结果
+     */
+    private Result result;
+    /**
+     * http状态码
+     */
+    private int status;
+    /**
+     * 失败原因，成功时为null
+     */
+    private String failureMessage;
+
+    public boolean isFailed() {
+        return result == Result.FAILED;
+    }
+
+    /**
+     * 根据bulk响应转换单条结果
+     *
+     * @param item
+     * @return
+     */
+    public static MyEsBulkItemResult of(BulkItemResponse item) {
+        String opType = item.getOpType() == null ? null : item.getOpType().getLowercase();
+        if (item.isFailed()) {
+            return new MyEsBulkItemResult(item.getIndex(), item.getId(), opType, Result.FAILED,
+                    item.status().getStatus(), item.getFailureMessage());
+        }
+        DocWriteResponse response = item.getResponse();
+        return new MyEsBulkItemResult(item.getIndex(), item.getId(), opType, Result.of(response.getResult()),
+                response.status().getStatus(), null);
+    }
+
+    /**
+     * 整个bulk请求失败时，根据请求构建单条失败结果
+     *
+     * @param request
+     * @param e
+     * @return
+     */
+    public static MyEsBulkItemResult failed(DocWriteRequest<?> request, Throwable e) {
+        return new MyEsBulkItemResult(request.index(), request.id(), request.opType().getLowercase(), Result.FAILED,
+                RestStatus.INTERNAL_SERVER_ERROR.getStatus(), e == null ? null : e.getMessage());
+    }
+
+    public enum Result {
+        CREATED,
+        UPDATED,
+        DELETED,
+        NOT_FOUND,
+        NOOP,
+        FAILED;
+
+        public static Result of(DocWriteResponse.Result result) {
+            switch (result) {
+                case CREATED:
+                    return CREATED;
+                case UPDATED:
+                    return UPDATED;
+                case DELETED:
+                    return DELETED;
+                case NOT_FOUND:
+                    return NOT_FOUND;
+                default:
+                    return NOOP;
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.my.elasticsearch.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * 流式批量写入汇总结果
+ *
+ * @authro nantian
+ * @date 2022-11-15 10:20
+ */
+@Data
+public class MyEsBulkSummary {
+    /**
+     * 失败明细最多保留条数，避免大批量失败时占用过多内存
+     */
+    public static final int MAX_FAILURE_DETAILS = 1000;
+
+    /**
+     * 发送的文档总数
+     */
+    private long total;
+    private long succeeded;
+    private long failed;
+    /**
+     * bulk请求数
+     */
+    private int batches;
+    /**
+     * es端执行耗时累计(毫秒)
+     */
+    private long tookMillis;
+    /**
+     * 失败明细，按发送顺序最多保留MAX_FAILURE_DETAILS条
+     */
+    private List<MyEsBulkItemResult> failures = new ArrayList<>();
+
+    public boolean hasFailures() {
+        return failed > 0;
+    }
+}
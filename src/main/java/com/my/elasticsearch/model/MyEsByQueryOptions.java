@@ -0,0 +1,50 @@
+package com.my.elasticsearch.model;
+
+import lombok.Data;
+import org.springframework.lang.Nullable;
+
+/**
+ * updateByQuery、deleteByQuery执行参数
+ *
+ * @authro nantian
+ * @date 2022-11-11 15:20
+ */
+@Data
+public class MyEsByQueryOptions {
+    /**
+     * 自动按分片数切片
+     */
+    public static final int AUTO_SLICES = 0;
+
+    /**
+     * 切片数，每个切片由es并行执行；0表示按分片数自动切片，1表示不切片
+     */
+    private int slices = AUTO_SLICES;
+    /**
+     * 每秒处理文档数限流，为null表示不限流
+     */
+    @Nullable
+    private Float requestsPerSecond;
+    /**
+     * 每批scroll处理的文档数，为null使用es默认值1000
+     */
+    @Nullable
+    private Integer batchSize;
+    /**
+     * 最多处理的文档数，为null表示不限制
+     */
+    @Nullable
+    private Integer maxDocs;
+    /**
+     * 版本冲突时是否中止，false表示跳过冲突文档继续执行
+     */
+    private boolean abortOnVersionConflict = true;
+    /**
+     * 执行完成后是否刷新索引
+     */
+    private boolean refresh = false;
+
+    public static MyEsByQueryOptions defaultOptions() {
+        return new MyEsByQueryOptions();
+    }
+}
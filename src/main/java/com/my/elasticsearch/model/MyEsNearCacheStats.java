@@ -0,0 +1,30 @@
+package com.my.elasticsearch.model;
+
+import lombok.Data;
+
+/**
+ * 文档本地缓存统计
+ *
+ * @authro nantian
+ * @date 2022-11-21 10:30
+ */
+@Data
+public class MyEsNearCacheStats {
+    /**
+     * 启动后累计命中、未命中次数
+     */
+    private long hitCount;
+    private long missCount;
+    /**
+     * 命中率，未查询过为1
+     */
+    private double hitRate;
+    /**
+     * 因超过最大条数或过期被淘汰的条数
+     */
+    private long evictionCount;
+    /**
+     * 当前缓存条数
+     */
+    private long size;
+}
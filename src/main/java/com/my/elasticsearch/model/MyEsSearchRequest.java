@@ -43,6 +43,31 @@ public class MyEsSearchRequest {
      */
     @Nullable
     private AbstractAggregationBuilder aggregationBuilder;
+    /**
+     * 路由值，与写入时的routing一致时只查询对应分片
+     */
+    @Nullable
+    private String routing;
+    /**
+     * 是否使用查询结果缓存，相同条件的查询在缓存有效期内直接返回缓存结果，适合重复执行的统计、看板类查询
+     */
+    private boolean cacheable;
+
+    public MyEsSearchRequest(QueryBuilder queryBuilder, QueryBuilder filterBuilder, Pageable pageable,
+                             String[] queryFields, @Nullable AbstractAggregationBuilder aggregationBuilder,
+                             @Nullable String routing) {
+        this(queryBuilder, filterBuilder, pageable, queryFields, aggregationBuilder);
+        this.routing = routing;
+    }
+
+    public MyEsSearchRequest(QueryBuilder queryBuilder, QueryBuilder filterBuilder, Pageable pageable,
+                             String[] queryFields, @Nullable AbstractAggregationBuilder aggregationBuilder) {
+        this.queryBuilder = queryBuilder;
+        this.filterBuilder = filterBuilder;
+        this.pageable = pageable;
+        this.queryFields = queryFields;
+        this.aggregationBuilder = aggregationBuilder;
+    }
 
     public MyEsSearchRequest(QueryBuilder queryBuilder, QueryBuilder filterBuilder,
                              Pageable pageable) {
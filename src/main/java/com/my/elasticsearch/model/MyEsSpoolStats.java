@@ -0,0 +1,43 @@
+package com.my.elasticsearch.model;
+
+import lombok.Data;
+
+/**
+ * 本地写入暂存统计
+ *
+ * @authro nantian
+ * @date 2022-11-17 11:20
+ */
+@Data
+public class MyEsSpoolStats {
+    /**
+     * 待重放的写入条数
+     */
+    private long pendingRecords;
+    /**
+     * 待重放的数据量(字节)
+     */
+    private long pendingBytes;
+    /**
+     * 暂存文件数
+     */
+    private int segments;
+    /**
+     * 启动后累计暂存、重放成功、重放失败丢弃的条数，丢弃包括无法解析或校验失败被隔离的记录
+     */
+    private long spooledTotal;
+    private long replayedTotal;
+    private long droppedTotal;
+    /**
+     * 有待重放数据但连续未能重放出任何记录的检查次数(es不可用、被拒绝或重放出错)，有进展或暂存为空时清零
+     */
+    private long stuckReplays;
+    /**
+     * 最近一次重放时间(毫秒时间戳)，未重放过为0
+     */
+    private long lastReplayTime;
+    /**
+     * 最近一次重放失败原因，重放成功后清空
+     */
+    private String lastReplayError;
+}
@@ -0,0 +1,85 @@
+package com.my.elasticsearch.model;
+
+import java.util.Collections;
+import java.util.Map;
+
+import lombok.Data;
+import org.elasticsearch.client.tasks.GetTaskResponse;
+import org.elasticsearch.tasks.RawTaskStatus;
+import org.elasticsearch.tasks.TaskInfo;
+
+/**
+ * es后台任务执行状态，用于查询updateByQuery、deleteByQuery等异步任务进度
+ *
+ * @authro nantian
+ * @date 2022-11-11 15:20
+ */
+@Data
+public class MyEsTaskStatus {
+    /**
+     * 任务ID，格式为nodeId:taskId
+     */
+    private String taskId;
+    /**
+     * 是否执行完成
+     */
+    private boolean completed;
+    /**
+     * 是否已取消
+     */
+    private boolean cancelled;
+    private String action;
+    private String description;
+    /**
+     * 已运行时间(毫秒)
+     */
+    private long runningTimeMillis;
+    /**
+     * 需要处理的文档总数
+     */
+    private long total;
+    private long created;
+    private long updated;
+    private long deleted;
+    private long batches;
+    private long versionConflicts;
+    private long noops;
+    /**
+     * 当前限流值，-1表示不限流
+     */
+    private float requestsPerSecond;
+
+    /**
+     * 根据任务查询响应转换
+     *
+     * @param response
+     * @return
+     */
+    public static MyEsTaskStatus of(GetTaskResponse response) {
+        TaskInfo taskInfo = response.getTaskInfo();
+        MyEsTaskStatus status = new MyEsTaskStatus();
+        status.setTaskId(taskInfo.getTaskId().toString());
+        status.setCompleted(response.isCompleted());
+        status.setCancelled(taskInfo.isCancelled());
+        status.setAction(taskInfo.getAction());
+        status.setDescription(taskInfo.getDescription());
+        status.setRunningTimeMillis(taskInfo.getRunningTimeNanos() / 1000000);
+
+        Map<String, Object> counts = taskInfo.getStatus() instanceof RawTaskStatus
+                ? ((RawTaskStatus) taskInfo.getStatus()).toMap() : Collections.emptyMap();
+        status.setTotal(longValue(counts.get("total")));
+        status.setCreated(longValue(counts.get("created")));
+        status.setUpdated(longValue(counts.get("updated")));
+        status.setDeleted(longValue(counts.get("deleted")));
+        status.setBatches(longValue(counts.get("batches")));
+        status.setVersionConflicts(longValue(counts.get("version_conflicts")));
+        status.setNoops(longValue(counts.get("noops")));
+        Object requestsPerSecond = counts.get("requests_per_second");
+        status.setRequestsPerSecond(requestsPerSecond instanceof Number ? ((Number) requestsPerSecond).floatValue() : -1);
+        return status;
+    }
+
+    private static long longValue(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+}
@@ -0,0 +1,322 @@
+package com.my.elasticsearch.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * 编译期为@Document类生成DocumentAccessor实现，运行时读取@Id、@Version、@EsRouting、RelationModel字段不再使用反射
+ *
+ *  该处理器为可选项，未注册到META-INF/services，需要在应用的maven-compiler-plugin中显式配置：
+ *  annotationProcessors指定本类(使用lombok时需一并指定lombok处理器)。
+ *  private字段通过getter读取，找不到getter且未使用lombok生成时跳过该类，运行时回退到反射
+ *
+ * @authro nantian
+ * @date 2022-11-03 14:12
+ */
+@SupportedAnnotationTypes(DocumentAccessorProcessor.DOCUMENT_ANNOTATION)
+public class DocumentAccessorProcessor extends AbstractProcessor {
+    static final String DOCUMENT_ANNOTATION = "org.springframework.data.elasticsearch.annotations.Document";
+    private static final String ID_ANNOTATION = "org.springframework.data.annotation.Id";
+    private static final String VERSION_ANNOTATION = "org.springframework.data.annotation.Version";
+    private static final String ROUTING_ANNOTATION = "com.my.elasticsearch.annotation.EsRouting";
+    private static final String RELATION_MODEL = "com.my.elasticsearch.model.RelationModel";
+    private static final String ACCESSOR_INTERFACE = "com.my.elasticsearch.metadata.DocumentAccessor";
+    private static final String ACCESSOR_SUFFIX = "_EsAccessor";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.CLASS) {
+                    generate((TypeElement) element);
+                }
+            }
+        }
+        // 不声明独占@Document，其它处理器仍可处理
+        return false;
+    }
+
+    private void generate(TypeElement type) {
+        if (!type.getTypeParameters().isEmpty()) {
+            note(type, "generic document is not supported, fallback to reflection");
+            return;
+        }
+        List<VariableElement> fields = allFields(type);
+        VariableElement idField = firstAnnotated(fields, ID_ANNOTATION);
+        if (idField == null) {
+            note(type, "no @Id field, skip generating accessor");
+            return;
+        }
+        VariableElement versionField = firstAnnotated(fields, VERSION_ANNOTATION);
+        VariableElement routingField = firstAnnotated(fields, ROUTING_ANNOTATION);
+        List<VariableElement> relationFields = new ArrayList<>();
+        for (VariableElement field : fields) {
+            if (isType(field.asType(), RELATION_MODEL)) {
+                relationFields.add(field);
+            }
+        }
+
+        String idRead = readExpression(type, idField);
+        String versionRead = versionField == null ? "null" : readExpression(type, versionField);
+        String routingRead = routingField == null ? "null" : readExpression(type, routingField);
+        List<String> relationReads = new ArrayList<>(relationFields.size());
+        for (VariableElement field : relationFields) {
+            relationReads.add(readExpression(type, field));
+        }
+        if (idRead == null || versionRead == null || routingRead == null || relationReads.contains(null)) {
+            note(type, "field is not readable without reflection, fallback to reflection");
+            return;
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String accessorName = binaryName.replace('$', '_') + ACCESSOR_SUFFIX;
+        String simpleName = packageName.isEmpty() ? accessorName : accessorName.substring(packageName.length() + 1);
+        String documentName = type.getQualifiedName().toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n * ").append(documentName)
+                .append(" 文档字段读取器，由DocumentAccessorProcessor生成，请勿修改\n */\n");
+        source.append("public final class ").append(simpleName).append(" implements ")
+                .append(ACCESSOR_INTERFACE).append("<").append(documentName).append("> {\n");
+        source.append("    private static final java.util.List<String> RELATION_FIELD_NAMES = ")
+                .append(stringList(relationFields)).append(";\n\n");
+        appendMethod(source, "String getIndexName()", "return " + literal(indexName(type)) + ";");
+        appendMethod(source, "String getIdFieldName()", "return " + literal(name(idField)) + ";");
+        appendMethod(source, "String getVersionFieldName()",
+                "return " + (versionField == null ? "null" : literal(name(versionField))) + ";");
+        if (routingField != null) {
+            appendMethod(source, "String getRoutingFieldName()", "return " + literal(name(routingField)) + ";");
+        }
+        appendMethod(source, "java.util.List<String> getRelationFieldNames()", "return RELATION_FIELD_NAMES;");
+        appendMethod(source, "Object getId(" + documentName + " model)", "return " + idRead + ";");
+        appendMethod(source, "Object getVersion(" + documentName + " model)", "return " + versionRead + ";");
+        if (routingField != null) {
+            appendMethod(source, "Object getRouting(" + documentName + " model)", "return " + routingRead + ";");
+        }
+        String relations = relationReads.isEmpty() ? "java.util.Collections.emptyList()"
+                : "java.util.Arrays.asList(" + String.join(", ", relationReads) + ")";
+        appendMethod(source, "java.util.List<" + RELATION_MODEL + "> getRelations(" + documentName + " model)",
+                "return " + relations + ";");
+        source.setLength(source.length() - 1);
+        source.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(accessorName, type).openWriter()) {
+            writer.write(source.toString());
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "generate " + accessorName + " failed: " + e.getMessage(), type);
+        }
+    }
+
+    private static void appendMethod(StringBuilder source, String signature, String body) {
+        source.append("    @Override\n    public ").append(signature).append(" {\n        ")
+                .append(body).append("\n    }\n\n");
+    }
+
+    /**
+     * 包含父类字段，子类在前，与运行时反射扫描顺序一致
+     */
+    private List<VariableElement> allFields(TypeElement type) {
+        List<VariableElement> fields = new ArrayList<>();
+        TypeElement current = type;
+        while (current != null && !"java.lang.Object".equals(current.getQualifiedName().toString())) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                if (!field.getModifiers().contains(Modifier.STATIC)) {
+                    fields.add(field);
+                }
+            }
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED
+                    ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return fields;
+    }
+
+    private static VariableElement firstAnnotated(List<VariableElement> fields, String annotationName) {
+        for (VariableElement field : fields) {
+            if (findAnnotation(field, annotationName) != null) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static AnnotationMirror findAnnotation(Element element, String annotationName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (isType(mirror.getAnnotationType(), annotationName)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isType(TypeMirror typeMirror, String qualifiedName) {
+        return typeMirror.getKind() == TypeKind.DECLARED
+                && ((TypeElement) ((DeclaredType) typeMirror).asElement()).getQualifiedName()
+                .contentEquals(qualifiedName);
+    }
+
+    /**
+     * 生成读取字段的表达式：同包可见字段直接访问，否则使用getter，无法读取返回null
+     */
+    private String readExpression(TypeElement type, VariableElement field) {
+        TypeElement owner = (TypeElement) field.getEnclosingElement();
+        Set<Modifier> modifiers = field.getModifiers();
+        boolean samePackage = packageOf(owner).equals(packageOf(type));
+        if (isVisible(modifiers, owner, type)) {
+            return "model." + name(field);
+        }
+
+        String getter = getterName(field);
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (method.getSimpleName().contentEquals(getter) && method.getParameters().isEmpty()
+                    && !method.getModifiers().contains(Modifier.STATIC)
+                    && isVisible(method.getModifiers(), (TypeElement) method.getEnclosingElement(), type)) {
+                return "model." + getter + "()";
+            }
+        }
+        // lombok生成的getter在处理器执行时可能尚未可见，字段上的@Getter优先于类上的注解
+        String access = lombokGetterAccess(field);
+        if (access == null) {
+            access = lombokGetterAccess(owner);
+        }
+        if ("PUBLIC".equals(access) || (samePackage && ("PROTECTED".equals(access) || "PACKAGE".equals(access)))) {
+            return "model." + getter + "()";
+        }
+        return null;
+    }
+
+    /**
+     * 生成的访问器与文档类同包：public可访问，其余非private成员需声明类与文档类同包
+     */
+    private boolean isVisible(Set<Modifier> modifiers, TypeElement declaring, TypeElement type) {
+        return modifiers.contains(Modifier.PUBLIC)
+                || (!modifiers.contains(Modifier.PRIVATE) && packageOf(declaring).equals(packageOf(type)));
+    }
+
+    /**
+     * lombok生成getter的访问级别，未生成返回null
+     */
+    private static String lombokGetterAccess(Element element) {
+        if (findAnnotation(element, "lombok.Data") != null || findAnnotation(element, "lombok.Value") != null) {
+            return "PUBLIC";
+        }
+        AnnotationMirror getter = findAnnotation(element, "lombok.Getter");
+        if (getter == null) {
+            return null;
+        }
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : getter.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value")) {
+                return String.valueOf(entry.getValue().getValue());
+            }
+        }
+        return "PUBLIC";
+    }
+
+    private String packageOf(TypeElement type) {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        return packageElement.getQualifiedName().toString();
+    }
+
+    private static String getterName(VariableElement field) {
+        String name = name(field);
+        String prefix = field.asType().getKind() == TypeKind.BOOLEAN ? "is" : "get";
+        return prefix + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String name(VariableElement field) {
+        return field.getSimpleName().toString();
+    }
+
+    /**
+     * @Document为@Inherited，子类未标注时与allFields一样沿父类查找
+     */
+    private static String indexName(TypeElement type) {
+        TypeElement current = type;
+        while (current != null) {
+            AnnotationMirror document = findAnnotation(current, DOCUMENT_ANNOTATION);
+            if (document != null) {
+                for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                        : document.getElementValues().entrySet()) {
+                    if (entry.getKey().getSimpleName().contentEquals("indexName")) {
+                        return String.valueOf(entry.getValue().getValue());
+                    }
+                }
+                return "";
+            }
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED
+                    ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return "";
+    }
+
+    private static String stringList(List<VariableElement> fields) {
+        if (fields.isEmpty()) {
+            return "java.util.Collections.emptyList()";
+        }
+        List<String> names = new ArrayList<>(fields.size());
+        for (VariableElement field : fields) {
+            names.add(literal(name(field)));
+        }
+        return "java.util.Collections.unmodifiableList(java.util.Arrays.asList(" + String.join(", ", names) + "))";
+    }
+
+    private static String literal(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private void note(TypeElement type, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                type.getQualifiedName() + ": " + message);
+    }
+}
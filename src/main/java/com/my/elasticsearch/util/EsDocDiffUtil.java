@@ -0,0 +1,82 @@
+package com.my.elasticsearch.util;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.util.Assert;
+
+/**
+ * 文档变更字段比较工具
+ *
+ *  比较修改前后两个文档，生成只包含变更字段的partial doc：
+ *  对象字段逐层比较，只保留有变化的子字段(与es partial update的合并方式一致)；数组及其它类型有变化时整体替换；
+ *  修改后为null或不存在的字段输出显式null，用于清空es中的字段值
+ *
+ * @authro nantian
+ * @date 2022-11-11 10:05
+ */
+public class EsDocDiffUtil {
+    /**
+     * 比较时null值也参与序列化，才能识别被清空的字段
+     */
+    private static final ObjectMapper DIFF_OBJECT_MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.ALWAYS);
+
+    /**
+     * 比较修改前后的文档
+     *
+     * @param oldModel 修改前文档
+     * @param newModel 修改后文档
+     * @return 变更字段，无变更返回空对象
+     */
+    public static ObjectNode diff(Object oldModel, Object newModel) {
+        Assert.notNull(oldModel, "diff old document is null");
+        Assert.notNull(newModel, "diff new document is null");
+        Assert.isTrue(oldModel.getClass() == newModel.getClass(), "diff documents must be the same class: "
+                + oldModel.getClass().getName() + ", " + newModel.getClass().getName());
+        return diff(DIFF_OBJECT_MAPPER.valueToTree(oldModel), DIFF_OBJECT_MAPPER.valueToTree(newModel));
+    }
+
+    /**
+     * 比较修改前后的文档json
+     *
+     * @param oldNode 修改前文档，需为json对象
+     * @param newNode 修改后文档，需为json对象
+     * @return 变更字段，无变更返回空对象
+     */
+    public static ObjectNode diff(JsonNode oldNode, JsonNode newNode) {
+        Assert.isTrue(oldNode != null && oldNode.isObject(), "diff old document must be json object");
+        Assert.isTrue(newNode != null && newNode.isObject(), "diff new document must be json object");
+        ObjectNode changed = JsonNodeFactory.instance.objectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = newNode.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode oldValue = oldNode.get(field.getKey());
+            JsonNode newValue = field.getValue();
+            if (oldValue == null ? newValue.isNull() : oldValue.equals(newValue)) {
+                continue;
+            }
+            if (oldValue != null && oldValue.isObject() && newValue.isObject()) {
+                ObjectNode nested = diff(oldValue, newValue);
+                if (nested.size() > 0) {
+                    changed.set(field.getKey(), nested);
+                }
+            } else {
+                changed.set(field.getKey(), newValue);
+            }
+        }
+        Iterator<Map.Entry<String, JsonNode>> oldFields = oldNode.fields();
+        while (oldFields.hasNext()) {
+            Map.Entry<String, JsonNode> field = oldFields.next();
+            if (!newNode.has(field.getKey()) && !field.getValue().isNull()) {
+                changed.putNull(field.getKey());
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,154 @@
+package com.my.elasticsearch.util;
+
+import java.io.IOException;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.data.elasticsearch.NoSuchIndexException;
+import org.springframework.data.elasticsearch.RestStatusException;
+
+/**
+ * es异常判断工具
+ *
+ * @authro nantian
+ * @date 2022-11-07 15:02
+ */
+public class EsExceptionUtil {
+    private static final String DOCUMENT_MISSING_EXCEPTION = "document_missing_exception";
+    private static final String INDEX_NOT_FOUND_EXCEPTION = "index_not_found_exception";
+    private static final String REJECTED_EXECUTION_EXCEPTION = "es_rejected_execution_exception";
+
+    /**
+     * 是否是文档或索引不存在导致的异常，会沿cause链逐层判断
+     *
+     * @param e
+     * @return
+     */
+    public static boolean isDocumentMissing(Throwable e) {
+        return causeMessageContains(e, DOCUMENT_MISSING_EXCEPTION) || isIndexNotFound(e);
+    }
+
+    /**
+     * 是否是索引不存在导致的异常，会沿cause链逐层判断
+     *
+     * @param e
+     * @return
+     */
+    public static boolean isIndexNotFound(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof NoSuchIndexException) {
+                return true;
+            }
+        }
+        return causeMessageContains(e, INDEX_NOT_FOUND_EXCEPTION);
+    }
+
+    /**
+     * 是否是es写入线程池已满被拒绝(429)导致的异常，可稍后重试，会沿cause链逐层判断
+     *
+     * @param e
+     * @return
+     */
+    public static boolean isRejected(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof RestStatusException
+                    && ((RestStatusException) cause).getStatus() == RestStatus.TOO_MANY_REQUESTS.getStatus()) {
+                return true;
+            }
+            if (cause instanceof ElasticsearchStatusException
+                    && ((ElasticsearchStatusException) cause).status() == RestStatus.TOO_MANY_REQUESTS) {
+                return true;
+            }
+        }
+        return causeMessageContains(e, REJECTED_EXECUTION_EXCEPTION);
+    }
+
+    /**
+     * 是否是es不可用导致的异常(连接失败、读写超时、502/503/504)，会沿cause链逐层判断
+     *
+     * @param e
+     * @return
+     */
+    public static boolean isUnavailable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            // es有响应的异常按响应状态判断，cause中的ResponseException同样是IOException
+            if (cause instanceof RestStatusException) {
+                return isUnavailableStatus(((RestStatusException) cause).getStatus());
+            }
+            if (cause instanceof ElasticsearchStatusException) {
+                return isUnavailableStatus(((ElasticsearchStatusException) cause).status().getStatus());
+            }
+            if (cause instanceof ResponseException) {
+                return isUnavailableStatus(((ResponseException) cause).getResponse().getStatusLine().getStatusCode());
+            }
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUnavailableStatus(int status) {
+        return status == RestStatus.BAD_GATEWAY.getStatus() || status == RestStatus.SERVICE_UNAVAILABLE.getStatus()
+                || status == RestStatus.GATEWAY_TIMEOUT.getStatus();
+    }
+
+    /**
+     * 是否是请求本身错误(4xx，不包括429)导致的异常，原样重试仍会失败，会沿cause链逐层判断
+     *
+     * @param e
+     * @return
+     */
+    public static boolean isBadRequest(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof ActionRequestValidationException) {
+                return true;
+            }
+            if (cause instanceof RestStatusException) {
+                return isBadRequestStatus(((RestStatusException) cause).getStatus());
+            }
+            if (cause instanceof ElasticsearchStatusException) {
+                return isBadRequestStatus(((ElasticsearchStatusException) cause).status().getStatus());
+            }
+            if (cause instanceof ResponseException) {
+                return isBadRequestStatus(((ResponseException) cause).getResponse().getStatusLine().getStatusCode());
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBadRequestStatus(int status) {
+        return status >= RestStatus.BAD_REQUEST.getStatus() && status < RestStatus.INTERNAL_SERVER_ERROR.getStatus()
+                && status != RestStatus.TOO_MANY_REQUESTS.getStatus();
+    }
+
+    /**
+     * bulk单条结果是否是被拒绝(429)导致的失败
+     *
+     * @param item
+     * @return
+     */
+    public static boolean isRejected(BulkItemResponse item) {
+        if (!item.isFailed()) {
+            return false;
+        }
+        if (item.status() == RestStatus.TOO_MANY_REQUESTS) {
+            return true;
+        }
+        String message = item.getFailureMessage();
+        return message != null && message.contains(REJECTED_EXECUTION_EXCEPTION);
+    }
+
+    private static boolean causeMessageContains(Throwable e, String type) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            String message = cause.getMessage();
+            if (message != null && message.contains(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
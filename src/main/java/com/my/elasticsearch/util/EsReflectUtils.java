@@ -3,8 +3,6 @@ package com.my.elasticsearch.util;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
@@ -12,10 +10,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
-import com.my.elasticsearch.model.RelationModel;
-import org.apache.commons.lang3.StringUtils;
-import org.springframework.data.annotation.Id;
-import org.springframework.data.annotation.Version;
+import com.my.elasticsearch.cache.DocumentMetadataCache;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.lang.NonNull;
 import org.springframework.util.Assert;
@@ -118,14 +113,7 @@ public class EsReflectUtils extends cn.hutool.core.util.ReflectUtil {
      */
     @NonNull
     public static <T> String getDocumentIdFieldName(Class<T> tClass) {
-        validDocument(tClass);
-        List<Field> fields = EsReflectUtils.getClassFieldsByAnnotation(tClass, Id.class);
-        // notEmpty 已校验notNull, 但是编译器无法检测NPE; 添加此句抑制编译器
-        Assert.notNull(fields,
-                tClass.getSimpleName() + " no fields marked with @" + Id.class.getName() + " annotation.");
-        Assert.notEmpty(fields,
-                tClass.getSimpleName() + " no fields marked with @" + Id.class.getName() + " annotation.");
-        return fields.get(0).getName();
+        return DocumentMetadataCache.get(tClass).getIdFieldName();
     }
 
     /**
@@ -164,17 +152,8 @@ public class EsReflectUtils extends cn.hutool.core.util.ReflectUtil {
      */
     @NonNull
     public static <T> String getDocumentIdValue(T elasticsearchModel) {
-        EsReflectUtils.validDocument(elasticsearchModel);
-        List<Field> fields = EsReflectUtils.getClassFieldsByAnnotation(elasticsearchModel.getClass(), Id.class);
-        // notEmpty 已校验notNull, 但是编译器无法检测NPE; 添加此句抑制编译器
-        Assert.notNull(fields, elasticsearchModel.getClass().getSimpleName()
-                + " no fields marked with @" + Id.class.getName() + " annotation.");
-        Assert.notEmpty(fields, elasticsearchModel.getClass().getSimpleName()
-                + " no fields marked with @" + Id.class.getName() + " annotation.");
-        Object fieldValue = EsReflectUtils.getFieldValue(elasticsearchModel, fields.get(0));
-        Assert.isTrue(fieldValue != null && StringUtils.isNotEmpty(fieldValue.toString()),
-                elasticsearchModel.getClass().getSimpleName() + " @Id value must not be null.");
-        return String.valueOf(fieldValue);
+        Assert.notNull(elasticsearchModel, "elasticsearch document must not be null.");
+        return DocumentMetadataCache.get(elasticsearchModel.getClass()).getIdValue(elasticsearchModel);
     }
 
     /**
@@ -190,39 +169,9 @@ public class EsReflectUtils extends cn.hutool.core.util.ReflectUtil {
      */
     @NonNull
     public static <T> String getDocumentParentIdValue(T elasticsearchModel, String subRelationName) {
-        EsReflectUtils.validDocument(elasticsearchModel);
-        Assert.isTrue(StringUtils.isNotEmpty(subRelationName), "parameter `subRelationName` must not be null");
-        List<Field> fields = EsReflectUtils.getClassFieldsByType(elasticsearchModel.getClass(), RelationModel.class);
-        // notEmpty 已校验notNull, 但是编译器无法检测NPE; 添加此句抑制编译器
-        Assert.notNull(fields,
-                elasticsearchModel.getClass().getSimpleName() + " must has " + RelationModel.class.getName() + " fields.");
-        Assert.notEmpty(fields,
-                elasticsearchModel.getClass().getSimpleName() + " must has " + RelationModel.class.getName() + " fields.");
-        for (Field field : fields) {
-            Method getMethod = EsReflectUtils.getMethodByName(elasticsearchModel.getClass(),
-                    //TODO
-                    //StringUtils.upperFirstAndAddPre(field.getName(), "get")
-                    "get" + field.getName()
-            );
-            Assert.notNull(getMethod, elasticsearchModel.getClass().getSimpleName() + " must has " + field.getName()
-                    + " field getter method.");
-            try {
-                RelationModel relationModel = (RelationModel) getMethod.invoke(elasticsearchModel);
-                Assert.notNull(relationModel, elasticsearchModel.getClass().getSimpleName() + "." + field.getName()
-                        + " field value must not be null.");
-                if (relationModel.getName().equals(subRelationName)) {
-                    Assert.isTrue(StringUtils.isNotEmpty(relationModel.getParent()),
-                            elasticsearchModel.getClass().getSimpleName() + "." + field.getName()
-                                    + ".parent value must not be null.");
-                    return relationModel.getParent();
-                }
-            } catch (IllegalAccessException | InvocationTargetException e) {
-                e.printStackTrace();
-            }
-        }
-        throw new IllegalArgumentException(
-                elasticsearchModel.getClass().getSimpleName() + " has no sub relation model filed with name eq '"
-                        + subRelationName + "'");
+        Assert.notNull(elasticsearchModel, "elasticsearch document must not be null.");
+        return DocumentMetadataCache.get(elasticsearchModel.getClass())
+                .getParentIdValue(elasticsearchModel, subRelationName);
     }
 
     /**
@@ -236,17 +185,8 @@ public class EsReflectUtils extends cn.hutool.core.util.ReflectUtil {
      */
     @NonNull
     public static <T> Long getDocumentVersionValue(T elasticsearchModel) {
-        EsReflectUtils.validDocument(elasticsearchModel);
-        List<Field> fields = EsReflectUtils.getClassFieldsByAnnotation(elasticsearchModel.getClass(), Version.class);
-        // notEmpty 已校验notNull, 但是编译器无法检测NPE; 添加此句抑制编译器
-        Assert.notNull(fields, elasticsearchModel.getClass().getSimpleName()
-                + " no fields marked with @" + Version.class.getName() + " annotation.");
-        Assert.notEmpty(fields, elasticsearchModel.getClass().getSimpleName()
-                + " no fields marked with @" + Version.class.getName() + " annotation.");
-        Object fieldValue = EsReflectUtils.getFieldValue(elasticsearchModel, fields.get(0));
-        Assert.isTrue(fieldValue != null && StringUtils.isNotEmpty(fieldValue.toString()),
-                elasticsearchModel.getClass().getSimpleName() + " @Version value must not be null.");
-        return Long.valueOf(fieldValue.toString());
+        Assert.notNull(elasticsearchModel, "elasticsearch document must not be null.");
+        return DocumentMetadataCache.get(elasticsearchModel.getClass()).getVersionValue(elasticsearchModel);
     }
 
 }
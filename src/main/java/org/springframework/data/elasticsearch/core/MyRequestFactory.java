@@ -0,0 +1,144 @@
+package org.springframework.data.elasticsearch.core;
+
+import java.util.Collections;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.springframework.data.elasticsearch.core.document.SearchDocumentResponseBuilder;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.BulkOptions;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.Query;
+import org.springframework.lang.Nullable;
+
+/**
+ *
+ * RequestFactory为包内可见，开放其构建es原生请求的能力，
+ * 用于绕过ElasticsearchRestTemplate自行组装、发送bulk等请求
+ *
+ * @authro nantian
+ * @date 2022-11-08 10:26
+ */
+public class MyRequestFactory {
+
+    /**
+     * 构建index请求，文档序列化、版本类型等与ElasticsearchRestTemplate.index保持一致
+     *
+     * @param restTemplate
+     * @param query
+     * @param index
+     * @return
+     */
+    public static IndexRequest indexRequest(ElasticsearchRestTemplate restTemplate, IndexQuery query,
+                                            IndexCoordinates index) {
+        return restTemplate.getRequestFactory().indexRequest(query, index);
+    }
+
+    /**
+     * 写入单个文档并返回es原始响应，回调、刷新策略及回写文档ID、版本与ElasticsearchRestTemplate.index保持一致
+     *
+     * @param restTemplate
+     * @param query
+     * @param index
+     * @return
+     */
+    public static IndexResponse index(ElasticsearchRestTemplate restTemplate, IndexQuery query,
+                                      IndexCoordinates index) {
+        restTemplate.maybeCallbackBeforeConvertWithQuery(query, index);
+        IndexRequest request = restTemplate.prepareWriteRequest(restTemplate.getRequestFactory().indexRequest(query, index));
+        IndexResponse response = restTemplate.execute(client -> client.index(request, RequestOptions.DEFAULT));
+        Object entity = query.getObject();
+        if (entity != null) {
+            query.setObject(restTemplate.updateIndexedObject(entity, IndexedObjectInformation.of(response.getId(),
+                    response.getSeqNo(), response.getPrimaryTerm(), response.getVersion())));
+        }
+        restTemplate.maybeCallbackAfterSaveWithQuery(query, index);
+        return response;
+    }
+
+    /**
+     * 按ID删除单个文档并返回es原始响应，刷新策略与ElasticsearchRestTemplate.delete保持一致
+     *
+     * @param restTemplate
+     * @param id
+     * @param routing
+     * @param index
+     * @return
+     */
+    public static DeleteResponse delete(ElasticsearchRestTemplate restTemplate, String id, @Nullable String routing,
+                                        IndexCoordinates index) {
+        DeleteRequest request = restTemplate.prepareWriteRequest(
+                restTemplate.getRequestFactory().deleteRequest(id, routing, index));
+        return restTemplate.execute(client -> client.delete(request, RequestOptions.DEFAULT));
+    }
+
+    /**
+     * 构建不含文档的bulk请求，BulkOptions中超时、刷新策略、pipeline等参数的处理与ElasticsearchRestTemplate.bulkOperation保持一致
+     *
+     * @param restTemplate
+     * @param bulkOptions
+     * @param index
+     * @return
+     */
+    public static BulkRequest bulkRequest(ElasticsearchRestTemplate restTemplate, BulkOptions bulkOptions,
+                                          IndexCoordinates index) {
+        BulkRequest bulkRequest = restTemplate.getRequestFactory().bulkRequest(Collections.emptyList(), bulkOptions, index);
+        WriteRequest.RefreshPolicy refreshPolicy = refreshPolicy(restTemplate);
+        if (refreshPolicy != null) {
+            bulkRequest.setRefreshPolicy(refreshPolicy);
+        }
+        return bulkRequest;
+    }
+
+    /**
+     * 构建search请求，查询条件、排序、分页、字段过滤等与ElasticsearchRestTemplate.search保持一致
+     *
+     * @param restTemplate
+     * @param query
+     * @param clazz
+     * @param index
+     * @return
+     */
+    public static SearchRequest searchRequest(ElasticsearchRestTemplate restTemplate, Query query,
+                                              @Nullable Class<?> clazz, IndexCoordinates index) {
+        return restTemplate.getRequestFactory().searchRequest(query, clazz, index);
+    }
+
+    /**
+     * 转换search响应，文档转换、高亮、聚合等与ElasticsearchRestTemplate.search保持一致，用于缓存原始响应后重复转换
+     *
+     * @param restTemplate
+     * @param response
+     * @param clazz
+     * @param index
+     * @return
+     */
+    public static <T> SearchHits<T> searchHits(ElasticsearchRestTemplate restTemplate, SearchResponse response,
+                                               Class<T> clazz, IndexCoordinates index) {
+        AbstractElasticsearchTemplate.ReadDocumentCallback<T> documentCallback =
+                restTemplate.new ReadDocumentCallback<>(restTemplate.getElasticsearchConverter(), clazz, index);
+        AbstractElasticsearchTemplate.ReadSearchDocumentResponseCallback<T> callback =
+                restTemplate.new ReadSearchDocumentResponseCallback<>(clazz, index);
+        return callback.doWith(SearchDocumentResponseBuilder.from(response,
+                restTemplate.getEntityCreator(documentCallback)));
+    }
+
+    /**
+     * 获取ElasticsearchRestTemplate上配置的刷新策略，未配置返回null
+     *
+     * @param restTemplate
+     * @return
+     */
+    @Nullable
+    public static WriteRequest.RefreshPolicy refreshPolicy(ElasticsearchRestTemplate restTemplate) {
+        RefreshPolicy refreshPolicy = restTemplate.getRefreshPolicy();
+        return refreshPolicy == null ? null : RequestFactory.toElasticsearchRefreshPolicy(refreshPolicy);
+    }
+}
@@ -1,27 +1,44 @@
 package org.springframework.data.elasticsearch.core;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.common.settings.Settings;
 import org.springframework.data.elasticsearch.core.document.Document;
 import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
 import org.springframework.lang.Nullable;
 
 /**
  *
- * 重写doPutMapping，修改为public
+ * 重写doPutMapping，修改为public；
+ * 补充索引动态配置的查询、修改及强制合并，用于批量导入时临时调整索引配置；
+ * 补充别名查询及切换，用于索引迁移
  *
  * @authro LiuLiLiang
  * @date 2022-10-11 17:15
  */
 public class MyRestIndexTemplate extends RestIndexTemplate {
+    private final ElasticsearchRestTemplate restTemplate;
 
     public MyRestIndexTemplate(ElasticsearchRestTemplate restTemplate, Class<?> boundClass) {
         super(restTemplate, boundClass);
+        this.restTemplate = restTemplate;
     }
 
     public MyRestIndexTemplate(ElasticsearchRestTemplate restTemplate,
                                IndexCoordinates boundIndex) {
         super(restTemplate, boundIndex);
+        this.restTemplate = restTemplate;
     }
 
     @Override
@@ -43,4 +60,87 @@ public class MyRestIndexTemplate extends RestIndexTemplate {
     public boolean doCreate(IndexCoordinates index, Map<String, Object> settings, @Nullable Document mapping){
         return super.doCreate(index,settings,mapping);
     }
+
+    @Override
+    public void doRefresh(IndexCoordinates index) {
+        super.doRefresh(index);
+    }
+
+    /**
+     * 获取索引上显式设置的配置项，未设置的返回null
+     *
+     * @param index
+     * @param keys  配置项，如index.refresh_interval
+     * @return
+     */
+    public Map<String, String> getIndexSettings(IndexCoordinates index, String... keys) {
+        GetSettingsRequest request = new GetSettingsRequest().indices(index.getIndexNames()).names(keys);
+        GetSettingsResponse response = restTemplate.execute(
+                client -> client.indices().getSettings(request, RequestOptions.DEFAULT));
+        // 传入别名时返回的是实际索引的配置
+        Settings indexSettings = response.getIndexToSettings().isEmpty() ? Settings.EMPTY
+                : response.getIndexToSettings().values().iterator().next();
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String key : keys) {
+            settings.put(key, indexSettings.get(key));
+        }
+        return settings;
+    }
+
+    /**
+     * 修改索引动态配置，值为null表示恢复为es默认值
+     *
+     * @param index
+     * @param settings
+     * @return
+     */
+    public boolean updateIndexSettings(IndexCoordinates index, Map<String, Object> settings) {
+        UpdateSettingsRequest request = new UpdateSettingsRequest(index.getIndexNames()).settings(settings);
+        return restTemplate.execute(
+                client -> client.indices().putSettings(request, RequestOptions.DEFAULT).isAcknowledged());
+    }
+
+    /**
+     * 强制合并段
+     *
+     * @param index
+     * @param maxNumSegments 合并后最大段数
+     */
+    public void forceMerge(IndexCoordinates index, int maxNumSegments) {
+        ForceMergeRequest request = new ForceMergeRequest(index.getIndexNames()).maxNumSegments(maxNumSegments);
+        restTemplate.execute(client -> client.indices().forcemerge(request, RequestOptions.DEFAULT));
+    }
+
+    /**
+     * 获取别名指向的索引，别名不存在返回空集合
+     *
+     * @param alias
+     * @return
+     */
+    public Set<String> getAliasIndices(String alias) {
+        GetAliasesRequest request = new GetAliasesRequest(alias);
+        GetAliasesResponse response = restTemplate.execute(
+                client -> client.indices().getAlias(request, RequestOptions.DEFAULT));
+        return response.getAliases().keySet();
+    }
+
+    /**
+     * 原子切换别名到新索引
+     *
+     * @param alias
+     * @param oldIndex       别名原来指向的索引，为null时只添加别名
+     * @param newIndex       新索引
+     * @param removeOldIndex 是否同时删除原索引，原索引与别名同名时必须删除
+     * @return
+     */
+    public boolean swapAlias(String alias, @Nullable String oldIndex, String newIndex, boolean removeOldIndex) {
+        IndicesAliasesRequest request = new IndicesAliasesRequest();
+        if (oldIndex != null) {
+            request.addAliasAction(removeOldIndex ? IndicesAliasesRequest.AliasActions.removeIndex().index(oldIndex)
+                    : IndicesAliasesRequest.AliasActions.remove().index(oldIndex).alias(alias));
+        }
+        request.addAliasAction(IndicesAliasesRequest.AliasActions.add().index(newIndex).alias(alias));
+        return restTemplate.execute(
+                client -> client.indices().updateAliases(request, RequestOptions.DEFAULT).isAcknowledged());
+    }
 }
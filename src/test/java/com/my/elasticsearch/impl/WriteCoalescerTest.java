@@ -0,0 +1,162 @@
+package com.my.elasticsearch.impl;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 同一文档写入合并规则
+ *
+ * @authro nantian
+ * @date 2022-11-14 17:20
+ */
+public class WriteCoalescerTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final List<DocWriteRequest<?>> sent = new CopyOnWriteArrayList<>();
+
+    private WriteCoalescer coalescer(int maxPending) {
+        return coalescer(sent::add, maxPending);
+    }
+
+    private static WriteCoalescer coalescer(Consumer<DocWriteRequest<?>> downstream, int maxPending) {
+        // 窗口足够长，只由测试触发发送
+        return new WriteCoalescer(downstream, OBJECT_MAPPER, TimeUnit.HOURS.toMillis(1), maxPending);
+    }
+
+    private static IndexRequest index(String id, String source) {
+        return new IndexRequest("app_student").id(id).source(source, XContentType.JSON);
+    }
+
+    private static UpdateRequest update(String id, String doc) {
+        return new UpdateRequest("app_student", id).doc(doc, XContentType.JSON);
+    }
+
+    private static String source(BytesReference source) throws Exception {
+        return OBJECT_MAPPER.readTree(BytesReference.toBytes(source)).toString();
+    }
+
+    @Test
+    public void testIndexAndUpdateMerged() throws Exception {
+        WriteCoalescer coalescer = coalescer(100);
+        coalescer.add(index("1", "{\"name\":\"zs\",\"address\":{\"city\":\"bj\"}}"));
+        coalescer.add(update("1", "{\"age\":10,\"address\":{\"street\":\"cy\"}}"));
+        coalescer.drain();
+        Assert.assertEquals(1, sent.size());
+        IndexRequest request = (IndexRequest) sent.get(0);
+        Assert.assertEquals("{\"name\":\"zs\",\"address\":{\"city\":\"bj\",\"street\":\"cy\"},\"age\":10}",
+                source(request.source()));
+        coalescer.close();
+    }
+
+    @Test
+    public void testUpdatesMerged() throws Exception {
+        WriteCoalescer coalescer = coalescer(100);
+        coalescer.add(update("1", "{\"name\":\"zs\"}"));
+        coalescer.add(update("1", "{\"age\":10}").docAsUpsert(true));
+        coalescer.drain();
+        Assert.assertEquals(1, sent.size());
+        UpdateRequest request = (UpdateRequest) sent.get(0);
+        Assert.assertEquals("{\"name\":\"zs\",\"age\":10}", source(request.doc().source()));
+        Assert.assertTrue(request.docAsUpsert());
+        coalescer.close();
+    }
+
+    @Test
+    public void testDeleteSupersedes() {
+        WriteCoalescer coalescer = coalescer(100);
+        coalescer.add(index("1", "{\"name\":\"zs\"}"));
+        coalescer.add(update("1", "{\"age\":10}"));
+        coalescer.add(new DeleteRequest("app_student", "1"));
+        coalescer.drain();
+        Assert.assertEquals(1, sent.size());
+        Assert.assertTrue(sent.get(0) instanceof DeleteRequest);
+        coalescer.close();
+    }
+
+    @Test
+    public void testUpdateAfterDelete() {
+        WriteCoalescer coalescer = coalescer(100);
+        coalescer.add(new DeleteRequest("app_student", "1"));
+        coalescer.add(update("1", "{\"age\":10}"));
+        // delete无法合并，先发送
+        Assert.assertEquals(1, sent.size());
+        Assert.assertTrue(sent.get(0) instanceof DeleteRequest);
+        coalescer.drain();
+        Assert.assertEquals(2, sent.size());
+        Assert.assertTrue(sent.get(1) instanceof UpdateRequest);
+        coalescer.close();
+    }
+
+    @Test
+    public void testRoutingNotMerged() {
+        WriteCoalescer coalescer = coalescer(100);
+        coalescer.add(index("1", "{\"name\":\"zs\"}").routing("1"));
+        coalescer.add(index("1", "{\"name\":\"ls\"}").routing("2"));
+        coalescer.add(index("1", "{\"name\":\"ww\"}"));
+        coalescer.drain();
+        Assert.assertEquals(3, sent.size());
+        coalescer.close();
+    }
+
+    @Test
+    public void testMaxPending() {
+        WriteCoalescer coalescer = coalescer(2);
+        coalescer.add(index("1", "{}"));
+        Assert.assertTrue(sent.isEmpty());
+        coalescer.add(index("2", "{}"));
+        Assert.assertEquals(2, sent.size());
+        coalescer.close();
+
+        // 未指定上限时使用默认上限
+        sent.clear();
+        WriteCoalescer unbounded = coalescer(0);
+        for (int i = 0; i < WriteCoalescer.DEFAULT_MAX_PENDING; i++) {
+            unbounded.add(index(String.valueOf(i), "{}"));
+        }
+        Assert.assertEquals(WriteCoalescer.DEFAULT_MAX_PENDING, sent.size());
+        unbounded.close();
+    }
+
+    @Test
+    public void testAddNotBlockedBySend() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WriteCoalescer coalescer = coalescer(request -> {
+            if ("block".equals(request.id())) {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            sent.add(request);
+        }, 2);
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+            coalescer.add(index("block", "{}"));
+            coalescer.add(index("2", "{}"));
+        });
+        Assert.assertTrue(sending.await(10, TimeUnit.SECONDS));
+        // 下游阻塞时其它线程仍可暂存
+        CompletableFuture.runAsync(() -> coalescer.add(index("3", "{}"))).get(10, TimeUnit.SECONDS);
+        release.countDown();
+        blocked.get(10, TimeUnit.SECONDS);
+        coalescer.close();
+        Assert.assertEquals(3, sent.size());
+        Assert.assertEquals("block", sent.get(0).id());
+    }
+}
@@ -0,0 +1,303 @@
+package com.my.elasticsearch.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.my.elasticsearch.model.MyEsSpoolStats;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 本地写入暂存的追加、恢复及重放，es请求由测试替换
+ *
+ * @authro nantian
+ * @date 2022-11-17 15:40
+ */
+public class WriteSpoolTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("es-spool");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Collections.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static IndexRequest index(String id) {
+        return new IndexRequest("app_student").id(id).source("{\"id\":" + id + "}", XContentType.JSON);
+    }
+
+    private static BulkItemResponse success(int i, DocWriteRequest<?> request) {
+        return BulkItemResponse.success(i, request.opType(),
+                new IndexResponse(new ShardId(request.index(), "_na_", 0), "_doc", request.id(), 1, 1, 1, true));
+    }
+
+    private static BulkItemResponse failure(int i, DocWriteRequest<?> request, Exception cause) {
+        return BulkItemResponse.failure(i, request.opType(),
+                new BulkItemResponse.Failure(request.index(), "_doc", request.id(), cause));
+    }
+
+    private static BulkResponse succeed(BulkRequest request) {
+        List<DocWriteRequest<?>> requests = request.requests();
+        BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = success(i, requests.get(i));
+        }
+        return new BulkResponse(items, 1);
+    }
+
+    /**
+     * 从第rejectFrom条开始被拒绝(429)
+     */
+    private static Function<BulkRequest, BulkResponse> rejectFrom(int rejectFrom) {
+        return request -> {
+            List<DocWriteRequest<?>> requests = request.requests();
+            BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = i < rejectFrom ? success(i, requests.get(i))
+                        : failure(i, requests.get(i), new EsRejectedExecutionException("rejected"));
+            }
+            return new BulkResponse(items, 1);
+        };
+    }
+
+    private Path segment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("spool-")).findFirst().get();
+        }
+    }
+
+    private long quarantined() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("quarantine-")).count();
+        }
+    }
+
+    @Test
+    public void testAppendAndRecover() throws IOException {
+        TestSpool spool = new TestSpool(directory, 10);
+        Assert.assertFalse(spool.appendIfPending(Collections.singletonList(index("0"))));
+        spool.append(Arrays.asList(index("1"), index("2")));
+        Assert.assertTrue(spool.appendIfPending(Collections.singletonList(new DeleteRequest("app_student", "1"))));
+        Assert.assertEquals(3, spool.getStats().getPendingRecords());
+        spool.close();
+
+        TestSpool recovered = new TestSpool(directory, 10);
+        Assert.assertEquals(3, recovered.getStats().getPendingRecords());
+        recovered.replay();
+        Assert.assertEquals(Arrays.asList("INDEX 1", "INDEX 2", "DELETE 1"), recovered.sent);
+        MyEsSpoolStats stats = recovered.getStats();
+        Assert.assertEquals(0, stats.getPendingRecords());
+        Assert.assertEquals(3, stats.getReplayedTotal());
+        Assert.assertEquals(0, stats.getStuckReplays());
+        recovered.close();
+    }
+
+    @Test
+    public void testTornTailTruncated() throws IOException {
+        TestSpool spool = new TestSpool(directory, 10);
+        spool.append(Arrays.asList(index("1"), index("2")));
+        spool.close();
+        Path segment = segment();
+        long size = Files.size(segment);
+        // 写入一半的记录：长度100，只有10字节数据
+        ByteBuffer torn = ByteBuffer.allocate(18).putInt(100).putInt(0).put(new byte[10]);
+        torn.flip();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(torn);
+        }
+
+        TestSpool recovered = new TestSpool(directory, 10);
+        Assert.assertEquals(2, recovered.getStats().getPendingRecords());
+        Assert.assertEquals(size, Files.size(segment));
+        Assert.assertEquals(1, quarantined());
+        recovered.replay();
+        Assert.assertEquals(Arrays.asList("INDEX 1", "INDEX 2"), recovered.sent);
+        recovered.close();
+    }
+
+    @Test
+    public void testPartialCommit() throws IOException {
+        TestSpool spool = new TestSpool(directory, 10);
+        spool.append(Arrays.asList(index("1"), index("2"), index("3"), index("4")));
+        // 第1条映射失败丢弃，第2条成功，第3条起被拒绝
+        spool.bulk = request -> {
+            BulkResponse response = rejectFrom(2).apply(request);
+            BulkItemResponse[] items = response.getItems();
+            items[0] = failure(0, request.requests().get(0), new MapperParsingException("failed to parse"));
+            return new BulkResponse(items, 1);
+        };
+        spool.replay();
+        MyEsSpoolStats stats = spool.getStats();
+        Assert.assertEquals(2, stats.getPendingRecords());
+        Assert.assertEquals(1, stats.getReplayedTotal());
+        Assert.assertEquals(1, stats.getDroppedTotal());
+
+        spool.bulk = WriteSpoolTest::succeed;
+        spool.sent.clear();
+        spool.replay();
+        Assert.assertEquals(Arrays.asList("INDEX 3", "INDEX 4"), spool.sent);
+        Assert.assertEquals(0, spool.getStats().getPendingRecords());
+        spool.close();
+    }
+
+    @Test
+    public void testCheckpointReload() throws IOException {
+        TestSpool spool = new TestSpool(directory, 10);
+        spool.append(Arrays.asList(index("1"), index("2"), index("3"), index("4")));
+        spool.bulk = rejectFrom(2);
+        spool.replay();
+        Assert.assertEquals(2, spool.getStats().getPendingRecords());
+        spool.close();
+
+        TestSpool recovered = new TestSpool(directory, 10);
+        Assert.assertEquals(2, recovered.getStats().getPendingRecords());
+        recovered.replay();
+        Assert.assertEquals(Arrays.asList("INDEX 3", "INDEX 4"), recovered.sent);
+        Assert.assertEquals(0, recovered.getStats().getPendingRecords());
+        recovered.close();
+    }
+
+    @Test
+    public void testUndecodableRecordSkipped() throws IOException {
+        // 校验正确但无法解析的记录
+        byte[] payload = {9, 9, 9};
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length).putInt(payload.length)
+                .putInt((int) crc.getValue()).put(payload);
+        Files.write(directory.resolve(String.format("spool-%020d.log", 1)), record.array());
+
+        TestSpool spool = new TestSpool(directory, 10);
+        Assert.assertEquals(1, spool.getStats().getPendingRecords());
+        spool.append(Collections.singletonList(index("1")));
+        spool.replay();
+        Assert.assertEquals(Collections.singletonList("INDEX 1"), spool.sent);
+        MyEsSpoolStats stats = spool.getStats();
+        Assert.assertEquals(0, stats.getPendingRecords());
+        Assert.assertEquals(1, stats.getDroppedTotal());
+        Assert.assertEquals(1, quarantined());
+        spool.close();
+    }
+
+    @Test
+    public void testCorruptedRecordQuarantined() throws IOException {
+        TestSpool spool = new TestSpool(directory, 10);
+        spool.append(Arrays.asList(index("1"), index("2"), index("3")));
+        Path segment = segment();
+        long recordBytes = Files.size(segment) / 3;
+        // 破坏第2条记录的数据，之后的记录边界不可信
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f}), recordBytes + 12);
+        }
+        spool.replay();
+        Assert.assertEquals(Collections.singletonList("INDEX 1"), spool.sent);
+        MyEsSpoolStats stats = spool.getStats();
+        Assert.assertEquals(0, stats.getPendingRecords());
+        Assert.assertEquals(2, stats.getDroppedTotal());
+        Assert.assertEquals(1, quarantined());
+
+        spool.append(Collections.singletonList(index("4")));
+        spool.replay();
+        Assert.assertEquals(Arrays.asList("INDEX 1", "INDEX 4"), spool.sent);
+        spool.close();
+    }
+
+    @Test
+    public void testBadRequestSplitsBatch() throws IOException {
+        TestSpool spool = new TestSpool(directory, 10);
+        spool.append(Arrays.asList(index("1"), index("2"), index("3"), index("4"), index("5")));
+        // 包含第3条的请求整体被拒绝(413)
+        spool.bulk = request -> {
+            if (request.requests().stream().anyMatch(r -> "3".equals(r.id()))) {
+                throw new ElasticsearchStatusException("request too large", RestStatus.REQUEST_ENTITY_TOO_LARGE);
+            }
+            return succeed(request);
+        };
+        spool.replay();
+        Assert.assertEquals(Arrays.asList("INDEX 1", "INDEX 2", "INDEX 4", "INDEX 5"), spool.sent);
+        MyEsSpoolStats stats = spool.getStats();
+        Assert.assertEquals(0, stats.getPendingRecords());
+        Assert.assertEquals(4, stats.getReplayedTotal());
+        Assert.assertEquals(1, stats.getDroppedTotal());
+        spool.close();
+    }
+
+    @Test
+    public void testStuckReplays() throws IOException {
+        TestSpool spool = new TestSpool(directory, 10);
+        spool.append(Collections.singletonList(index("1")));
+        spool.available = false;
+        spool.replay();
+        spool.replay();
+        Assert.assertEquals(2, spool.getStats().getStuckReplays());
+
+        spool.bulk = rejectFrom(0);
+        spool.available = true;
+        spool.replay();
+        Assert.assertEquals(3, spool.getStats().getStuckReplays());
+
+        spool.bulk = WriteSpoolTest::succeed;
+        spool.replay();
+        Assert.assertEquals(0, spool.getStats().getStuckReplays());
+        Assert.assertEquals(0, spool.getStats().getPendingRecords());
+        spool.close();
+    }
+
+    private static class TestSpool extends WriteSpool {
+        private final List<String> sent = new ArrayList<>();
+        private volatile Function<BulkRequest, BulkResponse> bulk = WriteSpoolTest::succeed;
+        private volatile boolean available = true;
+
+        TestSpool(Path directory, int replayBatchSize) {
+            super(null, directory.toString(), 0, replayBatchSize, 3600);
+        }
+
+        @Override
+        boolean ping() {
+            return available;
+        }
+
+        @Override
+        BulkResponse send(BulkRequest bulkRequest) {
+            BulkResponse response = bulk.apply(bulkRequest);
+            BulkItemResponse[] items = response.getItems();
+            sent.addAll(Arrays.stream(items).filter(item -> !item.isFailed())
+                    .map(item -> item.getOpType() + " " + item.getId()).collect(Collectors.toList()));
+            return response;
+        }
+    }
+}
@@ -1,21 +1,38 @@
 package com.my.es.test;
 
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 
 import com.my.elasticsearch.MyEsService;
+import com.my.elasticsearch.impl.MyEsBulkWriterImpl;
 import com.my.es.test.model.Shop;
 import com.my.es.test.model.Student;
+import com.my.elasticsearch.model.MyEsBulkItemResult;
+import com.my.elasticsearch.model.MyEsBulkSummary;
+import com.my.elasticsearch.model.MyEsByQueryOptions;
 import com.my.elasticsearch.model.MyEsSearchRequest;
+import com.my.elasticsearch.model.MyEsTaskStatus;
+import com.my.elasticsearch.util.EsTenantUtil;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
 import org.assertj.core.util.Lists;
+import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.MatchQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.script.Script;
 import org.junit.Assert;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,7 +42,10 @@ import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
 import org.springframework.data.elasticsearch.core.IndexedObjectInformation;
+import org.springframework.data.elasticsearch.core.MyRestIndexTemplate;
 import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.ByQueryResponse;
 import org.springframework.data.elasticsearch.core.query.UpdateResponse;
 import org.springframework.data.elasticsearch.core.query.UpdateResponse.Result;
 
@@ -43,6 +63,18 @@ public class MyEsServiceTest {
     @Autowired
     private ElasticsearchRestTemplate elasticsearchRestTemplate;
 
+    @Autowired
+    private RestHighLevelClient restHighLevelClient;
+
+    private IndexCoordinates studentIndex() {
+        return IndexCoordinates.of(EsTenantUtil.getTenantIndex(
+                elasticsearchRestTemplate.getIndexCoordinatesFor(Student.class).getIndexName()));
+    }
+
+    private void refreshStudentIndex() {
+        elasticsearchRestTemplate.indexOps(studentIndex()).refresh();
+    }
+
     @Test
     public void delIndex() {
         boolean result = myEsService.deleteIndexIfExist(Student.class);
@@ -69,6 +101,14 @@ public class MyEsServiceTest {
         Assert.assertTrue(result);
     }
 
+    @Test
+    public void migrateIndex() {
+        long count = myEsService.search(Student.class, QueryBuilders.matchAllQuery(), null).getTotalHits();
+        String index = myEsService.migrateIndex(Student.class);
+        System.out.println("migrateIndex result:" + index);
+        Assert.assertEquals(count, myEsService.search(Student.class, QueryBuilders.matchAllQuery(), null).getTotalHits());
+    }
+
     @Test
     public void createIndex() {
         boolean exist = myEsService.existIndex(Student.class);
@@ -144,10 +184,42 @@ public class MyEsServiceTest {
         Student student7 = new Student(1007, "zs1007", "测试索引添加4", "哈哈bbaa", "三年二班刘重生北京", 60, new Date(), null);
         List list = Lists.newArrayList(student1, student2, student3, student4, student5, student6, student7);
         List<IndexedObjectInformation> result = myEsService.bulkAddIndexDoc(Student.class, list);
-        System.out.println("bulkAddIndexDoc result:" + JSONObject.toJSONString(result));
+        System.out.println("bulkAddIndexDoc result:" + JSONValue.toJSONString(result));
         Assert.assertNotNull(result.size() > 0);
     }
 
+    @Test
+    public void bulkAddIndexDocStream() {
+        Stream<Student> students = IntStream.range(0, 20000).mapToObj(
+                i -> new Student(3000 + i, "stream" + i, "流式批量添加", "哈哈", "三年二班", i % 100, new Date(), null));
+        MyEsBulkSummary summary = myEsService.bulkAddIndexDoc(Student.class, students);
+        Assert.assertEquals(20000, summary.getTotal());
+        Assert.assertEquals(20000, summary.getSucceeded());
+        Assert.assertFalse(summary.hasFailures());
+        Assert.assertEquals("stream0", myEsService.findById("3000", Student.class).getName());
+        Assert.assertEquals("stream19999", myEsService.findById("22999", Student.class).getName());
+    }
+
+    @Test
+    public void bulkLoad() {
+        Stream<Student> students = IntStream.range(0, 20000).mapToObj(
+                i -> new Student(3000 + i, "load" + i, "大批量导入", "哈哈", "三年二班", i % 100, new Date(), null));
+        myEsService.createIndexIfNotExist(Student.class);
+        IndexCoordinates index = studentIndex();
+        MyRestIndexTemplate indexTemplate = new MyRestIndexTemplate(elasticsearchRestTemplate, Student.class);
+        Map<String, String> original = indexTemplate.getIndexSettings(index,
+                "index.refresh_interval", "index.number_of_replicas");
+
+        MyEsBulkSummary summary = myEsService.bulkLoad(Student.class, students, false);
+        Assert.assertFalse(summary.hasFailures());
+        Assert.assertEquals(20000, summary.getTotal());
+        Assert.assertEquals(20000, summary.getSucceeded());
+        // 导入结束后恢复原设置
+        Assert.assertEquals(original, indexTemplate.getIndexSettings(index,
+                "index.refresh_interval", "index.number_of_replicas"));
+        Assert.assertEquals("load19999", myEsService.findById("22999", Student.class).getName());
+    }
+
     @Test
     public void bulkSaveIndexDoc() {
         Student student1 = new Student(1020, "zs0", "测试索引添加0", "哈哈33ss", "三年二班刘先生中国", 11, new Date(), null);
@@ -162,14 +234,93 @@ public class MyEsServiceTest {
         }
 
         List<IndexedObjectInformation> result = myEsService.bulkSaveIndexDoc(Student.class, list);
-        System.out.println("bulkAddIndexDoc result:" + JSONObject.toJSONString(result));
+        System.out.println("bulkAddIndexDoc result:" + JSONValue.toJSONString(result));
         Assert.assertNotNull(result.size() > 0);
     }
 
+    @Test
+    public void bulkDelIndexDocWithResult() {
+        myEsService.bulkAddIndexDoc(Student.class, Lists.newArrayList(
+                new Student(1020, "zs0", "测试批量删除0", "哈哈", "三年二班", 11, new Date(), null),
+                new Student(1021, "zs1", "测试批量删除1", "哈哈", "三年二班", 12, new Date(), null)));
+        List<MyEsBulkItemResult> result = myEsService.bulkDelIndexDocWithResult(Student.class,
+                Lists.newArrayList("1020", "1021", "999999"));
+        Assert.assertEquals(3, result.size());
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(MyEsBulkItemResult.Result.DELETED, result.get(i).getResult());
+            Assert.assertEquals(200, result.get(i).getStatus());
+            Assert.assertFalse(result.get(i).isFailed());
+        }
+        // 不存在的文档返回NOT_FOUND，不算失败
+        Assert.assertEquals("999999", result.get(2).getId());
+        Assert.assertEquals(MyEsBulkItemResult.Result.NOT_FOUND, result.get(2).getResult());
+        Assert.assertEquals(404, result.get(2).getStatus());
+        Assert.assertFalse(result.get(2).isFailed());
+        Assert.assertNull(myEsService.findById("1020", Student.class));
+    }
+
+    @Test
+    public void updateByQuery() {
+        myEsService.bulkAddIndexDoc(Student.class, IntStream.range(0, 3).mapToObj(
+                i -> new Student(1100 + i, "ubq", "按查询更新", "哈哈", "三年二班", 10, new Date(), null))
+                .collect(Collectors.toList()));
+        refreshStudentIndex();
+        ByQueryResponse response = myEsService.updateByQuery(Student.class, QueryBuilders.termQuery("name", "ubq"),
+                new Script("ctx._source.age += 1"));
+        Assert.assertTrue(response.getFailures().isEmpty());
+        Assert.assertEquals(3, response.getTotal());
+        Assert.assertEquals(3, response.getUpdated());
+        Assert.assertEquals(Integer.valueOf(11), myEsService.findById("1100", Student.class).getAge());
+    }
+
+    @Test
+    public void submitDeleteByQuery() {
+        MyEsByQueryOptions options = MyEsByQueryOptions.defaultOptions();
+        options.setRequestsPerSecond(500f);
+        myEsService.bulkAddIndexDoc(Student.class, IntStream.range(0, 5).mapToObj(
+                i -> new Student(1200 + i, "dbq", "按查询删除", "哈哈", "三年二班", 10, new Date(), null))
+                .collect(Collectors.toList()));
+        refreshStudentIndex();
+        String taskId = myEsService.submitDeleteByQuery(Student.class, QueryBuilders.termQuery("name", "dbq"),
+                options, false);
+        MyEsTaskStatus status = myEsService.waitForTask(taskId, 60, TimeUnit.SECONDS);
+        Assert.assertTrue(status.isCompleted());
+        Assert.assertFalse(status.isCancelled());
+        Assert.assertEquals(5, status.getTotal());
+        Assert.assertEquals(5, status.getDeleted());
+        Assert.assertNull(myEsService.findById("1200", Student.class));
+    }
+
+    @Test
+    public void bulkWriter() {
+        List<MyEsBulkItemResult> failures = new CopyOnWriteArrayList<>();
+        // 同步发送，flush返回时已写入
+        MyEsBulkWriterImpl bulkWriter = new MyEsBulkWriterImpl(elasticsearchRestTemplate, restHighLevelClient, 1000, 5,
+                0, 0, 10, failures::add);
+        bulkWriter.setMyEsService(myEsService);
+        for (int i = 0; i < 100; i++) {
+            bulkWriter.add(new Student(2000 + i, "bulk" + i, "异步批量写入", "哈哈", "三年二班", i, new Date(), null));
+        }
+        bulkWriter.delete("2000", Student.class);
+        Student missing = new Student();
+        missing.setId(2999999);
+        missing.setAge(1);
+        bulkWriter.update(missing);
+        bulkWriter.flush();
+        bulkWriter.close();
+
+        Assert.assertNull(myEsService.findById("2000", Student.class));
+        Assert.assertEquals("bulk99", myEsService.findById("2099", Student.class).getName());
+        // 更新不存在的文档失败，回调failureHandler
+        Assert.assertEquals(1, failures.size());
+        Assert.assertEquals("2999999", failures.get(0).getId());
+        Assert.assertEquals(MyEsBulkItemResult.Result.FAILED, failures.get(0).getResult());
+    }
+
     @Test
     public void getByIdStudent() {
         Student student = myEsService.findById("1000", Student.class);
-        System.out.println(JSONObject.toJSONString(student));
+        System.out.println(JSONValue.toJSONString(student));
     }
 
     @Test
@@ -179,23 +330,34 @@ public class MyEsServiceTest {
         student.setAge(30);
         student.setText("lisi");
         UpdateResponse.Result result = myEsService.updateDoc(student);
-        System.out.println("update result:" + JSONObject.toJSONString(result));
+        System.out.println("update result:" + JSONValue.toJSONString(result));
         Student student2 = myEsService.findById("1000", Student.class);
-        System.out.println(JSONObject.toJSONString(student2));
+        System.out.println(JSONValue.toJSONString(student2));
         Assert.assertTrue(Result.UPDATED == result);
     }
 
+    @Test
+    public void updateDocAsUpsert() {
+        Student student = new Student();
+        student.setId(1100);
+        student.setName("upsert");
+        student.setAge(18);
+        UpdateResponse.Result result = myEsService.updateDoc(student, true, 3);
+        System.out.println("upsert result:" + result);
+        Assert.assertTrue(Result.CREATED == result || Result.UPDATED == result || Result.NOOP == result);
+    }
+
     @Test
     public void searchAll() {
         SearchHits<Student> hits = myEsService.search(Student.class, QueryBuilders.matchAllQuery(), null);
-        System.out.println(JSONObject.toJSONString(hits));
+        System.out.println(JSONValue.toJSONString(hits));
     }
 
     @Test
     public void searchBySingleField() {
         QueryBuilder queryBuilder = QueryBuilders.matchQuery("name", "zs0");
         SearchHits<Student> hits = myEsService.search(Student.class, queryBuilder, null);
-        System.out.println(JSONObject.toJSONString(hits));
+        System.out.println(JSONValue.toJSONString(hits));
     }
 
     @Test
@@ -228,6 +390,57 @@ public class MyEsServiceTest {
         request.setPageable(pageRequest);
 
         SearchHits<Student> hits = myEsService.search(Student.class, request);
-        System.out.println(JSONObject.toJSONString(hits));
+        System.out.println(JSONValue.toJSONString(hits));
+    }
+
+    @Test
+    public void searchStream() {
+        myEsService.bulkAddIndexDoc(Student.class, IntStream.range(0, 250).mapToObj(
+                i -> new Student(1300 + i, "sst", "流式查询", "哈哈", "三年二班", i % 100, new Date(), null))
+                .collect(Collectors.toList()));
+        refreshStudentIndex();
+
+        MyEsSearchRequest request = new MyEsSearchRequest();
+        request.setFilterBuilder(QueryBuilders.termQuery("name", "sst"));
+        request.setPageable(PageRequest.of(0, 10, Sort.by(Direction.ASC, "age")));
+        // 每页100条，跨越多页
+        try (Stream<Student> stream = myEsService.searchStream(Student.class, request, 100, false)) {
+            List<Student> students = stream.collect(Collectors.toList());
+            Assert.assertEquals(250, students.size());
+            Assert.assertEquals(250, students.stream().mapToLong(Student::getId).distinct().count());
+            for (int i = 1; i < students.size(); i++) {
+                Assert.assertTrue(students.get(i - 1).getAge() <= students.get(i).getAge());
+            }
+        }
+    }
+
+    @Test
+    public void export() {
+        List<Student> students = new ArrayList<>();
+        long count = myEsService.export(Student.class, QueryBuilders.rangeQuery("age").gte(0), students::add);
+        Assert.assertEquals(count, students.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rawCount = myEsService.exportRaw(Student.class, null, out);
+        System.out.println("exportRaw count:" + rawCount + ", bytes:" + out.size());
+    }
+
+    @Test
+    public void exportSlices() {
+        AtomicLong consumed = new AtomicLong();
+        long count = myEsService.export(Student.class, null, student -> consumed.incrementAndGet(), 0, false);
+        Assert.assertEquals(count, consumed.get());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long rawCount = myEsService.exportRaw(Student.class, null, out, 2, false);
+        Assert.assertEquals(count, rawCount);
+    }
+
+    @Test
+    public void findByIdsAsMap() {
+        List<String> ids = Lists.newArrayList("1000", "not-exist", "1001");
+        Map<String, Student> docs = myEsService.findByIdsAsMap(Student.class, ids, new String[]{"id", "name"}, false);
+        System.out.println(docs);
+        Assert.assertFalse(docs.containsKey("not-exist"));
     }
 }
@@ -0,0 +1,241 @@
+package com.my.es.test.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.my.elasticsearch.metadata.DocumentAccessor;
+import com.my.elasticsearch.processor.DocumentAccessorProcessor;
+import com.my.es.test.model.Student;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * 使用DocumentAccessorProcessor编译测试模型，校验生成的DocumentAccessor
+ *
+ * @authro nantian
+ * @date 2022-11-23 10:20
+ */
+public class DocumentAccessorProcessorTest {
+    private static final String LOMBOK_PROCESSOR = "lombok.launch.AnnotationProcessorHider$AnnotationProcessor";
+    private static Path output;
+    private static URLClassLoader classLoader;
+
+    @BeforeClass
+    public static void compile() throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assert.assertNotNull("test requires a JDK", compiler);
+        output = Files.createTempDirectory("es-accessor");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null,
+                StandardCharsets.UTF_8)) {
+            List<JavaFileObject> sources = new ArrayList<>();
+            for (JavaFileObject file : fileManager.getJavaFileObjects(
+                    new File("src/test/java/com/my/es/test/model/Student.java"))) {
+                sources.add(file);
+            }
+            sources.add(source("com.my.es.test.gen.FieldDoc", "package com.my.es.test.gen;\n"
+                    + "@org.springframework.data.elasticsearch.annotations.Document(indexName = \"gen_field\")\n"
+                    + "public class FieldDoc {\n"
+                    + "    @org.springframework.data.annotation.Id String id;\n"
+                    + "    @org.springframework.data.annotation.Version Long version;\n"
+                    + "    @com.my.elasticsearch.annotation.EsRouting Long customerId;\n"
+                    + "    com.my.elasticsearch.model.RelationModel relation;\n"
+                    + "}\n"));
+            sources.add(source("com.my.es.test.gen.GetterDoc", "package com.my.es.test.gen;\n"
+                    + "@org.springframework.data.elasticsearch.annotations.Document(indexName = \"gen_getter\")\n"
+                    + "public class GetterDoc {\n"
+                    + "    @org.springframework.data.annotation.Id private String id;\n"
+                    + "    public String getId() { return id; }\n"
+                    + "    public void setId(String id) { this.id = id; }\n"
+                    + "}\n"));
+            sources.add(source("com.my.es.test.gen.Outer", "package com.my.es.test.gen;\n"
+                    + "public class Outer {\n"
+                    + "    @org.springframework.data.elasticsearch.annotations.Document(indexName = \"gen_nested\")\n"
+                    + "    public static class Inner {\n"
+                    + "        @org.springframework.data.annotation.Id public String id;\n"
+                    + "    }\n"
+                    + "}\n"));
+            sources.add(source("com.my.es.test.gen.BaseDoc", "package com.my.es.test.gen;\n"
+                    + "@org.springframework.data.elasticsearch.annotations.Document(indexName = \"gen_base\")\n"
+                    + "public class BaseDoc {\n"
+                    + "    @org.springframework.data.annotation.Id protected String id;\n"
+                    + "}\n"));
+            sources.add(source("com.my.es.test.gen.ChildDoc", "package com.my.es.test.gen;\n"
+                    + "public class ChildDoc extends BaseDoc {\n"
+                    + "}\n"));
+            sources.add(source("com.my.es.test.gen.HiddenDoc", "package com.my.es.test.gen;\n"
+                    + "@org.springframework.data.elasticsearch.annotations.Document(indexName = \"gen_hidden\")\n"
+                    + "public class HiddenDoc {\n"
+                    + "    @org.springframework.data.annotation.Id private String id;\n"
+                    + "}\n"));
+            sources.add(source("com.my.es.test.gen.base.ProtectedGetterBase", "package com.my.es.test.gen.base;\n"
+                    + "public class ProtectedGetterBase {\n"
+                    + "    @org.springframework.data.annotation.Id private String id;\n"
+                    + "    protected String getId() { return id; }\n"
+                    + "}\n"));
+            sources.add(source("com.my.es.test.gen.ProtectedGetterDoc", "package com.my.es.test.gen;\n"
+                    + "@org.springframework.data.elasticsearch.annotations.Document(indexName = \"gen_protected\")\n"
+                    + "public class ProtectedGetterDoc extends com.my.es.test.gen.base.ProtectedGetterBase {\n"
+                    + "}\n"));
+            sources.add(source("com.my.es.test.gen.base.LombokProtectedBase", "package com.my.es.test.gen.base;\n"
+                    + "public class LombokProtectedBase {\n"
+                    + "    @lombok.Getter(lombok.AccessLevel.PROTECTED)\n"
+                    + "    @org.springframework.data.annotation.Id private String id;\n"
+                    + "}\n"));
+            sources.add(source("com.my.es.test.gen.LombokProtectedDoc", "package com.my.es.test.gen;\n"
+                    + "@org.springframework.data.elasticsearch.annotations.Document(indexName = \"gen_lombok\")\n"
+                    + "public class LombokProtectedDoc extends com.my.es.test.gen.base.LombokProtectedBase {\n"
+                    + "}\n"));
+
+            List<String> options = Arrays.asList("-d", output.toString(),
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-processor", LOMBOK_PROCESSOR + "," + DocumentAccessorProcessor.class.getName());
+            boolean success = compiler.getTask(null, fileManager, diagnostics, options, null, sources).call();
+            StringBuilder errors = new StringBuilder();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    errors.append(diagnostic).append('\n');
+                }
+            }
+            Assert.assertTrue(errors.toString(), success);
+        }
+        classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()},
+                DocumentAccessorProcessorTest.class.getClassLoader());
+    }
+
+    @AfterClass
+    public static void cleanup() throws IOException {
+        if (classLoader != null) {
+            classLoader.close();
+        }
+        if (output != null) {
+            try (Stream<Path> files = Files.walk(output)) {
+                files.sorted(Collections.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static JavaFileObject source(String className, String code) {
+        URI uri = URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension);
+        return new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DocumentAccessor<Object> accessor(String documentClassName) throws Exception {
+        Class<?> documentClass = classLoader.loadClass(documentClassName);
+        Class<?> accessorClass = classLoader.loadClass(DocumentAccessor.accessorClassName(documentClass));
+        return (DocumentAccessor<Object>) accessorClass.getDeclaredConstructor().newInstance();
+    }
+
+    private static Object newDocument(String documentClassName, String id) throws Exception {
+        Class<?> documentClass = classLoader.loadClass(documentClassName);
+        Object document = documentClass.getDeclaredConstructor().newInstance();
+        Class<?> owner = documentClass;
+        while (owner != null) {
+            try {
+                Field field = owner.getDeclaredField("id");
+                field.setAccessible(true);
+                field.set(document, id);
+                return document;
+            } catch (NoSuchFieldException e) {
+                owner = owner.getSuperclass();
+            }
+        }
+        throw new IllegalArgumentException(documentClassName + " has no id field");
+    }
+
+    @Test
+    public void testLombokGetter() throws Exception {
+        DocumentAccessor<Object> accessor = accessor(Student.class.getName());
+        Assert.assertEquals("app_student", accessor.getIndexName());
+        Assert.assertEquals("id", accessor.getIdFieldName());
+        Assert.assertEquals("version", accessor.getVersionFieldName());
+        Assert.assertNull(accessor.getRoutingFieldName());
+        Assert.assertTrue(accessor.getRelationFieldNames().isEmpty());
+
+        Student student = new Student(1000, "张三", "测试", "哈哈", "三年二班", 10, new Date(), 3L);
+        Assert.assertEquals(1000L, accessor.getId(student));
+        Assert.assertEquals(3L, accessor.getVersion(student));
+    }
+
+    @Test
+    public void testFieldAccess() throws Exception {
+        DocumentAccessor<Object> accessor = accessor("com.my.es.test.gen.FieldDoc");
+        Assert.assertEquals("gen_field", accessor.getIndexName());
+        Assert.assertEquals("version", accessor.getVersionFieldName());
+        Assert.assertEquals("customerId", accessor.getRoutingFieldName());
+        Assert.assertEquals(Collections.singletonList("relation"), accessor.getRelationFieldNames());
+
+        Object document = newDocument("com.my.es.test.gen.FieldDoc", "1");
+        Assert.assertEquals("1", accessor.getId(document));
+        Assert.assertNull(accessor.getRouting(document));
+        Assert.assertEquals(Collections.singletonList(null), accessor.getRelations(document));
+    }
+
+    @Test
+    public void testGetter() throws Exception {
+        DocumentAccessor<Object> accessor = accessor("com.my.es.test.gen.GetterDoc");
+        Assert.assertEquals("gen_getter", accessor.getIndexName());
+        Assert.assertNull(accessor.getVersionFieldName());
+        Assert.assertEquals("2", accessor.getId(newDocument("com.my.es.test.gen.GetterDoc", "2")));
+    }
+
+    @Test
+    public void testNestedClass() throws Exception {
+        DocumentAccessor<Object> accessor = accessor("com.my.es.test.gen.Outer$Inner");
+        Assert.assertEquals("gen_nested", accessor.getIndexName());
+        Assert.assertEquals("3", accessor.getId(newDocument("com.my.es.test.gen.Outer$Inner", "3")));
+    }
+
+    @Test
+    public void testInheritedDocument() throws Exception {
+        DocumentAccessor<Object> accessor = accessor("com.my.es.test.gen.ChildDoc");
+        Assert.assertEquals("gen_base", accessor.getIndexName());
+        Assert.assertEquals("4", accessor.getId(newDocument("com.my.es.test.gen.ChildDoc", "4")));
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void testUnreadableFieldSkipped() throws Exception {
+        // private字段且无getter，不生成，运行时回退到反射
+        accessor("com.my.es.test.gen.HiddenDoc");
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void testProtectedGetterInOtherPackageSkipped() throws Exception {
+        // 父类在其它包，protected getter在生成的访问器中不可见
+        accessor("com.my.es.test.gen.ProtectedGetterDoc");
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void testProtectedLombokGetterInOtherPackageSkipped() throws Exception {
+        accessor("com.my.es.test.gen.LombokProtectedDoc");
+    }
+}
@@ -0,0 +1,75 @@
+package com.my.es.test.util;
+
+import java.util.Date;
+
+import com.my.elasticsearch.annotation.EsRouting;
+import com.my.elasticsearch.cache.DocumentMetadataCache;
+import com.my.elasticsearch.metadata.DocumentMetadata;
+import com.my.elasticsearch.model.RelationModel;
+import com.my.es.test.model.Shop;
+import com.my.es.test.model.Student;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.Document;
+
+/**
+ * @authro nantian
+ * @date 2022-11-02 11:05
+ */
+public class DocumentMetadataTest {
+    @Test
+    public void testStudentMetadata() {
+        DocumentMetadata metadata = DocumentMetadataCache.get(Student.class);
+        Assert.assertSame(metadata, DocumentMetadataCache.get(Student.class));
+        Assert.assertEquals("app_student", metadata.getIndexName());
+        Assert.assertEquals("id", metadata.getIdFieldName());
+        Assert.assertTrue(metadata.hasVersionField());
+
+        Student student = new Student(1000, "张三", "测试", "哈哈", "三年二班", 10, new Date(), 3L);
+        Assert.assertEquals("1000", metadata.getIdValue(student));
+        Assert.assertEquals(Long.valueOf(3), metadata.getVersionValue(student));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVersion() {
+        Shop shop = new Shop(1, "shop", "text", 1);
+        DocumentMetadataCache.get(Shop.class).getVersionValue(shop);
+    }
+
+    @Test
+    public void testRouting() {
+        DocumentMetadata metadata = DocumentMetadataCache.get(CustomerOrder.class);
+        Assert.assertTrue(metadata.hasRoutingField());
+        CustomerOrder order = new CustomerOrder();
+        order.id = "1";
+        Assert.assertNull(metadata.getRoutingValue(order));
+        order.customerId = 88L;
+        Assert.assertEquals("88", metadata.getRoutingValue(order));
+
+        Assert.assertFalse(DocumentMetadataCache.get(Student.class).hasRoutingField());
+        Assert.assertNull(DocumentMetadataCache.get(Student.class).getRoutingValue(new Student()));
+    }
+
+    @Test
+    public void testJoinRouting() {
+        DocumentMetadata metadata = DocumentMetadataCache.get(CustomerOrder.class);
+        CustomerOrder order = new CustomerOrder();
+        order.id = "2";
+        order.relation = new RelationModel("order");
+        Assert.assertNull(metadata.getRoutingValue(order));
+        order.relation = new RelationModel("item", "1");
+        Assert.assertEquals("1", metadata.getRoutingValue(order));
+        order.customerId = 88L;
+        Assert.assertEquals("88", metadata.getRoutingValue(order));
+    }
+
+    @Document(indexName = "customer_order")
+    public static class CustomerOrder {
+        @Id
+        private String id;
+        @EsRouting
+        private Long customerId;
+        private RelationModel relation;
+    }
+}
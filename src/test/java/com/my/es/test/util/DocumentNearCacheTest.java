@@ -0,0 +1,108 @@
+package com.my.es.test.util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.my.elasticsearch.annotation.EsNearCache;
+import com.my.elasticsearch.cache.DocumentNearCache;
+import com.my.elasticsearch.model.MyEsNearCacheStats;
+import com.my.es.test.model.Student;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.data.elasticsearch.core.document.Document;
+
+/**
+ * @authro nantian
+ * @date 2022-11-21 14:30
+ */
+public class DocumentNearCacheTest {
+    @EsNearCache
+    static class HotItem {
+    }
+
+    private static Document doc(String id) {
+        Document document = Document.create();
+        document.setId(id);
+        document.put("name", "item" + id);
+        return document;
+    }
+
+    @Test
+    public void testEnabled() {
+        DocumentNearCache cache = new DocumentNearCache(100, 30, TimeUnit.SECONDS);
+        Assert.assertTrue(cache.isEnabled(HotItem.class));
+        Assert.assertFalse(cache.isEnabled(Student.class));
+
+        DocumentNearCache disabled = new DocumentNearCache(0, 30, TimeUnit.SECONDS);
+        Assert.assertFalse(disabled.isEnabled(HotItem.class));
+        disabled.put("item", "1", doc("1"), disabled.stamp("item", "1"));
+        Assert.assertNull(disabled.get("item", "1"));
+        Assert.assertNull(disabled.getStats());
+    }
+
+    @Test
+    public void testPutAndInvalidate() {
+        DocumentNearCache cache = new DocumentNearCache(100, 30, TimeUnit.SECONDS);
+        cache.put("item", "1", doc("1"), cache.stamp("item", "1"));
+        cache.put("item", "2", doc("2"), cache.stamp("item", "2"));
+        cache.put("other", "1", doc("1"), cache.stamp("other", "1"));
+        Assert.assertEquals("item1", cache.get("item", "1").get("name"));
+        Assert.assertNull(cache.get("item", "3"));
+
+        cache.invalidate(Arrays.asList(new UpdateRequest("item", "1"), new DeleteRequest("item", "3")));
+        Assert.assertNull(cache.get("item", "1"));
+        Assert.assertNotNull(cache.get("item", "2"));
+
+        cache.invalidateIndex("item");
+        Assert.assertNull(cache.get("item", "2"));
+        Assert.assertNotNull(cache.get("other", "1"));
+
+        MyEsNearCacheStats stats = cache.getStats();
+        Assert.assertEquals(3, stats.getHitCount());
+        Assert.assertEquals(3, stats.getMissCount());
+        Assert.assertEquals(1, stats.getSize());
+    }
+
+    @Test
+    public void testStalePutSkipped() {
+        DocumentNearCache cache = new DocumentNearCache(100, 30, TimeUnit.SECONDS);
+        // 查询es期间文档被更新，查询结果不能写入缓存
+        long stamp = cache.stamp("item", "1");
+        cache.invalidate("item", "1");
+        cache.put("item", "1", doc("1"), stamp);
+        Assert.assertNull(cache.get("item", "1"));
+
+        cache.put("item", "1", doc("1"), cache.stamp("item", "1"));
+        Assert.assertNotNull(cache.get("item", "1"));
+
+        // 查询es期间索引被整体失效
+        stamp = cache.stamp("item", "2");
+        cache.invalidateIndex("item");
+        cache.put("item", "2", doc("2"), stamp);
+        Assert.assertNull(cache.get("item", "2"));
+    }
+
+    @Test
+    public void testOtherDocumentWriteKeepsFill() {
+        DocumentNearCache cache = new DocumentNearCache(100, 30, TimeUnit.SECONDS);
+        // 查询es期间其它文档、其它索引的写入不影响写入缓存
+        long stamp = cache.stamp("item", "1");
+        cache.invalidate("item", "2");
+        cache.invalidate("other", "1");
+        cache.invalidateIndex("other");
+        cache.put("item", "1", doc("1"), stamp);
+        Assert.assertNotNull(cache.get("item", "1"));
+    }
+
+    @Test
+    public void testMaximumSize() {
+        DocumentNearCache cache = new DocumentNearCache(10, 30, TimeUnit.SECONDS);
+        for (int i = 0; i < 100; i++) {
+            cache.put("item", String.valueOf(i), doc(String.valueOf(i)), cache.stamp("item", String.valueOf(i)));
+        }
+        Assert.assertTrue(cache.getStats().getSize() <= 10);
+        Assert.assertTrue(cache.getStats().getEvictionCount() >= 90);
+    }
+}
@@ -0,0 +1,41 @@
+package com.my.es.test.util;
+
+import com.my.elasticsearch.util.EsDocDiffUtil;
+import com.my.es.test.model.Student;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @authro nantian
+ * @date 2022-11-11 10:40
+ */
+public class EsDocDiffUtilTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void testDiffChangedAndClearedFields() {
+        Student oldStudent = new Student(1000, "张三", "测试", "哈哈", "三年二班", 10, null, 1L);
+        Student newStudent = new Student(1000, "张三", "测试2", null, "三年二班", 10, null, 1L);
+        ObjectNode changed = EsDocDiffUtil.diff(oldStudent, newStudent);
+        Assert.assertEquals(2, changed.size());
+        Assert.assertEquals("测试2", changed.get("text").asText());
+        Assert.assertTrue(changed.get("desc").isNull());
+    }
+
+    @Test
+    public void testDiffNoChange() {
+        Student student = new Student(1000, "张三", "测试", "哈哈", "三年二班", 10, null, 1L);
+        Student copy = new Student(1000, "张三", "测试", "哈哈", "三年二班", 10, null, 1L);
+        Assert.assertEquals(0, EsDocDiffUtil.diff(student, copy).size());
+    }
+
+    @Test
+    public void testDiffNestedObject() throws Exception {
+        ObjectNode oldNode = (ObjectNode) objectMapper.readTree("{\"a\":{\"b\":1,\"c\":2},\"d\":[1,2],\"e\":1}");
+        ObjectNode newNode = (ObjectNode) objectMapper.readTree("{\"a\":{\"b\":1,\"c\":3},\"d\":[1]}");
+        ObjectNode changed = EsDocDiffUtil.diff(oldNode, newNode);
+        Assert.assertEquals("{\"a\":{\"c\":3},\"d\":[1],\"e\":null}", changed.toString());
+    }
+}
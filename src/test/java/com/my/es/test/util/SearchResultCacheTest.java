@@ -0,0 +1,115 @@
+package com.my.es.test.util;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.my.elasticsearch.cache.SearchResultCache;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @authro nantian
+ * @date 2022-11-22 15:20
+ */
+public class SearchResultCacheTest {
+    private static SearchResponse response(boolean shardFailed) {
+        return response(shardFailed, "zs");
+    }
+
+    private static SearchResponse response(boolean shardFailed, String name) {
+        SearchHit hit = new SearchHit(1, "1000", null, null, null);
+        hit.sourceRef(new BytesArray("{\"id\":1000,\"name\":\"" + name + "\"}"));
+        SearchHits hits = new SearchHits(new SearchHit[]{hit}, new TotalHits(1, TotalHits.Relation.EQUAL_TO), 1f);
+        return new SearchResponse(new InternalSearchResponse(hits, null, null, null, false, null, 1), null,
+                1, shardFailed ? 0 : 1, 0, 3, shardFailed ? new ShardSearchFailure[]{
+                new ShardSearchFailure(new IllegalStateException("shard failed"))} : ShardSearchFailure.EMPTY_ARRAY,
+                SearchResponse.Clusters.EMPTY);
+    }
+
+    private static String key(String name) {
+        return SearchResultCache.keyOf(new SearchRequest("app_student").source(
+                new SearchSourceBuilder().query(QueryBuilders.termQuery("name", name)).size(10)));
+    }
+
+    @Test
+    public void testKey() {
+        Assert.assertEquals(key("zs"), key("zs"));
+        Assert.assertNotEquals(key("zs"), key("ls"));
+    }
+
+    @Test
+    public void testPutAndInvalidate() {
+        SearchResultCache cache = new SearchResultCache(1024 * 1024, 30, TimeUnit.SECONDS, 0);
+        cache.put("app_student", key("zs"), response(false), cache.version("app_student"));
+        Assert.assertNotNull(cache.get("app_student", key("zs")));
+        Assert.assertNull(cache.get("app_student", key("ls")));
+        Assert.assertNull(cache.get("app_shop", key("zs")));
+
+        cache.invalidate(Collections.singletonList(new IndexRequest("app_shop").id("1")));
+        Assert.assertNotNull(cache.get("app_student", key("zs")));
+        cache.invalidate(Collections.singletonList(new IndexRequest("app_student").id("1")));
+        Assert.assertNull(cache.get("app_student", key("zs")));
+    }
+
+    @Test
+    public void testStalePutSkipped() {
+        SearchResultCache cache = new SearchResultCache(1024 * 1024, 30, TimeUnit.SECONDS, 0);
+        // 查询es期间索引有写入，查询结果不能写入缓存
+        long version = cache.version("app_student");
+        cache.invalidateIndex("app_student");
+        cache.put("app_student", key("zs"), response(false), version);
+        Assert.assertNull(cache.get("app_student", key("zs")));
+
+        // 分片失败的结果不完整，不缓存
+        cache.put("app_student", key("zs"), response(true), cache.version("app_student"));
+        Assert.assertNull(cache.get("app_student", key("zs")));
+    }
+
+    @Test
+    public void testRefreshDelay() {
+        SearchResultCache cache = new SearchResultCache(1024 * 1024, 30, TimeUnit.SECONDS, 60000);
+        cache.put("app_student", key("zs"), response(false), cache.version("app_student"));
+        Assert.assertNotNull(cache.get("app_student", key("zs")));
+
+        // 刚写入的数据未刷新可见，查询结果不缓存
+        cache.invalidateIndex("app_student");
+        cache.put("app_student", key("zs"), response(false), cache.version("app_student"));
+        Assert.assertNull(cache.get("app_student", key("zs")));
+    }
+
+    @Test
+    public void testWeighBySource() {
+        SearchResultCache cache = new SearchResultCache(8 * 1024, 30, TimeUnit.SECONDS, 0);
+        cache.put("app_student", key("zs"), response(false), cache.version("app_student"));
+        Assert.assertNotNull(cache.get("app_student", key("zs")));
+
+        // 按_source大小计算占用，超过上限的响应不保留
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 8 * 1024; i++) {
+            name.append('a');
+        }
+        cache.put("app_student", key("ls"), response(false, name.toString()), cache.version("app_student"));
+        Assert.assertNull(cache.get("app_student", key("ls")));
+    }
+
+    @Test
+    public void testVersionNotReused() {
+        SearchResultCache cache = new SearchResultCache(1024 * 1024, 30, TimeUnit.SECONDS, 0);
+        long student = cache.version("app_student");
+        Assert.assertNotEquals(student, cache.version("app_shop"));
+        cache.invalidateIndex("app_student");
+        Assert.assertNotEquals(student, cache.version("app_student"));
+        Assert.assertNotEquals(cache.version("app_shop"), cache.version("app_student"));
+    }
+}